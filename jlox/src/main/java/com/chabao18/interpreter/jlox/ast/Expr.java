@@ -6,20 +6,45 @@ import java.util.List;
 
 public abstract class Expr {
     public interface Visitor<T> {
+        T visitAllocateExpr(Allocate expr);
         T visitAssignExpr(Assign expr);
         T visitBinaryExpr(Binary expr);
         T visitCallExpr(Call expr);
         T visitGetExpr(Get expr);
+        T visitGetFieldExpr(GetField expr);
         T visitGroupingExpr(Grouping expr);
+        T visitInlineExpr(Inline expr);
         T visitLiteralExpr(Literal expr);
         T visitLogicalExpr(Logical expr);
+        T visitMaterializeExpr(Materialize expr);
         T visitSetExpr(Set expr);
-
+        T visitSetFieldExpr(SetField expr);
         T visitThisExpr(This expr);
         T visitUnaryExpr(Unary expr);
         T visitVariableExpr(Variable expr);
     }
 
+    public static class Allocate extends Expr {
+        public Allocate(Expr.Call call, Stmt.Function initializer, List<Expr> arguments, List<Expr> fields, int base) {
+            this.call = call;
+            this.initializer = initializer;
+            this.arguments = arguments;
+            this.fields = fields;
+            this.base = base;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitAllocateExpr(this);
+        }
+
+        public final Expr.Call call;
+        public final Stmt.Function initializer;
+        public final List<Expr> arguments;
+        public final List<Expr> fields;
+        public final int base;
+    }
+
     public static class Assign extends Expr {
         public Assign(Token name, Expr value) {
             this.name = name;
@@ -33,6 +58,8 @@ public abstract class Expr {
 
         public final Token name;
         public final Expr value;
+        public int depth = -1;
+        public int slot = -1;
     }
 
     public static class Binary extends Expr {
@@ -67,6 +94,8 @@ public abstract class Expr {
         public final Expr callee;
         public final Token paren;
         public final List<Expr> arguments;
+        public boolean tail;
+        public Object site;
     }
 
     public static class Get extends Expr {
@@ -82,6 +111,24 @@ public abstract class Expr {
 
         public final Expr object;
         public final Token name;
+        public Object cache;
+    }
+
+    public static class GetField extends Expr {
+        public GetField(Expr.Variable object, Expr.Get get, int slot) {
+            this.object = object;
+            this.get = get;
+            this.slot = slot;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitGetFieldExpr(this);
+        }
+
+        public final Expr.Variable object;
+        public final Expr.Get get;
+        public final int slot;
     }
 
     public static class Grouping extends Expr {
@@ -97,6 +144,25 @@ public abstract class Expr {
         public final Expr expression;
     }
 
+    public static class Inline extends Expr {
+        public Inline(Expr.Call call, Stmt.Function function, List<Expr> arguments, Expr body) {
+            this.call = call;
+            this.function = function;
+            this.arguments = arguments;
+            this.body = body;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitInlineExpr(this);
+        }
+
+        public final Expr.Call call;
+        public final Stmt.Function function;
+        public final List<Expr> arguments;
+        public final Expr body;
+    }
+
     public static class Literal extends Expr {
         public Literal(Object value) {
             this.value = value;
@@ -127,6 +193,23 @@ public abstract class Expr {
         public final Expr right;
     }
 
+    public static class Materialize extends Expr {
+        public Materialize(Expr.Variable object, List<Token> fields, int base) {
+            this.object = object;
+            this.fields = fields;
+            this.base = base;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitMaterializeExpr(this);
+        }
+
+        public final Expr.Variable object;
+        public final List<Token> fields;
+        public final int base;
+    }
+
     public static class Set extends Expr {
         public Set(Expr object, Token name, Expr value) {
             this.object = object;
@@ -142,6 +225,24 @@ public abstract class Expr {
         public final Expr object;
         public final Token name;
         public final Expr value;
+        public Object cache;
+    }
+
+    public static class SetField extends Expr {
+        public SetField(Expr.Variable object, Expr.Set set, int slot) {
+            this.object = object;
+            this.set = set;
+            this.slot = slot;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitSetFieldExpr(this);
+        }
+
+        public final Expr.Variable object;
+        public final Expr.Set set;
+        public final int slot;
     }
 
     public static class This extends Expr {
@@ -155,6 +256,8 @@ public abstract class Expr {
         }
 
         public final Token keyword;
+        public int depth = -1;
+        public int slot = -1;
     }
 
     public static class Unary extends Expr {
@@ -183,7 +286,11 @@ public abstract class Expr {
         }
 
         public final Token name;
+        public int depth = -1;
+        public int slot = -1;
     }
 
+    public boolean numeric;
+
     public abstract <T> T accept(Visitor<T> visitor);
 }
@@ -0,0 +1,1106 @@
+package com.chabao18.interpreter.jlox.ast;
+
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.core.TokenType;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resolved statements packed in arrays, see GenerateAST.defineFlat(). A node refers to
+ * its children by index, and the lexemes and the values of the literals are constants,
+ * each kept once, so a program takes a few arrays instead of an object per node and token.
+ * The children of a node come right before it.
+ */
+public final class Flat {
+    public static final int ALLOCATE = 0;
+    public static final int ASSIGN = 1;
+    public static final int BINARY = 2;
+    public static final int CALL = 3;
+    public static final int GET = 4;
+    public static final int GET_FIELD = 5;
+    public static final int GROUPING = 6;
+    public static final int INLINE = 7;
+    public static final int LITERAL = 8;
+    public static final int LOGICAL = 9;
+    public static final int MATERIALIZE = 10;
+    public static final int SET = 11;
+    public static final int SET_FIELD = 12;
+    public static final int THIS = 13;
+    public static final int UNARY = 14;
+    public static final int VARIABLE = 15;
+    public static final int BLOCK = 16;
+    public static final int CLASS = 17;
+    public static final int EXPRESSION = 18;
+    public static final int FUNCTION = 19;
+    public static final int IF = 20;
+    public static final int IMPORT = 21;
+    public static final int PRINT = 22;
+    public static final int RETURN = 23;
+    public static final int VAR = 24;
+    public static final int WHILE = 25;
+    // changes with the types, a Flat written with another layout can't be read
+    public static final int LAYOUT = -451577032;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private byte[] kinds;
+    // the token of the node, if it has one
+    private byte[] types;
+    private int[] rows;
+    private int[] offsets;
+    // where the operands of the node start
+    private int[] firsts;
+    private int[] operands;
+    private Object[] constants;
+    // the list of the top-level statements
+    private int program;
+
+    private Flat() {
+    }
+
+    public static Flat flatten(List<Stmt> statements) {
+        Builder builder = new Builder();
+        return builder.finish(builder.list(statements));
+    }
+
+    public int program() {
+        return program;
+    }
+
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    public TokenType operator(int node) {
+        return TYPES[types[node]];
+    }
+
+    /**
+     * the token of the node, created again, e.g. for an error
+     */
+    public Token token(int node) {
+        String lexeme = (String) constants[operands[firsts[node]]];
+        return new Token(operator(node), lexeme, null, rows[node], offsets[node], lexeme.length());
+    }
+
+    public int count(int list) {
+        return operands[list];
+    }
+
+    public int element(int list, int index) {
+        return operands[list + 1 + index];
+    }
+
+    /**
+     * an element of a list of tokens
+     */
+    public String name(int list, int index) {
+        return (String) constants[element(list, index)];
+    }
+
+    public int allocateCall(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int allocateInitializer(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int allocateArguments(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public int allocateFields(int node) {
+        return operands[firsts[node] + 3];
+    }
+
+    public int allocateBase(int node) {
+        return operands[firsts[node] + 4];
+    }
+
+    public boolean allocateNumeric(int node) {
+        return operands[firsts[node] + 5] != 0;
+    }
+
+    public String assignName(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int assignValue(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int assignDepth(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public int assignSlot(int node) {
+        return operands[firsts[node] + 3];
+    }
+
+    public boolean assignNumeric(int node) {
+        return operands[firsts[node] + 4] != 0;
+    }
+
+    public String binaryOperator(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int binaryLeft(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int binaryRight(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean binaryNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public String callParen(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int callCallee(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int callArguments(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean callTail(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public boolean callNumeric(int node) {
+        return operands[firsts[node] + 4] != 0;
+    }
+
+    public String getName(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int getObject(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public boolean getNumeric(int node) {
+        return operands[firsts[node] + 2] != 0;
+    }
+
+    public int getFieldObject(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int getFieldGet(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int getFieldSlot(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean getFieldNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public int groupingExpression(int node) {
+        return operands[firsts[node]];
+    }
+
+    public boolean groupingNumeric(int node) {
+        return operands[firsts[node] + 1] != 0;
+    }
+
+    public int inlineCall(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int inlineFunction(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int inlineArguments(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public int inlineBody(int node) {
+        return operands[firsts[node] + 3];
+    }
+
+    public boolean inlineNumeric(int node) {
+        return operands[firsts[node] + 4] != 0;
+    }
+
+    public Object literalValue(int node) {
+        return constants[operands[firsts[node]]];
+    }
+
+    public boolean literalNumeric(int node) {
+        return operands[firsts[node] + 1] != 0;
+    }
+
+    public String logicalOperator(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int logicalLeft(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int logicalRight(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean logicalNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public int materializeObject(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int materializeFields(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int materializeBase(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean materializeNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public String setName(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int setObject(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int setValue(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean setNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public int setFieldObject(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int setFieldSet(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int setFieldSlot(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean setFieldNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public String thisKeyword(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int thisDepth(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int thisSlot(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean thisNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public String unaryOperator(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int unaryRight(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public boolean unaryNumeric(int node) {
+        return operands[firsts[node] + 2] != 0;
+    }
+
+    public String variableName(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int variableDepth(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int variableSlot(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public boolean variableNumeric(int node) {
+        return operands[firsts[node] + 3] != 0;
+    }
+
+    public int blockStatements(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int blockSlotCount(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public String className(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int classMethods(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int classSlot(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public int expressionExpression(int node) {
+        return operands[firsts[node]];
+    }
+
+    public String functionName(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int functionParams(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int functionBody(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public int functionSlot(int node) {
+        return operands[firsts[node] + 3];
+    }
+
+    public int functionSlotCount(int node) {
+        return operands[firsts[node] + 4];
+    }
+
+    public int functionCalls(int node) {
+        return operands[firsts[node] + 5];
+    }
+
+    public int ifCondition(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int ifThenBranch(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int ifElseBranch(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public String importPath(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int printExpression(int node) {
+        return operands[firsts[node]];
+    }
+
+    public String returnKeyword(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int returnValue(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public String varName(int node) {
+        return (String) constants[operands[firsts[node]]];
+    }
+
+    public int varInitializer(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    public int varSlot(int node) {
+        return operands[firsts[node] + 2];
+    }
+
+    public int whileCondition(int node) {
+        return operands[firsts[node]];
+    }
+
+    public int whileBody(int node) {
+        return operands[firsts[node] + 1];
+    }
+
+    /**
+     * the arrays as they are, for read()
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(kinds.length);
+        out.writeInt(operands.length);
+        out.writeInt(constants.length);
+        out.writeInt(program);
+        out.write(kinds);
+        out.write(types);
+        for (int value : rows) {
+            out.writeInt(value);
+        }
+        for (int value : offsets) {
+            out.writeInt(value);
+        }
+        for (int value : firsts) {
+            out.writeInt(value);
+        }
+        for (int value : operands) {
+            out.writeInt(value);
+        }
+        for (Object constant : constants) {
+            if (constant == null) {
+                out.writeByte(0);
+            } else if (constant instanceof Boolean) {
+                out.writeByte(1);
+                out.writeBoolean((Boolean) constant);
+            } else if (constant instanceof Double) {
+                out.writeByte(2);
+                out.writeDouble((Double) constant);
+            } else {
+                byte[] bytes = ((String) constant).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(3);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * a Flat from what write() wrote, the buffer is left after it
+     */
+    public static Flat read(ByteBuffer buffer) {
+        Flat flat = new Flat();
+        int size = buffer.getInt();
+        int operandCount = buffer.getInt();
+        int constantCount = buffer.getInt();
+        flat.program = buffer.getInt();
+        flat.kinds = new byte[size];
+        buffer.get(flat.kinds);
+        flat.types = new byte[size];
+        buffer.get(flat.types);
+        flat.rows = ints(buffer, size);
+        flat.offsets = ints(buffer, size);
+        flat.firsts = ints(buffer, size);
+        flat.operands = ints(buffer, operandCount);
+        flat.constants = new Object[constantCount];
+        for (int i = 0; i < constantCount; i++) {
+            switch (buffer.get()) {
+                case 0:
+                    break;
+                case 1:
+                    flat.constants[i] = buffer.get() != 0;
+                    break;
+                case 2:
+                    flat.constants[i] = buffer.getDouble();
+                    break;
+                default:
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    flat.constants[i] = new String(bytes, StandardCharsets.UTF_8);
+                    break;
+            }
+        }
+        return flat;
+    }
+
+    private static int[] ints(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * length);
+        return values;
+    }
+
+    /**
+     * the statements that were flattened, resolved
+     */
+    public List<Stmt> statements() {
+        return stmts(program);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Expr> List<T> exprs(int list) {
+        List<T> exprs = new ArrayList<>(count(list));
+        for (int i = 0; i < count(list); i++) {
+            exprs.add((T) expr(element(list, i)));
+        }
+        return exprs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Stmt> List<T> stmts(int list) {
+        List<T> stmts = new ArrayList<>(count(list));
+        for (int i = 0; i < count(list); i++) {
+            stmts.add((T) stmt(element(list, i)));
+        }
+        return stmts;
+    }
+
+    private List<Token> tokens(int list, int node) {
+        List<Token> tokens = new ArrayList<>(count(list));
+        for (int i = 0; i < count(list); i++) {
+            String lexeme = name(list, i);
+            tokens.add(new Token(TokenType.IDENTIFIER, lexeme, null, rows[node], offsets[node], lexeme.length()));
+        }
+        return tokens;
+    }
+
+    private Expr expr(int node) {
+        if (node == -1) {
+            return null;
+        }
+        switch (kinds[node]) {
+            case ALLOCATE: {
+                Expr.Allocate expr = new Expr.Allocate((Expr.Call) expr(allocateCall(node)), (Stmt.Function) stmt(allocateInitializer(node)), exprs(allocateArguments(node)), exprs(allocateFields(node)), allocateBase(node));
+                expr.numeric = allocateNumeric(node);
+                return expr;
+            }
+            case ASSIGN: {
+                Expr.Assign expr = new Expr.Assign(token(node), expr(assignValue(node)));
+                expr.depth = assignDepth(node);
+                expr.slot = assignSlot(node);
+                expr.numeric = assignNumeric(node);
+                return expr;
+            }
+            case BINARY: {
+                Expr.Binary expr = new Expr.Binary(expr(binaryLeft(node)), token(node), expr(binaryRight(node)));
+                expr.numeric = binaryNumeric(node);
+                return expr;
+            }
+            case CALL: {
+                Expr.Call expr = new Expr.Call(expr(callCallee(node)), token(node), exprs(callArguments(node)));
+                expr.tail = callTail(node);
+                expr.numeric = callNumeric(node);
+                return expr;
+            }
+            case GET: {
+                Expr.Get expr = new Expr.Get(expr(getObject(node)), token(node));
+                expr.numeric = getNumeric(node);
+                return expr;
+            }
+            case GET_FIELD: {
+                Expr.GetField expr = new Expr.GetField((Expr.Variable) expr(getFieldObject(node)), (Expr.Get) expr(getFieldGet(node)), getFieldSlot(node));
+                expr.numeric = getFieldNumeric(node);
+                return expr;
+            }
+            case GROUPING: {
+                Expr.Grouping expr = new Expr.Grouping(expr(groupingExpression(node)));
+                expr.numeric = groupingNumeric(node);
+                return expr;
+            }
+            case INLINE: {
+                Expr.Inline expr = new Expr.Inline((Expr.Call) expr(inlineCall(node)), (Stmt.Function) stmt(inlineFunction(node)), exprs(inlineArguments(node)), expr(inlineBody(node)));
+                expr.numeric = inlineNumeric(node);
+                return expr;
+            }
+            case LITERAL: {
+                Expr.Literal expr = new Expr.Literal(literalValue(node));
+                expr.numeric = literalNumeric(node);
+                return expr;
+            }
+            case LOGICAL: {
+                Expr.Logical expr = new Expr.Logical(expr(logicalLeft(node)), token(node), expr(logicalRight(node)));
+                expr.numeric = logicalNumeric(node);
+                return expr;
+            }
+            case MATERIALIZE: {
+                Expr.Materialize expr = new Expr.Materialize((Expr.Variable) expr(materializeObject(node)), tokens(materializeFields(node), node), materializeBase(node));
+                expr.numeric = materializeNumeric(node);
+                return expr;
+            }
+            case SET: {
+                Expr.Set expr = new Expr.Set(expr(setObject(node)), token(node), expr(setValue(node)));
+                expr.numeric = setNumeric(node);
+                return expr;
+            }
+            case SET_FIELD: {
+                Expr.SetField expr = new Expr.SetField((Expr.Variable) expr(setFieldObject(node)), (Expr.Set) expr(setFieldSet(node)), setFieldSlot(node));
+                expr.numeric = setFieldNumeric(node);
+                return expr;
+            }
+            case THIS: {
+                Expr.This expr = new Expr.This(token(node));
+                expr.depth = thisDepth(node);
+                expr.slot = thisSlot(node);
+                expr.numeric = thisNumeric(node);
+                return expr;
+            }
+            case UNARY: {
+                Expr.Unary expr = new Expr.Unary(token(node), expr(unaryRight(node)));
+                expr.numeric = unaryNumeric(node);
+                return expr;
+            }
+            case VARIABLE: {
+                Expr.Variable expr = new Expr.Variable(token(node));
+                expr.depth = variableDepth(node);
+                expr.slot = variableSlot(node);
+                expr.numeric = variableNumeric(node);
+                return expr;
+            }
+            default:
+                throw new IllegalStateException("not an expr: " + kinds[node]);
+        }
+    }
+
+    private Stmt stmt(int node) {
+        if (node == -1) {
+            return null;
+        }
+        switch (kinds[node]) {
+            case BLOCK: {
+                Stmt.Block stmt = new Stmt.Block(stmts(blockStatements(node)));
+                stmt.slotCount = blockSlotCount(node);
+                return stmt;
+            }
+            case CLASS: {
+                Stmt.Class stmt = new Stmt.Class(token(node), stmts(classMethods(node)));
+                stmt.slot = classSlot(node);
+                return stmt;
+            }
+            case EXPRESSION: {
+                Stmt.Expression stmt = new Stmt.Expression(expr(expressionExpression(node)));
+                return stmt;
+            }
+            case FUNCTION: {
+                Stmt.Function stmt = new Stmt.Function(token(node), tokens(functionParams(node), node), stmts(functionBody(node)));
+                stmt.slot = functionSlot(node);
+                stmt.slotCount = functionSlotCount(node);
+                stmt.calls = functionCalls(node);
+                return stmt;
+            }
+            case IF: {
+                Stmt.If stmt = new Stmt.If(expr(ifCondition(node)), stmt(ifThenBranch(node)), stmt(ifElseBranch(node)));
+                return stmt;
+            }
+            case IMPORT: {
+                Stmt.Import stmt = new Stmt.Import(token(node));
+                return stmt;
+            }
+            case PRINT: {
+                Stmt.Print stmt = new Stmt.Print(expr(printExpression(node)));
+                return stmt;
+            }
+            case RETURN: {
+                Stmt.Return stmt = new Stmt.Return(token(node), expr(returnValue(node)));
+                return stmt;
+            }
+            case VAR: {
+                Stmt.Var stmt = new Stmt.Var(token(node), expr(varInitializer(node)));
+                stmt.slot = varSlot(node);
+                return stmt;
+            }
+            case WHILE: {
+                Stmt.While stmt = new Stmt.While(expr(whileCondition(node)), stmt(whileBody(node)));
+                return stmt;
+            }
+            default:
+                throw new IllegalStateException("not a stmt: " + kinds[node]);
+        }
+    }
+
+    private static final class Builder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final Flat flat = new Flat();
+        private int size;
+        private int operandCount;
+        private final Map<Object, Integer> indices = new HashMap<>();
+        private final List<Object> constants = new ArrayList<>();
+
+        Builder() {
+            flat.kinds = new byte[64];
+            flat.types = new byte[64];
+            flat.rows = new int[64];
+            flat.offsets = new int[64];
+            flat.firsts = new int[64];
+            flat.operands = new int[128];
+        }
+
+        Flat finish(int program) {
+            flat.program = program;
+            flat.kinds = Arrays.copyOf(flat.kinds, size);
+            flat.types = Arrays.copyOf(flat.types, size);
+            flat.rows = Arrays.copyOf(flat.rows, size);
+            flat.offsets = Arrays.copyOf(flat.offsets, size);
+            flat.firsts = Arrays.copyOf(flat.firsts, size);
+            flat.operands = Arrays.copyOf(flat.operands, operandCount);
+            flat.constants = constants.toArray();
+            return flat;
+        }
+
+        private int flatten(Expr expr) {
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        private int flatten(Stmt stmt) {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        /**
+         * the elements first, then the list
+         */
+        int list(List<?> elements) {
+            int[] values = new int[elements.size()];
+            for (int i = 0; i < values.length; i++) {
+                Object element = elements.get(i);
+                if (element instanceof Expr) {
+                    values[i] = flatten((Expr) element);
+                } else if (element instanceof Stmt) {
+                    values[i] = flatten((Stmt) element);
+                } else {
+                    values[i] = constant(((Token) element).lexeme);
+                }
+            }
+            int list = operandCount;
+            operand(values.length);
+            for (int value : values) {
+                operand(value);
+            }
+            return list;
+        }
+
+        private int constant(Object value) {
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = constants.size();
+                indices.put(value, index);
+                constants.add(value);
+            }
+            return index;
+        }
+
+        private int node(int kind, Token token) {
+            if (size == flat.kinds.length) {
+                int capacity = size + (size >> 1);
+                flat.kinds = Arrays.copyOf(flat.kinds, capacity);
+                flat.types = Arrays.copyOf(flat.types, capacity);
+                flat.rows = Arrays.copyOf(flat.rows, capacity);
+                flat.offsets = Arrays.copyOf(flat.offsets, capacity);
+                flat.firsts = Arrays.copyOf(flat.firsts, capacity);
+            }
+            flat.kinds[size] = (byte) kind;
+            if (token != null) {
+                flat.types[size] = (byte) token.type.ordinal();
+                flat.rows[size] = token.row;
+                flat.offsets[size] = token.offset;
+            }
+            flat.firsts[size] = operandCount;
+            return size++;
+        }
+
+        private void operand(int value) {
+            if (operandCount == flat.operands.length) {
+                flat.operands = Arrays.copyOf(flat.operands, operandCount + (operandCount >> 1));
+            }
+            flat.operands[operandCount++] = value;
+        }
+
+        @Override
+        public Integer visitAllocateExpr(Expr.Allocate expr) {
+            int call = flatten(expr.call);
+            int initializer = flatten(expr.initializer);
+            int arguments = list(expr.arguments);
+            int fields = list(expr.fields);
+            int node = node(ALLOCATE, null);
+            operand(call);
+            operand(initializer);
+            operand(arguments);
+            operand(fields);
+            operand(expr.base);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int value = flatten(expr.value);
+            int node = node(ASSIGN, expr.name);
+            operand(constant(expr.name.lexeme));
+            operand(value);
+            operand(expr.depth);
+            operand(expr.slot);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            int left = flatten(expr.left);
+            int right = flatten(expr.right);
+            int node = node(BINARY, expr.operator);
+            operand(constant(expr.operator.lexeme));
+            operand(left);
+            operand(right);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int callee = flatten(expr.callee);
+            int arguments = list(expr.arguments);
+            int node = node(CALL, expr.paren);
+            operand(constant(expr.paren.lexeme));
+            operand(callee);
+            operand(arguments);
+            operand(expr.tail ? 1 : 0);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            int object = flatten(expr.object);
+            int node = node(GET, expr.name);
+            operand(constant(expr.name.lexeme));
+            operand(object);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitGetFieldExpr(Expr.GetField expr) {
+            int object = flatten(expr.object);
+            int get = flatten(expr.get);
+            int node = node(GET_FIELD, null);
+            operand(object);
+            operand(get);
+            operand(expr.slot);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            int expression = flatten(expr.expression);
+            int node = node(GROUPING, null);
+            operand(expression);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitInlineExpr(Expr.Inline expr) {
+            int call = flatten(expr.call);
+            int function = flatten(expr.function);
+            int arguments = list(expr.arguments);
+            int body = flatten(expr.body);
+            int node = node(INLINE, null);
+            operand(call);
+            operand(function);
+            operand(arguments);
+            operand(body);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            int node = node(LITERAL, null);
+            operand(constant(expr.value));
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int left = flatten(expr.left);
+            int right = flatten(expr.right);
+            int node = node(LOGICAL, expr.operator);
+            operand(constant(expr.operator.lexeme));
+            operand(left);
+            operand(right);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitMaterializeExpr(Expr.Materialize expr) {
+            int object = flatten(expr.object);
+            int fields = list(expr.fields);
+            int node = node(MATERIALIZE, null);
+            operand(object);
+            operand(fields);
+            operand(expr.base);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            int object = flatten(expr.object);
+            int value = flatten(expr.value);
+            int node = node(SET, expr.name);
+            operand(constant(expr.name.lexeme));
+            operand(object);
+            operand(value);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitSetFieldExpr(Expr.SetField expr) {
+            int object = flatten(expr.object);
+            int set = flatten(expr.set);
+            int node = node(SET_FIELD, null);
+            operand(object);
+            operand(set);
+            operand(expr.slot);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            int node = node(THIS, expr.keyword);
+            operand(constant(expr.keyword.lexeme));
+            operand(expr.depth);
+            operand(expr.slot);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int right = flatten(expr.right);
+            int node = node(UNARY, expr.operator);
+            operand(constant(expr.operator.lexeme));
+            operand(right);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            int node = node(VARIABLE, expr.name);
+            operand(constant(expr.name.lexeme));
+            operand(expr.depth);
+            operand(expr.slot);
+            operand(expr.numeric ? 1 : 0);
+            return node;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            int statements = list(stmt.statements);
+            int node = node(BLOCK, null);
+            operand(statements);
+            operand(stmt.slotCount);
+            return node;
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            int methods = list(stmt.methods);
+            int node = node(CLASS, stmt.name);
+            operand(constant(stmt.name.lexeme));
+            operand(methods);
+            operand(stmt.slot);
+            return node;
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            int expression = flatten(stmt.expression);
+            int node = node(EXPRESSION, null);
+            operand(expression);
+            return node;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            int params = list(stmt.params);
+            int body = list(stmt.body);
+            int node = node(FUNCTION, stmt.name);
+            operand(constant(stmt.name.lexeme));
+            operand(params);
+            operand(body);
+            operand(stmt.slot);
+            operand(stmt.slotCount);
+            operand(stmt.calls);
+            return node;
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            int condition = flatten(stmt.condition);
+            int thenBranch = flatten(stmt.thenBranch);
+            int elseBranch = flatten(stmt.elseBranch);
+            int node = node(IF, null);
+            operand(condition);
+            operand(thenBranch);
+            operand(elseBranch);
+            return node;
+        }
+
+        @Override
+        public Integer visitImportStmt(Stmt.Import stmt) {
+            int node = node(IMPORT, stmt.path);
+            operand(constant(stmt.path.lexeme));
+            return node;
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            int expression = flatten(stmt.expression);
+            int node = node(PRINT, null);
+            operand(expression);
+            return node;
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            int value = flatten(stmt.value);
+            int node = node(RETURN, stmt.keyword);
+            operand(constant(stmt.keyword.lexeme));
+            operand(value);
+            return node;
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            int initializer = flatten(stmt.initializer);
+            int node = node(VAR, stmt.name);
+            operand(constant(stmt.name.lexeme));
+            operand(initializer);
+            operand(stmt.slot);
+            return node;
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            int condition = flatten(stmt.condition);
+            int body = flatten(stmt.body);
+            int node = node(WHILE, null);
+            operand(condition);
+            operand(body);
+            return node;
+        }
+    }
+}
@@ -11,6 +11,7 @@ public abstract class Stmt {
         T visitExpressionStmt(Expression stmt);
         T visitFunctionStmt(Function stmt);
         T visitIfStmt(If stmt);
+        T visitImportStmt(Import stmt);
         T visitPrintStmt(Print stmt);
         T visitReturnStmt(Return stmt);
         T visitVarStmt(Var stmt);
@@ -28,6 +29,7 @@ public abstract class Stmt {
         }
 
         public final List<Stmt> statements;
+        public int slotCount;
     }
 
     public static class Class extends Stmt {
@@ -43,6 +45,7 @@ public abstract class Stmt {
 
         public final Token name;
         public final List<Stmt.Function> methods;
+        public int slot = -1;
     }
 
     public static class Expression extends Stmt {
@@ -73,6 +76,10 @@ public abstract class Stmt {
         public final Token name;
         public final List<Token> params;
         public final List<Stmt> body;
+        public int slot = -1;
+        public int slotCount;
+        public int calls;
+        public Object compiled;
     }
 
     public static class If extends Stmt {
@@ -92,6 +99,19 @@ public abstract class Stmt {
         public final Stmt elseBranch;
     }
 
+    public static class Import extends Stmt {
+        public Import(Token path) {
+            this.path = path;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+
+        public final Token path;
+    }
+
     public static class Print extends Stmt {
         public Print(Expr expression) {
             this.expression = expression;
@@ -133,6 +153,7 @@ public abstract class Stmt {
 
         public final Token name;
         public final Expr initializer;
+        public int slot = -1;
     }
 
     public static class While extends Stmt {
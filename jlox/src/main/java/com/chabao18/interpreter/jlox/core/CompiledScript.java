@@ -0,0 +1,17 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+
+/**
+ * A script a LoxEngine compiled: scanned, parsed, resolved and flattened (see Flat), once.
+ * Nothing changes it after that, any number of LoxContexts may run it at the same time, on
+ * any thread.
+ */
+public final class CompiledScript {
+    // final, a thread that is handed the script sees the arrays as they were made
+    final Flat program;
+
+    CompiledScript(Flat program) {
+        this.program = program;
+    }
+}
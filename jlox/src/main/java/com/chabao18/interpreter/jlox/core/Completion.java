@@ -0,0 +1,12 @@
+package com.chabao18.interpreter.jlox.core;
+
+/**
+ * How a statement finished, returned by every visit of a statement in the Interpreter.
+ * <p>
+ * A statement that doesn't complete normally skips the rest of its enclosing statements, up to
+ * the one that handles it: a function call for RETURN (the value is in Interpreter.returnValue).
+ */
+public enum Completion {
+    NORMAL,
+    RETURN
+}
@@ -16,30 +16,43 @@ public class Environment {
      * ↑
      * +-----------------------+
      * |        BLOCK          |
-     * | local   ->  "inside"  |
+     * | [0]     ->  "inside"  |
      * +-----------------------+
+     * <p>
+     * Globals are looked up by name, since they can be referenced before they are declared.
+     * Locals are stored in a fixed-size array, the Resolver assigns every local a slot in
+     * the declaration order of its scope.
      */
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
+    private final Object[] slots;
 
     Environment() {
         enclosing = null;
+        values = new HashMap<>();
+        slots = null;
     }
 
-    public Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[size];
     }
 
-    public void define(String name, Object value) {
+    void define(String name, Object value) {
         values.put(name, value);
     }
 
-    public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    public void define(int slot, Object value) {
+        slots[slot] = value;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    public Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
+    }
+
+    public void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     Environment ancestor(int distance) {
@@ -55,9 +68,6 @@ public class Environment {
         if (values.containsKey(name.lexeme)) {
             return values.get(name.lexeme);
         }
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
@@ -66,10 +76,6 @@ public class Environment {
             values.put(name.lexeme, value);
             return;
         }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 }
@@ -9,11 +9,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
 public class Interpreter implements Expr.Visitor<Object>,
-        Stmt.Visitor<Void> {
+        Stmt.Visitor<Completion> {
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // the value of the last "return", read once its Completion.RETURN reaches the function
+    private Object returnValue;
 
     Interpreter() {
         globals.define("clock", new LoxCallable() {
@@ -44,13 +47,31 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
     }
 
+    @Override
+    public Object visitAllocateExpr(Expr.Allocate expr) {
+        Object callee = evaluate(expr.call.callee);
+        if (!(callee instanceof LoxClass) || !((LoxClass) callee).isInitializedBy(expr.initializer)) {
+            // the global was assigned something else since
+            LoxInstance receiver = callee instanceof LoxFunction ? ((LoxFunction) callee).receiver() : null;
+            return call(callee, receiver, expr.call);
+        }
+        // the arguments go to their temporaries, then the fields to theirs
+        for (Expr argument : expr.arguments) {
+            evaluate(argument);
+        }
+        for (Expr field : expr.fields) {
+            evaluate(field);
+        }
+        environment.define(expr.base, callee);
+        return VIRTUAL;
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
         // environment.assign(expr.name, value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -59,51 +80,101 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                return evaluateDouble(expr);
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
+                if (expr.numeric) {
+                    return evaluateDouble(expr);
                 }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                break;
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
             case BANG_EQUAL:
-                return !isEqual(left, right);
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return evaluateCondition(expr);
         }
 
-        return null;
+        // a "+" that may concatenate strings
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return (String) left + (String) right;
+        }
+        throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        LoxInstance receiver = null;
+        if (expr.callee instanceof Expr.Get) {
+            // "object.method(...)": pass the receiver straight to the method, don't bind it
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance)) {
+                throw new RuntimeError(get.name, "Only instances have properties.");
+            }
+            LoxInstance instance = (LoxInstance) object;
+            LoxFunction method = instance.getMethod(get);
+            if (method != null) {
+                callee = method;
+                receiver = instance;
+            } else {
+                callee = instance.get(get);
+            }
+        } else {
+            callee = evaluate(expr.callee);
+        }
+        if (receiver == null && callee instanceof LoxFunction) {
+            receiver = ((LoxFunction) callee).receiver();
+        }
+        return call(callee, receiver, expr);
+    }
+
+    /**
+     * call what the site is linked to, see LinkedCall
+     */
+    private Object call(Object callee, LoxInstance receiver, Expr.Call expr) {
+        Object site = expr.site;
+        if (!(site instanceof LinkedCall) || ((LinkedCall) site).callee != callee) {
+            site = LinkedCall.link(callee, expr.arguments.size());
+            if (site == null) {
+                return callGeneric(callee, receiver, expr);
+            }
+            expr.site = site;
+        }
+        switch (((LinkedCall) site).kind) {
+            case LinkedCall.FUNCTION:
+                return invoke((LoxFunction) callee, receiver, expr);
+            case LinkedCall.CLASS:
+                return construct((LoxClass) callee, expr);
+            default:
+                return callNative((LoxCallable) callee, expr);
+        }
+    }
+
+    /**
+     * a call that can't be linked: check the callee and the number of arguments, then call it
+     */
+    private Object callGeneric(Object callee, LoxInstance receiver, Expr.Call expr) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            if (expr.arguments.size() != function.arity()) {
+                for (Expr argument : expr.arguments) {
+                    evaluate(argument);
+                }
+                throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + expr.arguments.size() + ".");
+            }
+            return invoke(function, receiver, expr);
+        }
 
         // check if the callee is a function
         if (!(callee instanceof LoxCallable)) {
@@ -124,21 +195,90 @@ public class Interpreter implements Expr.Visitor<Object>,
         return function.call(this, arguments);
     }
 
+    /**
+     * call a Lox function with the right number of arguments, they are evaluated right into
+     * the slots of its parameters
+     */
+    private Object invoke(LoxFunction function, LoxInstance receiver, Expr.Call expr) {
+        Environment environment = arguments(function, receiver, expr);
+        if (expr.tail) {
+            // "return f(...);": the function that returns makes the call, see LoxFunction.execute()
+            return function.tailCall(environment);
+        }
+        return function.execute(this, environment);
+    }
+
+    /**
+     * call a class with the right number of arguments
+     */
+    private Object construct(LoxClass klass, Expr.Call expr) {
+        LoxInstance instance = klass.instantiate();
+        LoxFunction initializer = klass.initializer();
+        if (initializer != null) {
+            initializer.execute(this, arguments(initializer, instance, expr));
+        }
+        return instance;
+    }
+
+    /**
+     * call a native function with the right number of arguments
+     */
+    private Object callNative(LoxCallable function, Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+        return function.call(this, arguments);
+    }
+
+    private Environment arguments(LoxFunction function, LoxInstance receiver, Expr.Call expr) {
+        Environment environment = function.newEnvironment(receiver);
+        int slot = function.parameterSlot();
+        for (Expr argument : expr.arguments) {
+            environment.define(slot++, evaluate(argument));
+        }
+        return environment;
+    }
+
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(expr);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
 
+    @Override
+    public Object visitGetFieldExpr(Expr.GetField expr) {
+        Expr.Variable object = expr.object;
+        if (environment.getAt(object.depth, object.slot) != VIRTUAL) {
+            return visitGetExpr(expr.get);
+        }
+        return environment.getAt(object.depth, expr.slot);
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
     }
 
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Object callee = evaluate(expr.call.callee);
+        if (!(callee instanceof LoxFunction) || !((LoxFunction) callee).isDeclaredBy(expr.function)) {
+            // the global was assigned something else since
+            LoxInstance receiver = callee instanceof LoxFunction ? ((LoxFunction) callee).receiver() : null;
+            return call(callee, receiver, expr.call);
+        }
+        // the arguments go to their temporaries
+        for (Expr argument : expr.arguments) {
+            evaluate(argument);
+        }
+        return evaluate(expr.body);
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -163,6 +303,23 @@ public class Interpreter implements Expr.Visitor<Object>,
         return evaluate(expr.right);
     }
 
+    @Override
+    public Object visitMaterializeExpr(Expr.Materialize expr) {
+        Expr.Variable object = expr.object;
+        Object value = environment.getAt(object.depth, object.slot);
+        if (value != VIRTUAL) {
+            return value;
+        }
+        Object[] values = new Object[expr.fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = environment.getAt(object.depth, expr.base + 1 + i);
+        }
+        LoxClass klass = (LoxClass) environment.getAt(object.depth, expr.base);
+        LoxInstance instance = klass.instantiate(expr.fields, values);
+        environment.assignAt(object.depth, object.slot, instance);
+        return instance;
+    }
+
     @Override
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
@@ -172,25 +329,33 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance) object).set(expr.name, value);
+        ((LoxInstance) object).set(expr, value);
+        return value;
+    }
+
+    @Override
+    public Object visitSetFieldExpr(Expr.SetField expr) {
+        Expr.Variable object = expr.object;
+        if (environment.getAt(object.depth, object.slot) != VIRTUAL) {
+            return visitSetExpr(expr.set);
+        }
+        Object value = evaluate(expr.set.value);
+        environment.assignAt(object.depth, expr.slot, value);
         return value;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double) right;
+                return evaluateDouble(expr);
             case BANG:
-                return !isTruthy(right);
+                return !evaluateCondition(expr.right);
         }
 
         // unreachable
@@ -200,18 +365,28 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
         // return environment.get(expr.name);
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    /**
+     * the depth and the slot are filled in by the Resolver, a depth of -1 means a global
+     */
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth != -1) {
+            return environment.getAt(depth, slot);
         } else {
             return globals.get(name);
         }
     }
 
+    public Object getGlobal(Token name) {
+        return globals.get(name);
+    }
+
+    public void assignGlobal(Token name, Object value) {
+        globals.assign(name, value);
+    }
+
     /**
      * recursively evaluate the expression inside the parentheses
      */
@@ -219,61 +394,169 @@ public class Interpreter implements Expr.Visitor<Object>,
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
-    }
+    /**
+     * Evaluate an expression the Resolver marked numeric without boxing its result, so nested
+     * arithmetic only boxes the final value. The operands that aren't numeric by construction
+     * are only checked once both sides ran, so the errors come in the same order as before.
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return (double) ((Expr.Literal) expr).value;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.right.numeric) {
+                return -evaluateDouble(unary.right);
+            }
+            Object right = evaluate(unary.right);
+            checkNumberOperand(unary.operator, right);
+            return -(double) right;
+        }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
+        Expr.Binary binary = (Expr.Binary) expr;
+        boolean leftNumeric = binary.left.numeric;
+        Object leftValue = leftNumeric ? null : evaluate(binary.left);
+        double left = leftNumeric ? evaluateDouble(binary.left) : 0;
+        boolean rightNumeric = binary.right.numeric;
+        Object rightValue = rightNumeric ? null : evaluate(binary.right);
+        double right = rightNumeric ? evaluateDouble(binary.right) : 0;
+        if (!leftNumeric) {
+            left = checkNumberOperand(binary.operator, leftValue, rightNumeric || rightValue instanceof Double);
+        }
+        if (!rightNumeric) {
+            right = checkNumberOperand(binary.operator, rightValue, true);
+        }
 
-    public void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
-        try {
-            this.environment = environment;
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
-        } finally {
-            this.environment = previous;
+        switch (binary.operator.type) {
+            case MINUS:
+                return left - right;
+            case SLASH:
+                if (Double.compare(right, 0.0) == 0) {
+                    throw new RuntimeError(binary.operator, "Division by zero.");
+                }
+                return left / right;
+            case STAR:
+                return left * right;
+            default:
+                return left + right;
         }
     }
 
-    private boolean isTruthy(Object object) {
-        if (object == null) {
-            return false;
+    /**
+     * Evaluate an expression for its truthiness only, like the condition of an "if" or a
+     * "while". Comparisons produce a primitive boolean, nothing is boxed on the way.
+     */
+    private boolean evaluateCondition(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case BANG_EQUAL:
+                    return !isEqual(evaluate(binary.left), evaluate(binary.right));
+                case EQUAL_EQUAL:
+                    return isEqual(evaluate(binary.left), evaluate(binary.right));
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    return compare(binary);
+            }
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.operator.type == TokenType.BANG) {
+                return !evaluateCondition(unary.right);
+            }
+        } else if (expr instanceof Expr.Logical) {
+            // only the truthiness of the operand that decides matters
+            Expr.Logical logical = (Expr.Logical) expr;
+            if (logical.operator.type == TokenType.OR) {
+                return evaluateCondition(logical.left) || evaluateCondition(logical.right);
+            }
+            return evaluateCondition(logical.left) && evaluateCondition(logical.right);
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateCondition(((Expr.Grouping) expr).expression);
         }
-        if (object instanceof Boolean) {
-            return (boolean) object;
+        return isTruthy(evaluate(expr));
+    }
+
+    private boolean compare(Expr.Binary binary) {
+        boolean leftNumeric = binary.left.numeric;
+        Object leftValue = leftNumeric ? null : evaluate(binary.left);
+        double left = leftNumeric ? evaluateDouble(binary.left) : 0;
+        boolean rightNumeric = binary.right.numeric;
+        Object rightValue = rightNumeric ? null : evaluate(binary.right);
+        double right = rightNumeric ? evaluateDouble(binary.right) : 0;
+        if (!leftNumeric) {
+            left = checkNumberOperand(binary.operator, leftValue, rightNumeric || rightValue instanceof Double);
         }
-        if (object instanceof Double) {
-            return (double) object != 0;
+        if (!rightNumeric) {
+            right = checkNumberOperand(binary.operator, rightValue, true);
+        }
+
+        switch (binary.operator.type) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
         }
-        return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) {
-            return true;
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * a slot of -1 means the Resolver left the variable to the globals
+     */
+    private void define(int slot, Token name, Object value) {
+        if (slot == -1) {
+            globals.define(name.lexeme, value);
+        } else {
+            environment.define(slot, value);
         }
-        if (a == null) {
-            return false;
+    }
+
+    public Completion executeBlock(List<Stmt> statements, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            return executeAll(statements);
+        } finally {
+            this.environment = previous;
         }
-        return a.equals(b);
     }
 
-    private String stringify(Object object) {
-        if (object == null) {
-            return "nil";
+    /**
+     * run the body of a function
+     *
+     * @return the value of the "return" that ended it, null if it ran to its end
+     */
+    public Object executeBody(List<Stmt> body, Environment environment) {
+        if (executeBlock(body, environment) == Completion.RETURN) {
+            Object value = returnValue;
+            returnValue = null;
+            return value;
         }
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
+        return null;
+    }
+
+    /**
+     * run the statements until one of them doesn't complete normally
+     */
+    private Completion executeAll(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            Completion completion = execute(statement);
+            if (completion != Completion.NORMAL) {
+                return completion;
             }
-            return text;
         }
-        return object.toString();
+        return Completion.NORMAL;
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -283,93 +566,108 @@ public class Interpreter implements Expr.Visitor<Object>,
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) {
-            if (operator.type == TokenType.SLASH && Double.compare((double) right, 0.0) == 0) {
-                throw new RuntimeError(operator, "Division by zero.");
-            }
-            return;
+    /**
+     * unbox one operand of a numeric binary operator, the other one must be a number as well
+     */
+    private double checkNumberOperand(Token operator, Object operand, boolean otherIsNumber) {
+        if (operand instanceof Double && otherIsNumber) {
+            return (double) operand;
+        }
+        if (operator.type == TokenType.PLUS) {
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
         }
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // the Resolver didn't give a scope to a block that declares nothing
+        if (stmt.slotCount == 0) {
+            return executeAll(stmt.statements);
+        }
+        return executeBlock(stmt.statements, new Environment(environment, stmt.slotCount));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"), true);
             methods.put(method.name.lexeme, function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, methods);
-        environment.assign(stmt.name, klass);
-        return null;
+        define(stmt.slot, stmt.name, klass);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         // when defining a function, use the current environment as the closure
         // next step: go LoxFunction.java: call()
         LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        define(stmt.slot, stmt.name, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+    public Completion visitIfStmt(Stmt.If stmt) {
+        if (evaluateCondition(stmt.condition)) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitImportStmt(Stmt.Import stmt) {
+        // the module ran before the program, see ModuleLoader
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
         if (stmt.value != null) {
             value = evaluate(stmt.value);
         }
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, stmt.name, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while (evaluateCondition(stmt.condition)) {
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
         }
-        return null;
+        return Completion.NORMAL;
     }
 }
@@ -0,0 +1,43 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.runtime.LoxCallable;
+import com.chabao18.interpreter.jlox.runtime.LoxClass;
+import com.chabao18.interpreter.jlox.runtime.LoxFunction;
+
+/**
+ * The callee an Expr.Call is linked to, stored in its "site" field.
+ * <p>
+ * The checks of a call (callable, arity) are done once when the callee is linked. As long as
+ * the site keeps calling the same callee, the Interpreter calls it right away; another callee
+ * relinks the site. Linked entries are never modified, a new one replaces the old one.
+ */
+final class LinkedCall {
+    static final int FUNCTION = 0;
+    static final int CLASS = 1;
+    static final int NATIVE = 2;
+
+    final Object callee;
+    final int kind;
+
+    private LinkedCall(Object callee, int kind) {
+        this.callee = callee;
+        this.kind = kind;
+    }
+
+    /**
+     * @return null if the callee can't be linked: it isn't callable, or it doesn't take that
+     * number of arguments
+     */
+    static LinkedCall link(Object callee, int arguments) {
+        if (!(callee instanceof LoxCallable) || ((LoxCallable) callee).arity() != arguments) {
+            return null;
+        }
+        if (callee instanceof LoxFunction) {
+            return new LinkedCall(callee, FUNCTION);
+        }
+        if (callee instanceof LoxClass) {
+            return new LinkedCall(callee, CLASS);
+        }
+        return new LinkedCall(callee, NATIVE);
+    }
+}
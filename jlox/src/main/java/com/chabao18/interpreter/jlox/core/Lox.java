@@ -1,29 +1,104 @@
 package com.chabao18.interpreter.jlox.core;
 
+import com.chabao18.interpreter.jlox.ast.Flat;
 import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.flat.FlatEngine;
+import com.chabao18.interpreter.jlox.node.NodeEngine;
+import com.chabao18.interpreter.jlox.opt.Optimizer;
 import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+import com.chabao18.interpreter.jlox.vm.CompileError;
+import com.chabao18.interpreter.jlox.vm.VM;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 class Lox {
 
+    private enum Engine {
+        // walk the AST
+        INTERPRETER,
+        // compile to bytecode, see jlox.vm
+        VM,
+        // compile to a tree of self-evaluating nodes, see jlox.node
+        NODES,
+        // walk the AST packed in arrays, see Flat
+        FLAT
+    }
+
     // make the interpreter static so that it can store global state
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm;
+    private static NodeEngine nodes;
+    private static FlatEngine flat;
+    private static Engine engine = Engine.INTERPRETER;
+    // run a script one top-level declaration at a time, as it is read
+    private static boolean stream = false;
+    // keep the resolved program of a script on disk, see ScriptCache
+    private static boolean cache = false;
+    // run the declarations of a script again as they are edited, see Reloader
+    private static boolean watch = false;
+    private static final ModuleLoader modules = new ModuleLoader();
+    // the names of the modules the lines of the REPL imported
+    private static final Set<String> imported = new HashSet<>();
+    // where the imports of the program start: the directory of the script, or the current one
+    private static Path directory = Paths.get("");
+    // the path of the module running, null while the program does
+    private static Path running = null;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                engine = Engine.VM;
+                vm = new VM();
+            } else if (arg.equals("--nodes")) {
+                engine = Engine.NODES;
+                nodes = new NodeEngine();
+            } else if (arg.equals("--flat")) {
+                engine = Engine.FLAT;
+                flat = new FlatEngine();
+            } else if (arg.equals("--stream")) {
+                stream = true;
+            } else if (arg.equals("--cache")) {
+                cache = true;
+            } else if (arg.equals("--watch")) {
+                watch = true;
+            } else if (arg.startsWith("--") || script != null) {
+                System.out.println("Usage: jlox [--vm | --nodes | --flat] [--stream | --cache | --watch] [script]");
+                System.exit(64);
+            } else {
+                script = arg;
+            }
+        }
+
+        if (script != null) {
+            directory = Paths.get(script).toAbsolutePath().getParent();
+        }
+        if (script != null && stream) {
+            runStream(script);
+        } else if (script != null && watch) {
+            runWatch(script);
+        } else if (script != null) {
+            runFile(script);
         } else {
             runPrompt();
         }
@@ -32,7 +107,11 @@ class Lox {
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        if (cache) {
+            runCached(Paths.get(path), bytes);
+        } else {
+            run(new String(bytes, Charset.defaultCharset()), true);
+        }
         if (hadError) {
             System.exit(65);
         }
@@ -41,6 +120,114 @@ class Lox {
         }
     }
 
+    /**
+     * read, parse and run the script a top-level declaration at a time: only the declaration
+     * being run is in memory, with what it declares. The declarations before an error have
+     * run by the time it is reported, the ones after it are only checked for more errors.
+     */
+    private static void runStream(String path) throws IOException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+            Parser parser = new Parser(new Scanner(reader).stream());
+            for (List<Stmt> statements = parser.parseNext(); statements != null; statements = parser.parseNext()) {
+                // a later declaration may refer to a function of this one, and nothing runs
+                // after an error
+                execute(statements, false);
+                if (hadRuntimeError) {
+                    break;
+                }
+            }
+        }
+        if (hadError) {
+            System.exit(65);
+        }
+        if (hadRuntimeError) {
+            System.exit(70);
+        }
+    }
+
+    /**
+     * run the resolved program the cache has for the source, or make it and store it first
+     */
+    private static void runCached(Path path, byte[] bytes) {
+        ScriptCache cache = new ScriptCache(path, bytes);
+        Flat program = cache.load();
+        // the ones just resolved, on a miss
+        List<Stmt> statements = null;
+        if (program == null) {
+            statements = new Parser(new Scanner(new String(bytes, Charset.defaultCharset())).scanTokens()).parse();
+            if (hadError) {
+                return;
+            }
+            new Resolver().resolve(statements);
+            if (hadError) {
+                return;
+            }
+            program = Flat.flatten(statements);
+            cache.store(program);
+        }
+
+        // the imports are at the top level
+        List<Stmt.Import> imports = new ArrayList<>();
+        int list = program.program();
+        for (int i = 0; i < program.count(list); i++) {
+            int node = program.element(list, i);
+            if (program.kind(node) == Flat.IMPORT) {
+                imports.add(new Stmt.Import(program.token(node)));
+            }
+        }
+        if (!runModules(imports)) {
+            return;
+        }
+        if (engine == Engine.FLAT) {
+            interpret(program);
+        } else if (statements != null) {
+            interpret(statements, imports.isEmpty());
+        } else {
+            interpret(program.statements(), imports.isEmpty());
+        }
+    }
+
+    /**
+     * run the script, then each edit of it as it is saved, until the process is stopped: an
+     * error only skips the version that has it
+     */
+    private static void runWatch(String path) throws IOException {
+        Path script = Paths.get(path).toAbsolutePath();
+        Reloader reloader = new Reloader();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            script.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            for (; ; ) {
+                String source;
+                try {
+                    source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+                } catch (NoSuchFileException e) {
+                    // an editor may replace the file by moving another one
+                    source = null;
+                }
+                if (source != null) {
+                    List<Stmt> statements = reloader.reload(source);
+                    if (statements != null) {
+                        runResolved(statements, false);
+                    }
+                }
+                hadError = false;
+                hadRuntimeError = false;
+
+                // wait for the script to change
+                boolean changed = false;
+                while (!changed) {
+                    WatchKey key = watcher.take();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= script.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
@@ -51,20 +238,25 @@ class Lox {
             if (line == null) {
                 break;
             }
-            run(line);
+            run(line, false);
             // won't interrupt the program even if there is an error
             hadError = false;
+            hadRuntimeError = false;
         }
     }
 
-    private static void run(String source) {
+    /**
+     * @param wholeProgram whether the source is all there is, the REPL may refer to a function
+     *                     in a later line
+     */
+    private static void run(String source, boolean wholeProgram) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-//        for (Token token : tokens) {
-//            System.out.println(token);
+        TokenBuffer tokens = scanner.scanTokens();
+//        for (int i = 0; i < tokens.size(); i++) {
+//            System.out.println(tokens.token(i));
 //        }
 
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(tokens, imported);
         List<Stmt> statements = parser.parse();
 
         // no need to report runtime error when using REPL
@@ -72,37 +264,136 @@ class Lox {
             return;
         }
 
-        Resolver resolver = new Resolver(interpreter);
+        execute(statements, wholeProgram);
+    }
+
+    /**
+     * resolve, optimize and run parsed statements
+     */
+    private static void execute(List<Stmt> statements, boolean wholeProgram) {
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // stop if there was a resolution error
         if (hadError) {
             return;
         }
+        runResolved(statements, wholeProgram);
+    }
 
-        interpreter.interpret(statements);
+    /**
+     * run resolved statements, after the modules they import
+     */
+    private static void runResolved(List<Stmt> statements, boolean wholeProgram) {
+        List<Stmt.Import> imports = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) {
+                imports.add((Stmt.Import) statement);
+            }
+        }
+        if (!runModules(imports)) {
+            return;
+        }
+
+        if (engine == Engine.FLAT) {
+            // the nodes of the Optimizer refer to the tree, flatten what the Resolver left
+            interpret(Flat.flatten(statements));
+            return;
+        }
+        // the modules call the globals of the program by name, the Optimizer can't see that
+        interpret(statements, wholeProgram && imports.isEmpty());
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.row, token.offset, "at end", message);
-        } else {
-            report(token.row, token.offset, "at '" + token.lexeme + "'", message);
+    /**
+     * load the modules the program imports and run the ones that didn't run yet
+     *
+     * @return false if a module had an error, and the program shouldn't run
+     */
+    private static boolean runModules(List<Stmt.Import> imports) {
+        if (imports.isEmpty()) {
+            return true;
+        }
+        for (Map.Entry<Path, List<Stmt>> module : modules.load(directory, imports).entrySet()) {
+            running = module.getKey();
+            try {
+                // the program doesn't refer to what it doesn't use of a module, keep it all
+                if (engine == Engine.FLAT) {
+                    interpret(Flat.flatten(module.getValue()));
+                } else {
+                    interpret(module.getValue(), false);
+                }
+            } finally {
+                running = null;
+            }
+            if (hadRuntimeError) {
+                return false;
+            }
         }
+        return !hadError;
     }
 
-    static void error(int row, int col, String format, Object... args) {
-        String message = String.format(format, args);
-        report(row, col, "", message);
+    private static void interpret(Flat program) {
+        try {
+            flat.interpret(program);
+        } catch (RuntimeError error) {
+            runtimeError(error);
+        }
+    }
+
+    /**
+     * optimize and run resolved statements
+     */
+    private static void interpret(List<Stmt> statements, boolean wholeProgram) {
+        statements = new Optimizer(wholeProgram).optimize(statements);
+
+        if (engine == Engine.VM) {
+            try {
+                vm.interpret(statements);
+            } catch (CompileError error) {
+                (running == null ? reporter : reporter(running)).error(error.token, error.getMessage());
+            } catch (RuntimeError error) {
+                runtimeError(error);
+            }
+            return;
+        }
+
+        if (engine == Engine.NODES) {
+            try {
+                nodes.interpret(statements);
+            } catch (RuntimeError error) {
+                runtimeError(error);
+            }
+            return;
+        }
+
+        interpreter.interpret(statements);
     }
 
-    private static void report(int row, int col, String where, String message) {
-        System.err.printf("[%d:%d] Error %s: %s\n", row, col, where, message);
-        hadError = true;
+    // the errors of the sources go to stderr
+    static final Reporter reporter = new Reporter() {
+        @Override
+        void report(int row, int col, String where, String message) {
+            System.err.printf("%s\n", format(row, col, where, message));
+            hadError = true;
+        }
+    };
+
+    /**
+     * the reporter of a module, its errors start with its path
+     */
+    static Reporter reporter(Path path) {
+        return new Reporter() {
+            @Override
+            void report(int row, int col, String where, String message) {
+                System.err.printf("%s: %s\n", path, format(row, col, where, message));
+                hadError = true;
+            }
+        };
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.printf("[%d:%d] RuntimeError: %s\n", error.token.row, error.token.offset, error.getMessage());
+        String where = running == null ? "" : running + ": ";
+        System.err.printf("%s[%d:%d] RuntimeError: %s\n", where, error.token.row, error.token.offset, error.getMessage());
         hadRuntimeError = true;
     }
 
@@ -0,0 +1,52 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.flat.FlatEngine;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import java.io.PrintStream;
+
+/**
+ * The globals, the output and the errors of the scripts one thread runs, see LoxEngine. A
+ * context is cheap to make, and is used by one thread at a time.
+ */
+public final class LoxContext {
+    private final FlatEngine engine;
+    private final PrintStream err;
+
+    LoxContext(PrintStream out, PrintStream err) {
+        this.engine = new FlatEngine(out);
+        this.err = err;
+    }
+
+    /**
+     * run a script with the globals of the context, the ones it defines stay for the next run
+     *
+     * @return false if it stopped at a runtime error, which went to the error stream
+     */
+    public boolean run(CompiledScript script) {
+        try {
+            engine.interpret(script.program);
+            return true;
+        } catch (RuntimeError error) {
+            err.printf("[%d:%d] RuntimeError: %s\n", error.token.row, error.token.offset, error.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return the value of a global, null if it is nil or there is no such global
+     */
+    public Object get(String name) {
+        return engine.get(name);
+    }
+
+    /**
+     * define a global for the scripts: a Double, a String, a Boolean, null or a value get()
+     * returned, any other Number is made a Double
+     *
+     * @throws IllegalArgumentException if the value is of another type
+     */
+    public void set(String name, Object value) {
+        engine.define(name, value);
+    }
+}
@@ -0,0 +1,70 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs jlox in a Java program:
+ * <pre>
+ * LoxEngine engine = new LoxEngine();
+ * CompiledScript rules = engine.compile(source);
+ * // on every worker thread
+ * LoxContext context = engine.newContext(out, err);
+ * context.run(rules);
+ * </pre>
+ * The engine keeps nothing of a compile or a run, and a CompiledScript doesn't change, so the
+ * threads share both without a lock. What a run changes, the globals, is in its LoxContext.
+ * The scripts run on the flat form (see Flat), whose nodes have no caches to write to.
+ */
+public final class LoxEngine {
+
+    /**
+     * @throws ScriptError if the source has errors
+     */
+    public CompiledScript compile(String source) {
+        List<String> errors = new ArrayList<>();
+        // of this compile only, the one of the command line sets a static flag
+        Reporter reporter = new Reporter() {
+            @Override
+            void report(int row, int col, String where, String message) {
+                errors.add(format(row, col, where, message));
+            }
+        };
+
+        List<Stmt> statements = new Parser(new Scanner(source, reporter).scanTokens()).parse();
+        if (errors.isEmpty()) {
+            for (Stmt statement : statements) {
+                if (statement instanceof Stmt.Import) {
+                    // modules are loaded from files, by the command line
+                    reporter.error(((Stmt.Import) statement).path, "Can only import in a script run from a file.");
+                }
+            }
+        }
+        if (errors.isEmpty()) {
+            new Resolver(reporter).resolve(statements);
+        }
+        if (!errors.isEmpty()) {
+            throw new ScriptError(errors);
+        }
+        return new CompiledScript(Flat.flatten(statements));
+    }
+
+    /**
+     * a context that prints to stdout and reports to stderr
+     */
+    public LoxContext newContext() {
+        return newContext(System.out, System.err);
+    }
+
+    /**
+     * @param out where "print" goes
+     * @param err where the runtime errors go
+     */
+    public LoxContext newContext(PrintStream out, PrintStream err) {
+        return new LoxContext(out, err);
+    }
+}
@@ -0,0 +1,232 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.ast.Stmt;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Loads the modules a program imports: "import "lib/math.lox";" is the module "math", its
+ * path relative to the file that imports it.
+ * <p>
+ * A module doesn't depend on the ones it imports until it runs, so every module is scanned,
+ * parsed and resolved on its own task of the common fork-join pool, which forks the ones it
+ * imports as soon as it has parsed them. The resolved module is kept by its real path and
+ * its time of modification: a module imported again, by another module or a later line of
+ * the REPL, is only read again when its file changed.
+ * <p>
+ * The modules run before the program that imports them, each after the ones it imports and
+ * once, unless its file changed.
+ */
+final class ModuleLoader {
+
+    private static final class Module {
+        final Path path;
+        final String name;
+        final FileTime modified;
+        // its errors, and those of the imports in it, name its path
+        final Reporter reporter;
+        // resolved, null if the module couldn't be read or had an error
+        List<Stmt> statements;
+        final List<Stmt.Import> imports = new ArrayList<>();
+        // the task of each import, null where the path is wrong
+        final List<ForkJoinTask<Module>> tasks = new ArrayList<>();
+        boolean ran = false;
+
+        Module(Path path, String name, FileTime modified) {
+            this.path = path;
+            this.name = name;
+            this.modified = modified;
+            this.reporter = Lox.reporter(path);
+        }
+    }
+
+    // by real path, of every load
+    private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+    // the tasks of the load in progress, a module imported twice is read once
+    private final Map<Path, ForkJoinTask<Module>> tasks = new ConcurrentHashMap<>();
+    // the path of each module name, two modules can't share the globals of one
+    private final Map<String, Path> names = new HashMap<>();
+
+    /**
+     * the name of the module a path imports: its file name without ".lox", "" if it has none
+     */
+    static String name(Token path) {
+        try {
+            Path file = Paths.get(literal(path)).getFileName();
+            String name = file == null ? "" : file.toString();
+            return name.endsWith(".lox") ? name.substring(0, name.length() - ".lox".length()) : name;
+        } catch (InvalidPathException e) {
+            return "";
+        }
+    }
+
+    // the lexeme, the flat form doesn't keep the value of the string
+    private static String literal(Token path) {
+        return path.lexeme.substring(1, path.lexeme.length() - 1);
+    }
+
+    /**
+     * load the modules the imports of a program need, in the order they run
+     *
+     * @param directory where the paths of the imports start
+     * @return the resolved statements of each module to run by its path, empty if there was
+     * an error
+     */
+    Map<Path, List<Stmt>> load(Path directory, List<Stmt.Import> imports) {
+        List<ForkJoinTask<Module>> roots = new ArrayList<>();
+        for (Stmt.Import stmt : imports) {
+            roots.add(submit(directory, stmt, Lox.reporter));
+        }
+
+        // the order: each module after its imports, a cycle is broken where it closes
+        List<Module> order = new ArrayList<>();
+        Set<Module> visited = new HashSet<>();
+        for (int i = 0; i < roots.size(); i++) {
+            visit(roots.get(i), imports.get(i), Lox.reporter, visited, order);
+        }
+        // wait for the modules no import reached, those of a module with an error: a task
+        // starts its imports before it is done
+        for (int joined = -1; joined != tasks.size(); ) {
+            joined = tasks.size();
+            for (ForkJoinTask<Module> task : new ArrayList<>(tasks.values())) {
+                task.join();
+            }
+        }
+
+        if (Lox.hadError) {
+            // the modules are read again, after the fix
+            for (ForkJoinTask<Module> task : tasks.values()) {
+                modules.remove(task.join().path, task.join());
+            }
+            tasks.clear();
+            return new LinkedHashMap<>();
+        }
+        tasks.clear();
+        Map<Path, List<Stmt>> programs = new LinkedHashMap<>();
+        for (Module module : order) {
+            if (!module.ran) {
+                module.ran = true;
+                programs.put(module.path, module.statements);
+            }
+        }
+        return programs;
+    }
+
+    /**
+     * @param reporter of the source the import is in
+     */
+    private void visit(ForkJoinTask<Module> task, Stmt.Import stmt, Reporter reporter, Set<Module> visited,
+                       List<Module> order) {
+        if (task == null) {
+            return;
+        }
+        Module module = task.join();
+        if (!visited.add(module)) {
+            return;
+        }
+        Path other = names.putIfAbsent(module.name, module.path);
+        if (other != null && !other.equals(module.path)) {
+            reporter.error(stmt.path, "Already a module named '" + module.name + "' at " + other + ".");
+            return;
+        }
+        if (module.statements == null) {
+            return;
+        }
+        for (int i = 0; i < module.imports.size(); i++) {
+            visit(module.tasks.get(i), module.imports.get(i), module.reporter, visited, order);
+        }
+        order.add(module);
+    }
+
+    /**
+     * the task of the module an import names, started if it isn't already
+     *
+     * @param reporter of the source the import is in
+     * @return null if the file can't be found
+     */
+    private ForkJoinTask<Module> submit(Path directory, Stmt.Import stmt, Reporter reporter) {
+        Path path;
+        FileTime modified;
+        try {
+            path = directory.resolve(literal(stmt.path)).toRealPath();
+            modified = Files.getLastModifiedTime(path);
+        } catch (IOException | InvalidPathException e) {
+            reporter.error(stmt.path, "Cannot read module '" + literal(stmt.path) + "'.");
+            return null;
+        }
+
+        ForkJoinTask<Module> task = tasks.get(path);
+        if (task != null) {
+            return task;
+        }
+        Module module = modules.get(path);
+        if (module != null && module.modified.equals(modified)) {
+            task = ForkJoinTask.adapt(() -> refresh(module));
+        } else {
+            Module loaded = new Module(path, name(stmt.path), modified);
+            task = ForkJoinTask.adapt(() -> compile(loaded));
+        }
+        ForkJoinTask<Module> other = tasks.putIfAbsent(path, task);
+        if (other != null) {
+            // another module imported it first
+            return other;
+        }
+        ForkJoinPool.commonPool().execute(task);
+        return task;
+    }
+
+    /**
+     * a module whose file didn't change, the ones it imports may have
+     */
+    private Module refresh(Module module) {
+        for (int i = 0; i < module.imports.size(); i++) {
+            module.tasks.set(i, submit(module.path.getParent(), module.imports.get(i), module.reporter));
+        }
+        return module;
+    }
+
+    /**
+     * scan, parse and resolve a module, and start the modules it imports
+     */
+    private Module compile(Module module) {
+        modules.put(module.path, module);
+        String source;
+        try {
+            source = new String(Files.readAllBytes(module.path), Charset.defaultCharset());
+        } catch (IOException e) {
+            module.reporter.error(0, 0, "Cannot read module '%s'.", module.path);
+            return module;
+        }
+
+        List<Stmt> statements = new Parser(new Scanner(source, module.reporter).scanTokens(), module.name).parse();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) {
+                module.imports.add((Stmt.Import) statement);
+                module.tasks.add(submit(module.path.getParent(), (Stmt.Import) statement, module.reporter));
+            }
+        }
+        if (statements.contains(null)) {
+            // the Parser reported it
+            return module;
+        }
+        new Resolver(module.reporter).resolve(statements);
+        module.statements = statements;
+        return module;
+    }
+}
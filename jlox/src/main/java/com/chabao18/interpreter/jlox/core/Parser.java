@@ -5,29 +5,90 @@ import com.chabao18.interpreter.jlox.ast.Stmt;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 class Parser {
     /**
      * grammar:
-     * expression     → equality ;
+     * expression     → assignment ;
+     * assignment     → ( call "." )? IDENTIFIER "=" assignment | or ;
+     * or             → and ( "or" and )* ;
+     * and            → equality ( "and" equality )* ;
      * equality       → comparison ( ( "!=" | "==" ) comparison )* ;
      * comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
      * term           → factor ( ( "-" | "+" ) factor )* ;
      * factor         → unary ( ( "/" | "*" ) unary )* ;
      * unary          → ( "!" | "-" ) unary
-     * | primary ;
+     * | call ;
+     * call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
      * primary        → NUMBER | STRING | "true" | "false" | "nil"
-     * | "(" expression ")" ;
+     * | "(" expression ")" | IDENTIFIER | "this" ;
+     * <p>
+     * The expressions are parsed by precedence climbing (Pratt): every token type has the
+     * parselet of the expression it starts, and the parselet and the binding power of the
+     * operator it is, so one loop replaces a method per level of the grammar.
+     * <p>
+     * A module gets its namespace here: the names it declares at the top level are qualified
+     * with the name of the module wherever they appear in it, and "module.name" in a script that
+     * imports it is that same qualified name, so a module is its globals in the one table.
      */
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
     private int current = 0;
+    // the name of the module being parsed, null for a script
+    private final String namespace;
+    // the names the module declares at the top level
+    private final Set<String> members = new HashSet<>();
+    // the names of the modules imported so far
+    private final Set<String> modules;
+
+    Parser(TokenBuffer tokens) {
+        this(tokens, new HashSet<>());
+    }
+
+    /**
+     * @param modules the modules imported before, a line of the REPL knows those of the lines
+     *                before it, the ones it imports are added
+     */
+    Parser(TokenBuffer tokens, Set<String> modules) {
+        this.tokens = tokens;
+        this.namespace = null;
+        this.modules = modules;
+    }
 
-    Parser(List<Token> tokens) {
+    /**
+     * parse a module, a name it declares at the top level is known before the declaration,
+     * a function may refer to one declared after it
+     */
+    Parser(TokenBuffer tokens, String namespace) {
         this.tokens = tokens;
+        this.namespace = namespace;
+        this.modules = new HashSet<>();
+        int depth = 0;
+        for (int i = 0; tokens.type(i) != TokenType.EOF; i++) {
+            switch (tokens.type(i)) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
+                case VAR:
+                case FUN:
+                case CLASS:
+                    if (depth == 0 && tokens.type(i + 1) == TokenType.IDENTIFIER) {
+                        members.add(tokens.token(i + 1).lexeme);
+                    }
+                    break;
+            }
+        }
     }
 
     List<Stmt> parse() {
@@ -39,144 +100,190 @@ class Parser {
     }
 
     /**
-     * expression → assignment ;
+     * parse the next top-level declaration, dropping the tokens of the ones before it
+     *
+     * @return null at the end of the tokens, an empty list for a declaration that had an error
      */
-    private Expr expression() {
-        return assignment();
+    List<Stmt> parseNext() {
+        tokens.discard(current);
+        if (isAtEnd()) {
+            return null;
+        }
+        Stmt statement = declaration();
+        return statement == null ? new ArrayList<>() : Collections.singletonList(statement);
     }
 
     /**
-     * assignment → ( call "." )? IDENTIFIER "=" assignment
-     * | or ;
+     * where the next declaration starts in the source, see parseNext()
      */
-    private Expr assignment() {
-        Expr expr = or();
-        if (match(TokenType.EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get) expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-            error(equals, "Invalid assignment target.");
-        }
-        return expr;
+    int start() {
+        return tokens.start(current);
     }
 
     /**
-     * or → and ( "or" and )* ;
+     * where the last declaration parsed ends in the source
      */
-    private Expr or() {
-        Expr expr = and();
-        while (match(TokenType.OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
+    int end() {
+        return tokens.end(current - 1);
+    }
 
-        return expr;
+    /**
+     * the last token of the last declaration parsed
+     */
+    Token last() {
+        return previous();
     }
 
+    // ------------------------------------------------------------------ expressions
+
+    // the binding powers of the operators, lowest first
+    private static final int ASSIGNMENT = 1;
+    private static final int OR = 2;
+    private static final int AND = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+    private static final int UNARY = 8;
+    private static final int CALL = 9;
+
     /**
-     * and → equality ( "and" equality )* ;
+     * parses the expression a token starts, the token already consumed
      */
-    private Expr and() {
-        Expr expr = equality();
-        while (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
+    private interface Prefix {
+        Expr parse(Parser parser);
+    }
 
-        return expr;
+    /**
+     * parses the rest of the expression an operator continues, the operator already consumed
+     */
+    private interface Infix {
+        Expr parse(Parser parser, Expr left);
+    }
+
+    // by the ordinal of the token type
+    private static final Prefix[] PREFIXES = new Prefix[TokenType.values().length];
+    private static final Infix[] INFIXES = new Infix[TokenType.values().length];
+    private static final int[] PRECEDENCES = new int[TokenType.values().length];
+
+    static {
+        prefix(TokenType.FALSE, parser -> new Expr.Literal(false));
+        prefix(TokenType.TRUE, parser -> new Expr.Literal(true));
+        prefix(TokenType.NIL, parser -> new Expr.Literal(null));
+        prefix(TokenType.NUMBER, Parser::literal);
+        prefix(TokenType.STRING, Parser::literal);
+        prefix(TokenType.THIS, parser -> new Expr.This(parser.previous()));
+        prefix(TokenType.IDENTIFIER, Parser::variable);
+        prefix(TokenType.LEFT_PAREN, Parser::grouping);
+        prefix(TokenType.BANG, Parser::unary);
+        prefix(TokenType.MINUS, Parser::unary);
+
+        infix(TokenType.EQUAL, ASSIGNMENT, Parser::assignment);
+        infix(TokenType.OR, OR, Parser::logical);
+        infix(TokenType.AND, AND, Parser::logical);
+        infix(TokenType.BANG_EQUAL, EQUALITY, Parser::binary);
+        infix(TokenType.EQUAL_EQUAL, EQUALITY, Parser::binary);
+        infix(TokenType.GREATER, COMPARISON, Parser::binary);
+        infix(TokenType.GREATER_EQUAL, COMPARISON, Parser::binary);
+        infix(TokenType.LESS, COMPARISON, Parser::binary);
+        infix(TokenType.LESS_EQUAL, COMPARISON, Parser::binary);
+        infix(TokenType.MINUS, TERM, Parser::binary);
+        infix(TokenType.PLUS, TERM, Parser::binary);
+        infix(TokenType.SLASH, FACTOR, Parser::binary);
+        infix(TokenType.STAR, FACTOR, Parser::binary);
+        infix(TokenType.LEFT_PAREN, CALL, Parser::finishCall);
+        infix(TokenType.DOT, CALL, Parser::property);
+    }
+
+    private static void prefix(TokenType type, Prefix prefix) {
+        PREFIXES[type.ordinal()] = prefix;
+    }
+
+    private static void infix(TokenType type, int precedence, Infix infix) {
+        INFIXES[type.ordinal()] = infix;
+        PRECEDENCES[type.ordinal()] = precedence;
     }
 
     /**
-     * equality → comparison ( ( "!=" | "==" ) comparison )* ;
+     * expression → assignment ;
      */
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr expression() {
+        return expression(ASSIGNMENT);
     }
 
     /**
-     * comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+     * the expression of the operators that bind at least as tight as the precedence, e.g. the
+     * "b * c" of "a + b * c - d" at FACTOR
      */
-    private Expr comparison() {
-        Expr expr = term();
-        while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr expression(int precedence) {
+        Prefix prefix = PREFIXES[tokens.type(current).ordinal()];
+        if (prefix == null) {
+            throw error(peek(), "Expect expression.");
+        }
+        advance();
+        Expr expr = prefix.parse(this);
+        while (precedence <= PRECEDENCES[tokens.type(current).ordinal()]) {
+            Infix infix = INFIXES[tokens.type(current).ordinal()];
+            advance();
+            expr = infix.parse(this, expr);
         }
         return expr;
     }
 
     /**
-     * term → factor ( ( "-" | "+" ) factor )* ;
+     * assignment → ( call "." )? IDENTIFIER "=" assignment
+     * | or ;
      */
-    private Expr term() {
-        Expr expr = factor();
-        while (match(TokenType.MINUS, TokenType.PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    private Expr assignment(Expr expr) {
+        Token equals = previous();
+        // right-associative
+        Expr value = expression(ASSIGNMENT);
+        if (expr instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) expr).name;
+            return new Expr.Assign(name, value);
+        } else if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            return new Expr.Set(get.object, get.name, value);
+        }
+        error(equals, "Invalid assignment target.");
         return expr;
     }
 
     /**
+     * or → and ( "or" and )* ;
+     * and → equality ( "and" equality )* ;
+     */
+    private Expr logical(Expr left) {
+        Token operator = previous();
+        Expr right = expression(PRECEDENCES[operator.type.ordinal()] + 1);
+        return new Expr.Logical(left, operator, right);
+    }
+
+    /**
+     * equality → comparison ( ( "!=" | "==" ) comparison )* ;
+     * comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+     * term → factor ( ( "-" | "+" ) factor )* ;
      * factor → unary ( ( "/" | "*" ) unary )* ;
      */
-    private Expr factor() {
-        Expr expr = unary();
-        while (match(TokenType.SLASH, TokenType.STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr binary(Expr left) {
+        Token operator = previous();
+        Expr right = expression(PRECEDENCES[operator.type.ordinal()] + 1);
+        return new Expr.Binary(left, operator, right);
     }
 
     /**
      * unary → ( "!" | "-" ) unary
-     * | primary ;
+     * | call ;
      */
     private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-        return call();
+        Token operator = previous();
+        Expr right = expression(UNARY);
+        return new Expr.Unary(operator, right);
     }
 
     /**
      * call → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
      */
-    private Expr call() {
-        Expr expr = primary();
-        while (true) {
-            if (match(TokenType.LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
-            }
-        }
-        return expr;
-    }
-
     private Expr finishCall(Expr callee) {
         List<Expr> arguments = new ArrayList<>();
 
@@ -193,55 +300,57 @@ class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
+    private Expr property(Expr object) {
+        Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
+        return new Expr.Get(object, name);
+    }
+
     /**
-     * highest precedence, transform the token to an expression
      * primary → NUMBER | STRING | "true" | "false" | "nil"
      * | "(" expression ")" ;
      * | IDENTIFIER ;
      */
-    private Expr primary() {
-        if (match(TokenType.FALSE)) {
-            return new Expr.Literal(false);
-        }
-        if (match(TokenType.TRUE)) {
-            return new Expr.Literal(true);
-        }
-        if (match(TokenType.NIL)) {
-            return new Expr.Literal(null);
-        }
-        if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-        if (match(TokenType.THIS)) {
-            return new Expr.This(previous());
-        }
-        if (match(TokenType.IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-        if (match(TokenType.LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
+    private Expr literal() {
+        return new Expr.Literal(tokens.literal(current - 1));
+    }
+
+    /**
+     * IDENTIFIER | IDENTIFIER "." IDENTIFIER, where the first is the name of a module
+     */
+    private Expr variable() {
+        Token name = previous();
+        if (modules.contains(name.lexeme)) {
+            consume(TokenType.DOT, "Expect '.' after module name.");
+            Token member = consume(TokenType.IDENTIFIER, "Expect member name after '.'.");
+            String lexeme = name.lexeme + "." + member.lexeme;
+            return new Expr.Variable(new Token(TokenType.IDENTIFIER, lexeme, null, name.row, name.offset, lexeme.length()));
         }
-        throw error(peek(), "Expect expression.");
+        return new Expr.Variable(qualify(name));
     }
 
+    private Expr grouping() {
+        Expr expr = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
+    }
+
+    // ------------------------------------------------------------------ tokens
+
     /**
      * match the token type and advance the token
      */
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
         return false;
     }
 
     private Token consume(TokenType type, String err) {
         if (check(type)) {
-            return advance();
+            advance();
+            return previous();
         }
         throw error(peek(), err);
     }
@@ -250,47 +359,47 @@ class Parser {
         if (isAtEnd()) {
             return false;
         }
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) {
             current++;
         }
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }
 
-    // token to be consumed
+    // token to be consumed, only the tokens the AST or an error needs are created
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     // last consumed token
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        tokens.reporter.error(token, message);
         return new ParseError();
     }
 
     private void synchronize() {
         advance();
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) {
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) {
                 return;
             }
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
                 case VAR:
                 case FOR:
                 case IF:
+                case IMPORT:
                 case WHILE:
                 case PRINT:
                 case RETURN:
@@ -302,6 +411,9 @@ class Parser {
 
     private Stmt declaration() {
         try {
+            if (match(TokenType.IMPORT)) {
+                return importDeclaration();
+            }
             if (match(TokenType.VAR)) {
                 return varDeclaration();
             }
@@ -318,8 +430,48 @@ class Parser {
         }
     }
 
+    /**
+     * importDecl → "import" STRING ";" ;
+     */
+    private Stmt importDeclaration() {
+        Token path = consume(TokenType.STRING, "Expect module path after 'import'.");
+        consume(TokenType.SEMICOLON, "Expect ';' after module path.");
+        String name = ModuleLoader.name(path);
+        if (!isIdentifier(name)) {
+            error(path, "Module name must be an identifier.");
+        } else {
+            modules.add(name);
+        }
+        return new Stmt.Import(path);
+    }
+
+    private static boolean isIdentifier(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_')) {
+                return false;
+            }
+        }
+        // not a keyword nor a number
+        return !name.isEmpty() && new Scanner(name).scanTokens().type(0) == TokenType.IDENTIFIER;
+    }
+
+    /**
+     * the name as the program knows it, see the namespace
+     */
+    private Token qualify(Token name) {
+        if (modules.contains(name.lexeme)) {
+            error(name, "Already a module with this name.");
+        }
+        if (namespace == null || !members.contains(name.lexeme)) {
+            return name;
+        }
+        String lexeme = namespace + "." + name.lexeme;
+        return new Token(TokenType.IDENTIFIER, lexeme, null, name.row, name.offset, name.length);
+    }
+
     private Stmt varDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        Token name = qualify(consume(TokenType.IDENTIFIER, "Expect variable name."));
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
             initializer = expression();
@@ -332,7 +484,7 @@ class Parser {
      * classDecl → "class" IDENTIFIER "{" function* "}" ;
      */
     private Stmt classDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
+        Token name = qualify(consume(TokenType.IDENTIFIER, "Expect class name."));
         consume(TokenType.LEFT_BRACE, "Expect '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
@@ -346,6 +498,9 @@ class Parser {
 
     private Stmt function(String kind) {
         Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        if (kind.equals("function")) {
+            name = qualify(name);
+        }
         consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
 
         List<Token> parameters = new ArrayList<>();
@@ -354,7 +509,7 @@ class Parser {
                 if (parameters.size() >= 255) {
                     error(peek(), "Cannot have more than 255 parameters.");
                 }
-                parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
+                parameters.add(qualify(consume(TokenType.IDENTIFIER, "Expect parameter name.")));
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
@@ -0,0 +1,244 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.ast.Stmt;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps a script that is edited while it runs: the source is cut into pieces, one per
+ * top-level declaration, each with the text before it. A new version of the source is
+ * compared with the last one, and only the pieces the edit touches are scanned, parsed and
+ * resolved again; of those, the declarations whose text changed are the ones to run.
+ * <p>
+ * Running a changed "fun" or "class" again binds the new function or class to its global,
+ * every call through the global from then on gets it. A declaration that was removed keeps
+ * its global, an instance keeps the class it was made by.
+ */
+final class Reloader {
+
+    private static final class Piece {
+        // where the piece starts, the row and the column there
+        int start;
+        int row;
+        int col;
+        // where its declaration starts, the piece ends with it
+        int declaration;
+        int end;
+        // of the text of the declaration, 0 for the text after the last one
+        final int hash;
+
+        boolean declares(String source, String text, int hash) {
+            return this.hash == hash && end - declaration == text.length()
+                    && source.startsWith(text, declaration);
+        }
+
+        Piece(int start, int row, int col, int declaration, int end, int hash) {
+            this.start = start;
+            this.row = row;
+            this.col = col;
+            this.declaration = declaration;
+            this.end = end;
+            this.hash = hash;
+        }
+
+        @Override
+        public String toString() {
+            return start + "@" + row + ":" + col + " " + declaration + ".." + end + " #" + hash;
+        }
+    }
+
+    private String source = "";
+    // in the order of the source, the last one holds what follows the last declaration
+    private final List<Piece> pieces = new ArrayList<>();
+    // the names of the modules the script imported
+    private final Set<String> modules = new HashSet<>();
+
+    Reloader() {
+        pieces.add(new Piece(0, 1, 1, 0, 0, 0));
+    }
+
+    /**
+     * parse and resolve what changed in the source since the last version
+     *
+     * @return the declarations to run, null if there was an error: the version is skipped,
+     * the next one is compared with the one before it
+     */
+    List<Stmt> reload(String source) {
+        String old = this.source;
+        // the edit is between the text both versions start with and the one they end with
+        int limit = Math.min(old.length(), source.length());
+        int prefix = 0;
+        while (prefix < limit && old.charAt(prefix) == source.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && old.charAt(old.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix)) {
+            suffix++;
+        }
+        if (prefix == old.length() && prefix == source.length()) {
+            return new ArrayList<>();
+        }
+
+        // the pieces the edit touches, and the one before: an "else" goes on with its "if"
+        int first = Math.max(0, piece(prefix) - 1);
+        int last = Math.max(first, piece(Math.max(prefix, old.length() - suffix - 1)));
+        int delta = source.length() - old.length();
+        Region region;
+        for (int more = 1; ; more *= 2) {
+            region = parse(source, old, first, last, delta);
+            // the pieces after the region are only kept if the text of the region is
+            // declarations and blanks, nothing of it can go on in the text that follows
+            if (last == pieces.size() - 1
+                    || region.errors.isEmpty() && source.substring(region.start, region.end).isBlank()) {
+                break;
+            }
+            last = Math.min(last + more, pieces.size() - 1);
+        }
+        if (region.errors.isEmpty()) {
+            new Resolver(region.errors).resolve(region.statements);
+        }
+        if (!region.errors.isEmpty()) {
+            region.errors.report();
+            return null;
+        }
+
+        List<Piece> parsed = region.parsed;
+        if (last == pieces.size() - 1) {
+            parsed.add(new Piece(region.start, region.row, region.col, region.end, region.end, 0));
+        } else {
+            // the text after the last declaration goes to the piece that follows, the pieces
+            // after that only move
+            Piece next = pieces.get(last + 1);
+            int rows = region.eof.row - next.row;
+            int cols = region.eof.offset - next.col;
+            int row0 = next.row;
+            for (int i = last + 1; i < pieces.size(); i++) {
+                Piece piece = pieces.get(i);
+                if (piece.row == row0) {
+                    piece.col += cols;
+                }
+                piece.row += rows;
+                piece.start += delta;
+                piece.declaration += delta;
+                piece.end += delta;
+            }
+            next.start = region.start;
+            next.row = region.row;
+            next.col = region.col;
+        }
+        pieces.subList(first, last + 1).clear();
+        pieces.addAll(first, parsed);
+        this.source = source;
+        return region.statements;
+    }
+
+    /**
+     * the declarations of a run of pieces, as they are in the new version of the source
+     */
+    private static final class Region {
+        final List<Piece> parsed = new ArrayList<>();
+        // of the declarations whose text changed
+        final List<Stmt> statements = new ArrayList<>();
+        final Errors errors = new Errors();
+        // where the text after the last declaration starts, the row and the column there
+        int start;
+        int row;
+        int col;
+        int end;
+        Token eof;
+    }
+
+    /**
+     * the errors of a region, held until it is known they aren't those of where the region
+     * was cut
+     */
+    private static final class Errors extends Reporter {
+        private final List<Runnable> errors = new ArrayList<>();
+
+        @Override
+        void report(int row, int col, String where, String message) {
+            errors.add(() -> Lox.reporter.report(row, col, where, message));
+        }
+
+        boolean isEmpty() {
+            return errors.isEmpty();
+        }
+
+        void report() {
+            errors.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * scan and parse the pieces from first to last, moved by delta in the new source
+     */
+    private Region parse(String source, String old, int first, int last, int delta) {
+        Piece from = pieces.get(first);
+        Region region = new Region();
+        region.end = last == pieces.size() - 1 ? source.length() : pieces.get(last).end + delta;
+        TokenBuffer tokens = new Scanner(source.substring(from.start, region.end), from.row, from.col, region.errors)
+                .scanTokens();
+        region.eof = tokens.token(tokens.size() - 1);
+        Parser parser = new Parser(tokens, modules);
+        List<Piece> touched = pieces.subList(first, last + 1);
+        region.start = from.start;
+        region.row = from.row;
+        region.col = from.col;
+        for (int declaration = parser.start(); ; declaration = parser.start()) {
+            List<Stmt> next = parser.parseNext();
+            if (next == null) {
+                break;
+            }
+            int stop = from.start + parser.end();
+            String text = source.substring(from.start + declaration, stop);
+            int hash = text.hashCode();
+            region.parsed.add(new Piece(region.start, region.row, region.col, from.start + declaration, stop, hash));
+            if (touched.stream().noneMatch(piece -> piece.declares(old, text, hash))) {
+                region.statements.addAll(next);
+            }
+            // the next piece starts right after the last token
+            Token token = parser.last();
+            region.start = stop;
+            region.row = token.row;
+            region.col = token.offset + token.length;
+        }
+        return region;
+    }
+
+    /**
+     * the text of each declaration, in the order of the source
+     */
+    List<String> declarations() {
+        List<String> declarations = new ArrayList<>();
+        for (Piece piece : pieces.subList(0, pieces.size() - 1)) {
+            declarations.add(source.substring(piece.declaration, piece.end));
+        }
+        return declarations;
+    }
+
+    @Override
+    public String toString() {
+        return pieces.toString();
+    }
+
+    /**
+     * the piece that holds a character of the source
+     */
+    private int piece(int index) {
+        int low = 0;
+        int high = pieces.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (pieces.get(middle).start <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+}
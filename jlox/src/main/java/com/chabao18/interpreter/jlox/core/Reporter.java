@@ -0,0 +1,30 @@
+package com.chabao18.interpreter.jlox.core;
+
+/**
+ * Where the Scanner, the Parser and the Resolver report the errors of a source: the command
+ * line prints them (see Lox), a LoxEngine keeps them with the script it compiles.
+ */
+abstract class Reporter {
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.row, token.offset, "at end", message);
+        } else {
+            report(token.row, token.offset, "at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void error(int row, int col, String format, Object... args) {
+        String message = String.format(format, args);
+        report(row, col, "", message);
+    }
+
+    abstract void report(int row, int col, String where, String message);
+
+    /**
+     * the line of an error, as every Reporter words it
+     */
+    static String format(int row, int col, String where, String message) {
+        return String.format("[%d:%d] Error %s: %s", row, col, where, message);
+    }
+}
@@ -9,20 +9,17 @@ import java.util.Map;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
     /**
      * 1. Each Map in the stack represents a scope.
      * 2. When resolving a variable, if we can’t find it in the stack of local scopes, we assume it must be global.
-     * 3. The value in the map is a Boolean that tracks whether the variable has been defined.
+     * 3. The value in the map tracks whether the variable has been defined, and the slot it occupies
+     *    in the Environment of the scope (slots are numbered in declaration order).
      */
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Reporter reporter;
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
-
     private enum FunctionType {
         NONE,
         FUNCTION,
@@ -35,16 +32,53 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         CLASS
     }
 
+    Resolver() {
+        this(Lox.reporter);
+    }
+
+    Resolver(Reporter reporter) {
+        this.reporter = reporter;
+    }
+
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    private static class Binding {
+        static final Binding GLOBAL = new Binding(-1, -1);
+
+        final int depth;
+        final int slot;
+
+        Binding(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+    }
+
     void resolve(List<Stmt> statements) {
         for (Stmt statement : statements) {
             resolve(statement);
         }
     }
 
+    @Override
+    public Void visitAllocateExpr(Expr.Allocate expr) {
+        // the Optimizer creates them from resolved calls
+        return null;
+    }
+
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        Binding binding = resolveLocal(expr.name);
+        expr.depth = binding.depth;
+        expr.slot = binding.slot;
         return null;
     }
 
@@ -52,6 +86,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        // expressions that can only produce a number, the Interpreter keeps them unboxed
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                // with a number on one side, "+" can only add numbers
+                expr.numeric = expr.left.numeric || expr.right.numeric;
+                break;
+        }
         return null;
     }
 
@@ -72,14 +118,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitGetFieldExpr(Expr.GetField expr) {
+        // the Optimizer creates them from resolved properties
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
+        expr.numeric = expr.expression.numeric;
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // the Optimizer creates them from resolved calls
         return null;
     }
 
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
+        expr.numeric = expr.value instanceof Double;
         return null;
     }
 
@@ -90,6 +150,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitMaterializeExpr(Expr.Materialize expr) {
+        // the Optimizer creates them from resolved variables
+        return null;
+    }
+
     @Override
     public Void visitSetExpr(Expr.Set expr) {
         resolve(expr.value);
@@ -97,38 +163,60 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitSetFieldExpr(Expr.SetField expr) {
+        // the Optimizer creates them from resolved properties
+        return null;
+    }
+
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
             // if use "this" outside a class
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        Binding binding = resolveLocal(expr.keyword);
+        expr.depth = binding.depth;
+        expr.slot = binding.slot;
         return null;
     }
 
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        expr.numeric = expr.operator.type == TokenType.MINUS;
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            // declare but not define
-            Lox.error(expr.name, "Cannot read local variable in its own initializer.");
+        if (!scopes.isEmpty()) {
+            Local local = scopes.peek().get(expr.name.lexeme);
+            if (local != null && !local.defined) {
+                // declare but not define
+                reporter.error(expr.name, "Cannot read local variable in its own initializer.");
+            }
         }
 
-        resolveLocal(expr, expr.name);
+        Binding binding = resolveLocal(expr.name);
+        expr.depth = binding.depth;
+        expr.slot = binding.slot;
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        // a block that declares nothing doesn't need a scope (and an Environment) of its own,
+        // e.g. the block that the parser wraps around the body and the increment of a for loop
+        if (!declaresVariables(stmt.statements)) {
+            resolve(stmt.statements);
+            return null;
+        }
+
         beginScope();
         resolve(stmt.statements);
+        stmt.slotCount = scopes.peek().size();
         endScope();
         return null;
     }
@@ -138,12 +226,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -152,7 +237,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
         currentClass = enclosingClass;
         return null;
     }
@@ -166,53 +250,88 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<String, Local>());
     }
 
     private void endScope() {
         scopes.pop();
     }
 
-    private void declare(Token name) {
+    /**
+     * @return the slot of the variable in the current scope, or -1 if it is a global
+     */
+    private int declare(Token name) {
+        return declare(name.lexeme, name);
+    }
+
+    private int declare(String name, Token token) {
         if (scopes.isEmpty()) {
-            return;
+            return -1;
         }
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in this scope.");
+        Map<String, Local> scope = scopes.peek();
+        Local local = scope.get(name);
+        if (local != null) {
+            reporter.error(token, "Variable with this name already declared in this scope.");
+            return local.slot;
         }
-        scope.put(name.lexeme, false);
+        local = new Local(scope.size());
+        scope.put(name, local);
+        return local.slot;
     }
 
     private void define(Token name) {
+        define(name.lexeme);
+    }
+
+    private void define(String name) {
         if (scopes.isEmpty()) {
             return;
         }
 
-        Map<String, Boolean> scope = scopes.peek();
-        scope.put(name.lexeme, true);
+        scopes.peek().get(name).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    /**
+     * find the scope where the variable is declared, the one closest to the current scope
+     *
+     * @return the distance to that scope and the slot there, both -1 if the variable isn't
+     * declared in any local scope, so it must be a global
+     */
+    private Binding resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                // calculate the distance from the current scope to the scope where the variable is declared
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Local local = scopes.get(i).get(name.lexeme);
+            if (local != null) {
+                return new Binding(scopes.size() - 1 - i, local.slot);
+            }
+        }
+        return Binding.GLOBAL;
+    }
+
+    private boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                return true;
             }
         }
+        return false;
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
         beginScope();
+        // "this" takes slot 0 of a method, see LoxFunction.newEnvironment()
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            declare("this", function.name);
+            define("this");
+        }
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
+        function.slotCount = scopes.peek().size();
         endScope();
         currentFunction = enclosingFunction;
     }
@@ -226,7 +345,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         // define just after declaring, so that the function can recursively call itself
         define(stmt.name);
 
@@ -244,6 +363,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // the module runs before the program, whatever the scope
+        if (!scopes.isEmpty() || currentFunction != FunctionType.NONE) {
+            reporter.error(stmt.path, "Can only import at the top level.");
+        }
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
@@ -253,13 +381,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
         }
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                reporter.error(stmt.keyword, "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
+            // nothing is left to do in the function after this call, the Interpreter runs it
+            // in place of the current call instead of on top of it
+            if (stmt.value instanceof Expr.Call) {
+                ((Expr.Call) stmt.value).tail = true;
+            }
         }
 
         return null;
@@ -267,7 +400,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
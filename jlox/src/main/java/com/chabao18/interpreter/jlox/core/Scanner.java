@@ -1,77 +1,164 @@
 package com.chabao18.interpreter.jlox.core;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 
 import static com.chabao18.interpreter.jlox.core.TokenType.*;
 
+/**
+ * Scans the source into a TokenBuffer. No token is a String of its own: the lexemes stay
+ * offsets in the source, except for the identifiers, whose strings are shared by every
+ * occurrence of the same name.
+ * <p>
+ * A Scanner of a Reader reads the source in chunks, as the Parser reaches the end of the
+ * tokens scanned so far, and only keeps the characters of the tokens it hasn't dropped.
+ */
 class Scanner {
+    // the largest number of digits a double holds exactly, 2^53 has 16
+    private static final int EXACT_DIGITS = 15;
+    private static final int CHUNK = 8192;
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private char[] source;
+    // the characters of source read so far
+    private int length;
+    // the rest of the source, null once it is all in source
+    private Reader reader;
+    private final TokenBuffer tokens;
 
     private int start = 0;
     private int current = 0;
     private int row = 1;
     private int col = 1;
 
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-    }
+    // the strings of the identifiers, open addressing on the hash of their characters
+    private String[] names = new String[64];
+    private int nameCount;
 
     Scanner(String source) {
-        this.source = source;
+        this(source, Lox.reporter);
+    }
+
+    Scanner(String source, Reporter reporter) {
+        this.source = source.toCharArray();
+        this.length = this.source.length;
+        // code has a token every few characters
+        this.tokens = new TokenBuffer(this, this.source, length / 4, reporter);
+    }
+
+    /**
+     * scan a part of a longer source, the row and the column are where the part starts
+     */
+    Scanner(String source, int row, int col, Reporter reporter) {
+        this(source, reporter);
+        this.row = row;
+        this.col = col;
+    }
+
+    Scanner(Reader reader) {
+        this.source = new char[CHUNK];
+        this.reader = reader;
+        this.tokens = new TokenBuffer(this, source, 0, Lox.reporter);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(1);
+    }
+
+    /**
+     * whether there are that many characters from current on, reading them if need be
+     */
+    private boolean available(int count) {
+        while (current + count > length) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * read more of the source, after dropping the characters no token needs anymore
+     *
+     * @return false at the end of the input
+     */
+    private boolean fill() {
+        if (reader == null) {
+            return false;
+        }
+        int keep = Math.min(start, tokens.firstStart());
+        if (keep > 0) {
+            System.arraycopy(source, keep, source, 0, length - keep);
+            length -= keep;
+            start -= keep;
+            current -= keep;
+        }
+        if (length == source.length) {
+            source = Arrays.copyOf(source, source.length * 2);
+        }
+        tokens.moveSource(source, keep);
+        int read;
+        try {
+            read = reader.read(source, length, source.length - length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (read == -1) {
+            reader = null;
+            return false;
+        }
+        length += read;
+        return true;
     }
 
     private char advance() {
         col++;
-        return source.charAt(current++);
+        return source[current++];
     }
 
     private void addToken(TokenType type) {
         addToken(type, null);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, row, col - text.length(), text.length()));
+    private void addToken(TokenType type, Object value) {
+        int length = current - start;
+        tokens.add(type, start, length, value, row, col - length);
     }
 
-    List<Token> scanTokens() {
+    TokenBuffer scanTokens() {
 
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, row, col, 1));
+        tokens.add(EOF, current, 1, null, row, col);
         return tokens;
     }
 
+    /**
+     * the tokens, scanned as the Parser reaches them
+     */
+    TokenBuffer stream() {
+        return tokens;
+    }
+
+    /**
+     * scan up to the next token, the EOF at the end
+     */
+    void scanNext() {
+        int size = tokens.size();
+        while (tokens.size() == size) {
+            if (isAtEnd()) {
+                tokens.add(EOF, current, 1, null, row, col);
+                return;
+            }
+            start = current;
+            scanToken();
+        }
+    }
+
     private void scanToken() {
         char c = advance();
         switch (c) {
@@ -124,14 +211,13 @@ class Scanner {
                     }
                 } else if (match('*')) {
                     while (!(peek() == '*' && peekNext() == '/') && !isAtEnd()) {
-                        if (peek() == '\n') {
+                        if (advance() == '\n') {
                             row++;
                             col = 1;
                         }
-                        advance();
                     }
                     if (isAtEnd()) {
-                        Lox.error(row, col, "Unterminated comment.");
+                        tokens.reporter.error(row, col, "Unterminated comment.");
                     } else {
                         advance();
                         advance();
@@ -160,7 +246,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(row, col, "Unexpected character '%c'", c);
+                    tokens.reporter.error(row, col, "Unexpected character '%c'", c);
                 }
                 break;
         }
@@ -171,12 +257,135 @@ class Scanner {
             advance();
         }
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) {
-            type = IDENTIFIER;
+        TokenType type = keyword();
+        if (type == IDENTIFIER) {
+            addToken(IDENTIFIER, name());
+        } else {
+            addToken(type);
+        }
+    }
+
+    /**
+     * the keyword of the identifier just scanned, IDENTIFIER if it isn't one: a trie on the
+     * first characters, then a comparison with the rest
+     */
+    private TokenType keyword() {
+        switch (source[start]) {
+            case 'a':
+                return rest(1, "nd", AND);
+            case 'c':
+                return rest(1, "lass", CLASS);
+            case 'e':
+                return rest(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'a':
+                            return rest(2, "lse", FALSE);
+                        case 'o':
+                            return rest(2, "r", FOR);
+                        case 'u':
+                            return rest(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'f':
+                            return rest(2, "", IF);
+                        case 'm':
+                            return rest(2, "port", IMPORT);
+                    }
+                }
+                break;
+            case 'n':
+                return rest(1, "il", NIL);
+            case 'o':
+                return rest(1, "r", OR);
+            case 'p':
+                return rest(1, "rint", PRINT);
+            case 'r':
+                return rest(1, "eturn", RETURN);
+            case 's':
+                return rest(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'h':
+                            return rest(2, "is", THIS);
+                        case 'r':
+                            return rest(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v':
+                return rest(1, "ar", VAR);
+            case 'w':
+                return rest(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType rest(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) {
+            return IDENTIFIER;
+        }
+        for (int i = 0; i < rest.length(); i++) {
+            if (source[start + offset + i] != rest.charAt(i)) {
+                return IDENTIFIER;
+            }
+        }
+        return type;
+    }
+
+    /**
+     * the string of the identifier just scanned, the same one for every occurrence
+     */
+    private String name() {
+        int length = current - start;
+        int hash = 0;
+        for (int i = start; i < current; i++) {
+            hash = 31 * hash + source[i];
+        }
+        int mask = names.length - 1;
+        int index = hash & mask;
+        for (String name = names[index]; name != null; name = names[index]) {
+            if (name.length() == length && name.hashCode() == hash && matches(name)) {
+                return name;
+            }
+            index = (index + 1) & mask;
+        }
+        String name = new String(source, start, length);
+        names[index] = name;
+        if (++nameCount * 2 > names.length) {
+            rehash();
+        }
+        return name;
+    }
+
+    private boolean matches(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for (String name : old) {
+            if (name != null) {
+                int index = name.hashCode() & mask;
+                while (names[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                names[index] = name;
+            }
         }
-        addToken(type);
     }
 
     private void number() {
@@ -191,25 +400,43 @@ class Scanner {
             }
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, number(start, current));
+    }
+
+    /**
+     * the value of the digits, accumulated when it is an integer a double holds exactly
+     */
+    private double number(int from, int to) {
+        if (to - from > EXACT_DIGITS) {
+            return Double.parseDouble(new String(source, from, to - from));
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = source[i];
+            if (c == '.') {
+                return Double.parseDouble(new String(source, from, to - from));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
     }
 
     private void string() {
         while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') {
+            if (advance() == '\n') {
                 row++;
+                col = 1;
             }
-            advance();
         }
 
         if (isAtEnd()) {
-            Lox.error(row, col, "Unterminated string.");
+            tokens.reporter.error(row, col, "Unterminated string.");
             return;
         }
 
         advance();
 
-        String value = source.substring(start + 1, current - 1);
+        String value = new String(source, start + 1, current - start - 2);
         addToken(STRING, value);
     }
 
@@ -217,7 +444,7 @@ class Scanner {
         if (isAtEnd()) {
             return false;
         }
-        if (source.charAt(current) != expected) {
+        if (source[current] != expected) {
             return false;
         }
 
@@ -230,14 +457,14 @@ class Scanner {
         if (isAtEnd()) {
             return '\0';
         }
-        return source.charAt(current);
+        return source[current];
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) {
+        if (!available(2)) {
             return '\0';
         }
-        return source.charAt(current + 1);
+        return source[current + 1];
     }
 
     private boolean isDigit(char c) {
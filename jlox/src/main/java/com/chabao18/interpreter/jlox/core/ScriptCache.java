@@ -0,0 +1,115 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The resolved program of a script on disk: "name.loxc" next to "name.lox", or a file named
+ * by the hash of the source in jlox.cache.dir when it is set. It holds a Flat (see
+ * Flat.write()), so a script that didn't change skips the Scanner, the Parser and the Resolver.
+ * <p>
+ * The file starts with what it was made from: the version of the format, the layout of Flat
+ * and the SHA-256 of the source. A file that doesn't match is made again. It is mapped rather
+ * than read, and replaced in one move, so runs that start together see a whole file.
+ */
+final class ScriptCache {
+    // "LOXC"
+    private static final int MAGIC = 0x4c4f5843;
+    private static final int VERSION = 2;
+    private static final String DIRECTORY = System.getProperty("jlox.cache.dir");
+
+    private final Path path;
+    private final byte[] hash;
+
+    ScriptCache(Path script, byte[] source) {
+        this.hash = sha256(source);
+        if (DIRECTORY != null) {
+            this.path = Paths.get(DIRECTORY, hex(hash) + ".loxc");
+        } else {
+            String name = script.getFileName().toString();
+            if (name.endsWith(".lox")) {
+                name = name.substring(0, name.length() - ".lox".length());
+            }
+            this.path = script.resolveSibling(name + ".loxc");
+        }
+    }
+
+    /**
+     * @return null if there is no file for the source
+     */
+    Flat load() {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != Flat.LAYOUT) {
+                return null;
+            }
+            byte[] hash = new byte[this.hash.length];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, this.hash)) {
+                return null;
+            }
+            return Flat.read(buffer);
+        } catch (IOException | RuntimeException e) {
+            // unreadable or cut short, it is made again
+            return null;
+        }
+    }
+
+    void store(Flat program) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            // of this process only
+            temporary = path.resolveSibling(path.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(Flat.LAYOUT);
+                out.write(hash);
+                program.write(out);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the cache only saves time, the script runs without it
+            try {
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static byte[] sha256(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package com.chabao18.interpreter.jlox.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The errors of a source a LoxEngine couldn't compile, worded as the command line prints them.
+ */
+public class ScriptError extends RuntimeException {
+    private final List<String> errors;
+
+    ScriptError(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public List<String> errors() {
+        return errors;
+    }
+}
@@ -1,14 +1,14 @@
 package com.chabao18.interpreter.jlox.core;
 
 public class Token {
-    final TokenType type;
+    public final TokenType type;
     public final String lexeme;
     final Object literal;
-    final int row;
-    final int offset;
+    public final int row;
+    public final int offset;
     final int length;
 
-    Token(TokenType type, String lexeme, Object literal, int row, int offset, int length) {
+    public Token(TokenType type, String lexeme, Object literal, int row, int offset, int length) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
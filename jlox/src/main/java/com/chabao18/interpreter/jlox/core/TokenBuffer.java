@@ -0,0 +1,197 @@
+package com.chabao18.interpreter.jlox.core;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of a source, packed in parallel arrays: the type, where the lexeme starts in the
+ * source and how long it is, and its position for the errors. The Scanner only creates the
+ * strings of the identifiers, each once, and the values of the literals; a Token is created
+ * when the Parser asks for it, which it does for the tokens the AST keeps.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    // the lexeme of every type that has a single one, by ordinal
+    private static final String[] LEXEMES = new String[TYPES.length];
+
+    static {
+        // in the order of TokenType
+        String[] punctuation = {"(", ")", "{", "}", ",", ".", "-", "+", ";", "/", "*",
+                "!", "!=", "=", "==", ">", ">=", "<", "<="};
+        for (int i = 0; i < punctuation.length; i++) {
+            LEXEMES[i] = punctuation[i];
+        }
+        for (TokenType type : TYPES) {
+            if (type.compareTo(TokenType.AND) >= 0 && type != TokenType.EOF) {
+                LEXEMES[type.ordinal()] = type.name().toLowerCase();
+            }
+        }
+        LEXEMES[TokenType.EOF.ordinal()] = "";
+    }
+
+    // of the Scanner and the Parser
+    final Reporter reporter;
+    // scans more tokens when the Parser reaches the last one, null once all are there
+    private Scanner scanner;
+    private char[] source;
+    // the index of the first token the arrays hold, the ones before it were dropped
+    private int base;
+    private int size;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] rows;
+    private int[] offsets;
+    // the string of an identifier, the value of a literal
+    private Object[] values;
+    // the Tokens created so far
+    private Token[] tokens;
+
+    /**
+     * @param capacity the number of tokens expected, growing the arrays copies all of them
+     */
+    TokenBuffer(Scanner scanner, char[] source, int capacity, Reporter reporter) {
+        this.reporter = reporter;
+        this.scanner = scanner;
+        this.source = source;
+        capacity = Math.max(16, capacity);
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        rows = new int[capacity];
+        offsets = new int[capacity];
+        values = new Object[capacity];
+        tokens = new Token[capacity];
+    }
+
+    void add(TokenType type, int start, int length, Object value, int row, int offset) {
+        if (size == types.length) {
+            int capacity = size + (size >> 1);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            values = Arrays.copyOf(values, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        rows[size] = row;
+        offsets[size] = offset;
+        values[size] = value;
+        size++;
+        if (type == TokenType.EOF) {
+            scanner = null;
+        }
+    }
+
+    /**
+     * the number of tokens scanned so far, the dropped ones included
+     */
+    int size() {
+        return base + size;
+    }
+
+    TokenType type(int index) {
+        // scan first, it may grow the arrays
+        int slot = slot(index);
+        return TYPES[types[slot]];
+    }
+
+    /**
+     * the value of a NUMBER or a STRING
+     */
+    Object literal(int index) {
+        int slot = slot(index);
+        return types[slot] == TokenType.IDENTIFIER.ordinal() ? null : values[slot];
+    }
+
+    Token token(int index) {
+        int slot = slot(index);
+        Token token = tokens[slot];
+        if (token == null) {
+            token = new Token(TYPES[types[slot]], lexeme(slot), literal(index), rows[slot], offsets[slot], lengths[slot]);
+            tokens[slot] = token;
+        }
+        return token;
+    }
+
+    /**
+     * where the lexeme of a token starts in the source
+     */
+    int start(int index) {
+        return starts[slot(index)];
+    }
+
+    /**
+     * where the lexeme of a token ends in the source
+     */
+    int end(int index) {
+        int slot = slot(index);
+        return starts[slot] + lengths[slot];
+    }
+
+    /**
+     * where the arrays hold a token, scanning up to it first
+     */
+    private int slot(int index) {
+        while (index - base >= size && scanner != null) {
+            scanner.scanNext();
+        }
+        return index - base;
+    }
+
+    private String lexeme(int slot) {
+        int type = types[slot];
+        if (type == TokenType.IDENTIFIER.ordinal()) {
+            return (String) values[slot];
+        }
+        if (LEXEMES[type] != null) {
+            return LEXEMES[type];
+        }
+        return new String(source, starts[slot], lengths[slot]);
+    }
+
+    // ------------------------------------------------------------------ streaming
+
+    /**
+     * drop the tokens before the index, the Parser is done with them
+     */
+    void discard(int index) {
+        int count = index - base;
+        // once all the tokens are scanned, moving the rest down frees nothing
+        if (count <= 0 || scanner == null) {
+            return;
+        }
+        int rest = size - count;
+        System.arraycopy(types, count, types, 0, rest);
+        System.arraycopy(starts, count, starts, 0, rest);
+        System.arraycopy(lengths, count, lengths, 0, rest);
+        System.arraycopy(rows, count, rows, 0, rest);
+        System.arraycopy(offsets, count, offsets, 0, rest);
+        System.arraycopy(values, count, values, 0, rest);
+        System.arraycopy(tokens, count, tokens, 0, rest);
+        Arrays.fill(values, rest, size, null);
+        Arrays.fill(tokens, rest, size, null);
+        size = rest;
+        base = index;
+    }
+
+    /**
+     * where the first token left starts in the source, the characters before it can go
+     */
+    int firstStart() {
+        return size == 0 ? Integer.MAX_VALUE : starts[0];
+    }
+
+    /**
+     * the source moved: its first characters were dropped, or it grew
+     */
+    void moveSource(char[] source, int dropped) {
+        this.source = source;
+        for (int i = 0; i < size; i++) {
+            starts[i] -= dropped;
+        }
+    }
+}
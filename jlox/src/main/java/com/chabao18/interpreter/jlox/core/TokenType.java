@@ -1,6 +1,6 @@
 package com.chabao18.interpreter.jlox.core;
 
-enum TokenType {
+public enum TokenType {
 
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,   // ( ) { }
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,    // , . - + ; / *
@@ -12,7 +12,7 @@ enum TokenType {
 
     IDENTIFIER, STRING, NUMBER,
 
-    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
+    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR,
     PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 
     EOF
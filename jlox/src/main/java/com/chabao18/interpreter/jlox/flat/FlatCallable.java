@@ -0,0 +1,10 @@
+package com.chabao18.interpreter.jlox.flat;
+
+/**
+ * Anything that can be called, calls have a faster path for FlatFunction.
+ */
+interface FlatCallable {
+    int arity();
+
+    Object call(Object[] arguments);
+}
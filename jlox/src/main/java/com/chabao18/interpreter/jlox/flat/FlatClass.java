@@ -0,0 +1,39 @@
+package com.chabao18.interpreter.jlox.flat;
+
+import java.util.Map;
+
+final class FlatClass implements FlatCallable {
+    final String name;
+    private final Map<String, FlatFunction> methods;
+    // looked up once, every call of the class needs it
+    private final FlatFunction initializer;
+
+    FlatClass(String name, Map<String, FlatFunction> methods) {
+        this.name = name;
+        this.methods = methods;
+        this.initializer = methods.get("init");
+    }
+
+    FlatFunction findMethod(String name) {
+        return methods.get(name);
+    }
+
+    @Override
+    public int arity() {
+        return initializer == null ? 0 : initializer.arity();
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        FlatInstance instance = new FlatInstance(this);
+        if (initializer != null) {
+            initializer.bind(instance).call(arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
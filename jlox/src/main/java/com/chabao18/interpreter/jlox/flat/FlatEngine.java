@@ -0,0 +1,77 @@
+package com.chabao18.interpreter.jlox.flat;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs a program from its flat form (see Flat) by walking the arrays directly. The tree it
+ * was flattened from isn't kept: a function only holds the index of its declaration.
+ * <p>
+ * Locals live in the same slot-indexed Environment as in the Interpreter, globals in a map by
+ * name.
+ */
+public class FlatEngine {
+    // kept between runs, so that the REPL sees the previous definitions
+    private final Map<String, Object> globals = new HashMap<>();
+    // where "print" goes
+    private final PrintStream out;
+
+    public FlatEngine() {
+        this(System.out);
+    }
+
+    public FlatEngine(PrintStream out) {
+        this.out = out;
+        globals.put("clock", new FlatCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Object[] arguments) {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+    }
+
+    /**
+     * @throws RuntimeError on a runtime error
+     */
+    public void interpret(Flat program) {
+        new FlatInterpreter(program, globals, out).run();
+    }
+
+    /**
+     * @return null if there is no such global, or if its value is nil
+     */
+    public Object get(String name) {
+        return globals.get(name);
+    }
+
+    /**
+     * define a global: a Double, a String, a Boolean, null or a value get() returned, any other
+     * Number is made a Double
+     *
+     * @throws IllegalArgumentException if the value is of another type, the scripts would
+     *                                  fail on it far from here
+     */
+    public void define(String name, Object value) {
+        if (value instanceof Number) {
+            value = ((Number) value).doubleValue();
+        } else if (value != null && !(value instanceof String || value instanceof Boolean
+                || value instanceof FlatCallable || value instanceof FlatInstance)) {
+            throw new IllegalArgumentException("not a value of Lox: " + value.getClass().getName());
+        }
+        globals.put(name, value);
+    }
+}
@@ -0,0 +1,83 @@
+package com.chabao18.interpreter.jlox.flat;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+import com.chabao18.interpreter.jlox.core.Environment;
+
+final class FlatFunction implements FlatCallable {
+    // the program the declaration is a node of
+    private final FlatInterpreter interpreter;
+    private final int declaration;
+    private final Environment closure;
+    // the instance a method is bound to
+    private final FlatInstance receiver;
+    private final boolean isInitializer;
+    // "this" takes slot 0 of a method, before the parameters
+    private final boolean isMethod;
+
+    FlatFunction(FlatInterpreter interpreter, int declaration, Environment closure, boolean isInitializer,
+                 boolean isMethod) {
+        this(interpreter, declaration, closure, null, isInitializer, isMethod);
+    }
+
+    private FlatFunction(FlatInterpreter interpreter, int declaration, Environment closure, FlatInstance receiver,
+                         boolean isInitializer, boolean isMethod) {
+        this.interpreter = interpreter;
+        this.declaration = declaration;
+        this.closure = closure;
+        this.receiver = receiver;
+        this.isInitializer = isInitializer;
+        this.isMethod = isMethod;
+    }
+
+    FlatFunction bind(FlatInstance instance) {
+        return new FlatFunction(interpreter, declaration, closure, instance, isInitializer, isMethod);
+    }
+
+    /**
+     * a new environment for a call, holding the receiver of a method, the arguments go to the
+     * slots from parameterSlot() on
+     */
+    Environment newEnvironment() {
+        Environment environment = new Environment(closure, interpreter.flat.functionSlotCount(declaration));
+        if (isMethod) {
+            environment.define(0, receiver);
+        }
+        return environment;
+    }
+
+    int parameterSlot() {
+        return isMethod ? 1 : 0;
+    }
+
+    @Override
+    public int arity() {
+        Flat flat = interpreter.flat;
+        return flat.count(flat.functionParams(declaration));
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        Environment environment = newEnvironment();
+        int slot = parameterSlot();
+        for (Object argument : arguments) {
+            environment.define(slot++, argument);
+        }
+        return invoke(environment);
+    }
+
+    /**
+     * run the body in an environment whose first slots already hold the arguments
+     */
+    Object invoke(Environment environment) {
+        Object result = interpreter.executeAll(interpreter.flat.functionBody(declaration), environment);
+        if (isInitializer) {
+            return environment.getAt(0, 0);
+        }
+        return result == FlatInterpreter.NORMAL ? null : result;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + interpreter.flat.functionName(declaration) + ">";
+    }
+}
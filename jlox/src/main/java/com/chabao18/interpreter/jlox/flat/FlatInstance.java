@@ -0,0 +1,43 @@
+package com.chabao18.interpreter.jlox.flat;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class FlatInstance {
+    private final FlatClass klass;
+    private final Map<String, Object> fields = new HashMap<>();
+
+    FlatInstance(FlatClass klass) {
+        this.klass = klass;
+    }
+
+    /**
+     * @param get the Get node, for the name and the error
+     */
+    Object get(Flat flat, int get) {
+        String name = flat.getName(get);
+        Object value = fields.get(name);
+        if (value != null || fields.containsKey(name)) {
+            return value;
+        }
+
+        FlatFunction method = klass.findMethod(name);
+        if (method != null) {
+            return method.bind(this);
+        }
+
+        throw new RuntimeError(flat.token(get), "Undefined property '" + name + "'.");
+    }
+
+    void set(String name, Object value) {
+        fields.put(name, value);
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
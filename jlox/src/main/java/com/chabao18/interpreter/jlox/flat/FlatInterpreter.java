@@ -0,0 +1,280 @@
+package com.chabao18.interpreter.jlox.flat;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+import com.chabao18.interpreter.jlox.core.Environment;
+import com.chabao18.interpreter.jlox.core.TokenType;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * Walks one flat program: a switch on the kind of the node, which reads its operands from the
+ * arrays of the Flat.
+ * <p>
+ * execute() returns NORMAL when the statement completes normally, anything else is the value
+ * of a "return", which every enclosing statement hands up to the function.
+ */
+final class FlatInterpreter {
+    static final Object NORMAL = new Object();
+
+    final Flat flat;
+    private final Map<String, Object> globals;
+    private final PrintStream out;
+
+    FlatInterpreter(Flat flat, Map<String, Object> globals, PrintStream out) {
+        this.flat = flat;
+        this.globals = globals;
+        this.out = out;
+    }
+
+    void run() {
+        // the top level only touches globals, it doesn't need an environment
+        executeAll(flat.program(), null);
+    }
+
+    Object executeAll(int statements, Environment environment) {
+        int count = flat.count(statements);
+        for (int i = 0; i < count; i++) {
+            Object result = execute(flat.element(statements, i), environment);
+            if (result != NORMAL) {
+                return result;
+            }
+        }
+        return NORMAL;
+    }
+
+    private Object execute(int node, Environment environment) {
+        switch (flat.kind(node)) {
+            case Flat.BLOCK: {
+                // the Resolver didn't give a scope to a block that declares nothing
+                int slotCount = flat.blockSlotCount(node);
+                if (slotCount == 0) {
+                    return executeAll(flat.blockStatements(node), environment);
+                }
+                return executeAll(flat.blockStatements(node), new Environment(environment, slotCount));
+            }
+            case Flat.CLASS: {
+                Map<String, FlatFunction> methods = new HashMap<>();
+                int list = flat.classMethods(node);
+                for (int i = 0; i < flat.count(list); i++) {
+                    int method = flat.element(list, i);
+                    String name = flat.functionName(method);
+                    methods.put(name, new FlatFunction(this, method, environment, name.equals("init"), true));
+                }
+                String name = flat.className(node);
+                define(flat.classSlot(node), name, new FlatClass(name, methods), environment);
+                return NORMAL;
+            }
+            case Flat.EXPRESSION:
+                evaluate(flat.expressionExpression(node), environment);
+                return NORMAL;
+            case Flat.FUNCTION: {
+                FlatFunction function = new FlatFunction(this, node, environment, false, false);
+                define(flat.functionSlot(node), flat.functionName(node), function, environment);
+                return NORMAL;
+            }
+            case Flat.IF:
+                if (isTruthy(evaluate(flat.ifCondition(node), environment))) {
+                    return execute(flat.ifThenBranch(node), environment);
+                } else if (flat.ifElseBranch(node) != -1) {
+                    return execute(flat.ifElseBranch(node), environment);
+                }
+                return NORMAL;
+            case Flat.IMPORT:
+                // the module ran before the program
+                return NORMAL;
+            case Flat.PRINT:
+                out.println(stringify(evaluate(flat.printExpression(node), environment)));
+                return NORMAL;
+            case Flat.RETURN: {
+                int value = flat.returnValue(node);
+                return value == -1 ? null : evaluate(value, environment);
+            }
+            case Flat.VAR: {
+                int initializer = flat.varInitializer(node);
+                Object value = initializer == -1 ? null : evaluate(initializer, environment);
+                define(flat.varSlot(node), flat.varName(node), value, environment);
+                return NORMAL;
+            }
+            case Flat.WHILE: {
+                int condition = flat.whileCondition(node);
+                int body = flat.whileBody(node);
+                while (isTruthy(evaluate(condition, environment))) {
+                    Object result = execute(body, environment);
+                    if (result != NORMAL) {
+                        return result;
+                    }
+                }
+                return NORMAL;
+            }
+            default:
+                throw new IllegalStateException("not a statement: " + flat.kind(node));
+        }
+    }
+
+    /**
+     * a slot of -1 means the Resolver left the variable to the globals
+     */
+    private void define(int slot, String name, Object value, Environment environment) {
+        if (slot == -1) {
+            globals.put(name, value);
+        } else {
+            environment.define(slot, value);
+        }
+    }
+
+    private Object evaluate(int node, Environment environment) {
+        switch (flat.kind(node)) {
+            case Flat.ASSIGN: {
+                Object value = evaluate(flat.assignValue(node), environment);
+                if (flat.assignDepth(node) != -1) {
+                    environment.assignAt(flat.assignDepth(node), flat.assignSlot(node), value);
+                } else {
+                    String name = flat.assignName(node);
+                    if (!globals.containsKey(name)) {
+                        throw new RuntimeError(flat.token(node), "Undefined variable '" + name + "'.");
+                    }
+                    globals.put(name, value);
+                }
+                return value;
+            }
+            case Flat.BINARY:
+                return binary(node, environment);
+            case Flat.CALL:
+                return call(node, environment);
+            case Flat.GET: {
+                Object object = evaluate(flat.getObject(node), environment);
+                if (object instanceof FlatInstance) {
+                    return ((FlatInstance) object).get(flat, node);
+                }
+                throw new RuntimeError(flat.token(node), "Only instances have properties.");
+            }
+            case Flat.GROUPING:
+                return evaluate(flat.groupingExpression(node), environment);
+            case Flat.LITERAL:
+                return flat.literalValue(node);
+            case Flat.LOGICAL: {
+                Object left = evaluate(flat.logicalLeft(node), environment);
+                // short-circuiting, the operand that decides is the value
+                if (flat.operator(node) == TokenType.OR ? isTruthy(left) : !isTruthy(left)) {
+                    return left;
+                }
+                return evaluate(flat.logicalRight(node), environment);
+            }
+            case Flat.SET: {
+                Object object = evaluate(flat.setObject(node), environment);
+                if (!(object instanceof FlatInstance)) {
+                    throw new RuntimeError(flat.token(node), "Only instances have fields.");
+                }
+                Object value = evaluate(flat.setValue(node), environment);
+                ((FlatInstance) object).set(flat.setName(node), value);
+                return value;
+            }
+            case Flat.THIS:
+                return environment.getAt(flat.thisDepth(node), flat.thisSlot(node));
+            case Flat.UNARY: {
+                Object right = evaluate(flat.unaryRight(node), environment);
+                if (flat.operator(node) == TokenType.BANG) {
+                    return !isTruthy(right);
+                }
+                if (right instanceof Double) {
+                    return -(double) right;
+                }
+                throw new RuntimeError(flat.token(node), "Operand must be a number.");
+            }
+            case Flat.VARIABLE: {
+                if (flat.variableDepth(node) != -1) {
+                    return environment.getAt(flat.variableDepth(node), flat.variableSlot(node));
+                }
+                String name = flat.variableName(node);
+                Object value = globals.get(name);
+                if (value == null && !globals.containsKey(name)) {
+                    throw new RuntimeError(flat.token(node), "Undefined variable '" + name + "'.");
+                }
+                return value;
+            }
+            default:
+                // the flat form is made before the Optimizer adds its nodes
+                throw new IllegalStateException("not an expression: " + flat.kind(node));
+        }
+    }
+
+    private Object binary(int node, Environment environment) {
+        Object left = evaluate(flat.binaryLeft(node), environment);
+        Object right = evaluate(flat.binaryRight(node), environment);
+        TokenType operator = flat.operator(node);
+        switch (operator) {
+            case BANG_EQUAL:
+                return !isEqual(left, right);
+            case EQUAL_EQUAL:
+                return isEqual(left, right);
+            case PLUS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left + (double) right;
+                }
+                if (left instanceof String && right instanceof String) {
+                    return (String) left + (String) right;
+                }
+                throw new RuntimeError(flat.token(node), "Operands must be two numbers or two strings.");
+        }
+
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            throw new RuntimeError(flat.token(node), "Operands must be numbers.");
+        }
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator) {
+            case MINUS:
+                return a - b;
+            case SLASH:
+                if (Double.compare(b, 0.0) == 0) {
+                    throw new RuntimeError(flat.token(node), "Division by zero.");
+                }
+                return a / b;
+            case STAR:
+                return a * b;
+            case GREATER:
+                return a > b;
+            case GREATER_EQUAL:
+                return a >= b;
+            case LESS:
+                return a < b;
+            default:
+                return a <= b;
+        }
+    }
+
+    private Object call(int node, Environment environment) {
+        Object callee = evaluate(flat.callCallee(node), environment);
+        int arguments = flat.callArguments(node);
+        int count = flat.count(arguments);
+        if (callee instanceof FlatFunction) {
+            FlatFunction function = (FlatFunction) callee;
+            if (function.arity() == count) {
+                // evaluate the arguments right into the slots of the parameters
+                Environment frame = function.newEnvironment();
+                int slot = function.parameterSlot();
+                for (int i = 0; i < count; i++) {
+                    frame.define(slot++, evaluate(flat.element(arguments, i), environment));
+                }
+                return function.invoke(frame);
+            }
+        } else if (!(callee instanceof FlatCallable)) {
+            throw new RuntimeError(flat.token(node), "Can only call functions and classes.");
+        }
+
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = evaluate(flat.element(arguments, i), environment);
+        }
+        FlatCallable function = (FlatCallable) callee;
+        if (count != function.arity()) {
+            throw new RuntimeError(flat.token(node), "Expected " + function.arity() + " arguments but got " + count + ".");
+        }
+        return function.call(values);
+    }
+}
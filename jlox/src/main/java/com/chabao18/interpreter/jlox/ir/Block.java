@@ -0,0 +1,76 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A basic block: its phis come first, its last instruction is a terminator. A BRANCH goes to
+ * the first successor when its condition is truthy, to the second one otherwise.
+ */
+public final class Block {
+    final List<Instr> instrs = new ArrayList<>();
+    final List<Block> predecessors = new ArrayList<>();
+    final List<Block> successors = new ArrayList<>();
+    int id;
+
+    // filled by Graph.computeDominators()
+    Block dominator;
+    int order;
+
+    public List<Instr> instrs() {
+        return Collections.unmodifiableList(instrs);
+    }
+
+    public List<Block> predecessors() {
+        return Collections.unmodifiableList(predecessors);
+    }
+
+    public List<Block> successors() {
+        return Collections.unmodifiableList(successors);
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public Instr terminator() {
+        return instrs.isEmpty() ? null : instrs.get(instrs.size() - 1);
+    }
+
+    boolean isTerminated() {
+        Instr last = terminator();
+        return last != null && last.op.isTerminator();
+    }
+
+    void add(Instr instr) {
+        instr.block = this;
+        instrs.add(instr);
+    }
+
+    /**
+     * add an instruction just before the terminator
+     */
+    void insertBeforeTerminator(Instr instr) {
+        instr.block = this;
+        instrs.add(instrs.size() - 1, instr);
+    }
+
+    void addPhi(Instr phi) {
+        phi.block = this;
+        int i = 0;
+        while (i < instrs.size() && instrs.get(i).op == Op.PHI) {
+            i++;
+        }
+        instrs.add(i, phi);
+    }
+
+    boolean dominates(Block other) {
+        for (Block block = other; block != null; block = block.dominator) {
+            if (block == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * Computes the operations on constants, e.g. the "scale * 4" of "var scale = 3;": a local
+ * that is assigned a constant is that constant wherever the assignment reaches, which the
+ * Optimizer of the tree doesn't see. The operations that would fail stay, to fail at run time.
+ */
+final class ConstantFolding {
+    // the result of an operation that doesn't fold
+    private static final Object NONE = new Object();
+
+    private ConstantFolding() {
+    }
+
+    static void run(Graph graph) {
+        // in reverse postorder the operands come before the instructions, except for the phis
+        for (Block block : graph.blocks) {
+            for (int i = 0; i < block.instrs.size(); i++) {
+                Instr instr = block.instrs.get(i);
+                if (!instr.op.pure || instr.op == Op.CONST || instr.op == Op.PHI || !isConstant(instr.operands)) {
+                    continue;
+                }
+                Object value = fold(instr);
+                if (value == NONE) {
+                    continue;
+                }
+                Instr constant = new Instr(Op.CONST, value);
+                constant.block = block;
+                constant.numeric = value instanceof Double;
+                block.instrs.set(i, constant);
+                graph.replace(instr, constant);
+            }
+        }
+    }
+
+    private static boolean isConstant(Instr[] operands) {
+        for (Instr operand : operands) {
+            if (operand.op != Op.CONST) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object fold(Instr instr) {
+        Object left = instr.operands[0].payload;
+        Object right = instr.operands.length > 1 ? instr.operands[1].payload : null;
+        switch (instr.op) {
+            case NOT:
+                return !isTruthy(left);
+            case EQUAL:
+                return isEqual(left, right);
+            case NOT_EQUAL:
+                return !isEqual(left, right);
+            case IS_VIRTUAL:
+                return left == VIRTUAL;
+            case NEGATE:
+                return left instanceof Double ? -(double) left : NONE;
+            case ADD:
+                if (left instanceof String && right instanceof String) {
+                    return (String) left + (String) right;
+                }
+                break;
+            default:
+                break;
+        }
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            return NONE;
+        }
+        double a = (double) left;
+        double b = (double) right;
+        switch (instr.op) {
+            case ADD:
+                return a + b;
+            case SUBTRACT:
+                return a - b;
+            case MULTIPLY:
+                return a * b;
+            case DIVIDE:
+                return Double.compare(b, 0.0) == 0 ? NONE : a / b;
+            case GREATER:
+                return a > b;
+            case GREATER_EQUAL:
+                return a >= b;
+            case LESS:
+                return a < b;
+            case LESS_EQUAL:
+                return a <= b;
+            default:
+                return NONE;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops the pure instructions whose value isn't used and that can't fail, e.g. the constant
+ * a strength reduction left behind, or a phi of a local never read after the loop.
+ */
+final class DeadCodeElimination {
+    private DeadCodeElimination() {
+    }
+
+    static void run(Graph graph) {
+        Map<Instr, Integer> uses = new IdentityHashMap<>();
+        for (Block block : graph.blocks) {
+            for (Instr instr : block.instrs) {
+                for (Instr operand : instr.operands) {
+                    uses.merge(operand, 1, Integer::sum);
+                }
+            }
+        }
+
+        List<Instr> work = new ArrayList<>();
+        for (Block block : graph.blocks) {
+            for (Instr instr : block.instrs) {
+                if (isDead(instr, uses)) {
+                    work.add(instr);
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            Instr instr = work.remove(work.size() - 1);
+            if (!instr.block.instrs.remove(instr)) {
+                continue;
+            }
+            for (Instr operand : instr.operands) {
+                uses.merge(operand, -1, Integer::sum);
+                if (operand != instr && isDead(operand, uses)) {
+                    work.add(operand);
+                }
+            }
+        }
+    }
+
+    private static boolean isDead(Instr instr, Map<Instr, Integer> uses) {
+        return instr.op.pure && !Types.canFail(instr) && uses.getOrDefault(instr, 0) == 0;
+    }
+}
@@ -0,0 +1,328 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.isTruthy;
+
+/**
+ * The control flow graph of a function body, in SSA form over the locals of the function:
+ * every assignment of a local defines a new value, and a PHI merges the values of a local
+ * where control flow joins. Globals, the variables of the enclosing scopes and the fields stay
+ * memory, read and written by instructions of their own.
+ */
+public final class Graph {
+    final String name;
+    final List<Block> blocks = new ArrayList<>();
+    final Block entry;
+
+    Graph(String name) {
+        this.name = name;
+        this.entry = newBlock();
+    }
+
+    /**
+     * the blocks in reverse postorder, the entry first
+     */
+    public List<Block> blocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    public Block entry() {
+        return entry;
+    }
+
+    /**
+     * one more than the largest id of a value
+     */
+    public int size() {
+        int size = 0;
+        for (Block block : blocks) {
+            for (Instr instr : block.instrs) {
+                size = Math.max(size, instr.id + 1);
+            }
+        }
+        return size;
+    }
+
+    Block newBlock() {
+        Block block = new Block();
+        block.id = blocks.size();
+        blocks.add(block);
+        return block;
+    }
+
+    static void link(Block from, Block to) {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    /**
+     * drop the edge from a block to one of its successors, and the operands it gave the phis
+     */
+    static void unlink(Block from, Block to) {
+        from.successors.remove(to);
+        int i = to.predecessors.indexOf(from);
+        to.predecessors.remove(i);
+        for (Instr instr : to.instrs) {
+            if (instr.op == Op.PHI) {
+                instr.removeOperand(i);
+            }
+        }
+    }
+
+    /**
+     * run the optimizations, see the classes of the passes
+     */
+    public void optimize() {
+        Types.infer(this);
+        ConstantFolding.run(this);
+        StrengthReduction.run(this);
+        // the branches on the folded conditions, the phis of the operands that became one
+        finish();
+        Types.infer(this);
+        ValueNumbering.run(this);
+        LoopInvariantCodeMotion.run(this);
+        // the constants that left sibling blocks for the same preheader
+        ValueNumbering.run(this);
+        DeadCodeElimination.run(this);
+        update();
+    }
+
+    // ------------------------------------------------------------------ rewriting
+
+    /**
+     * replace every use of a value by another one
+     */
+    void replace(Instr value, Instr by) {
+        for (Block block : blocks) {
+            for (Instr instr : block.instrs) {
+                Instr[] operands = instr.operands;
+                for (int i = 0; i < operands.length; i++) {
+                    if (operands[i] == value) {
+                        operands[i] = by;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * the number of uses of every value, by id
+     */
+    public int[] uses() {
+        int[] uses = new int[size()];
+        for (Block block : blocks) {
+            for (Instr instr : block.instrs) {
+                for (Instr operand : instr.operands) {
+                    uses[operand.id]++;
+                }
+            }
+        }
+        return uses;
+    }
+
+    /**
+     * tidy the graph the IrBuilder made: fold the branches on constants, drop the blocks
+     * control never reaches and the phis that merge a single value, then order the blocks
+     * and compute their dominators
+     */
+    void finish() {
+        for (Block block : blocks) {
+            Instr last = block.terminator();
+            if (last != null && last.op == Op.BRANCH && last.operands[0].op == Op.CONST) {
+                boolean truthy = isTruthy(last.operands[0].payload);
+                Block dropped = block.successors.get(truthy ? 1 : 0);
+                unlink(block, dropped);
+                block.instrs.set(block.instrs.size() - 1, jump(block));
+            }
+        }
+        removeUnreachable();
+        removeTrivialPhis();
+        update();
+    }
+
+    private static Instr jump(Block block) {
+        Instr jump = new Instr(Op.JUMP, null);
+        jump.block = block;
+        return jump;
+    }
+
+    private void removeUnreachable() {
+        Set<Block> reachable = new HashSet<>();
+        List<Block> work = new ArrayList<>();
+        work.add(entry);
+        reachable.add(entry);
+        while (!work.isEmpty()) {
+            Block block = work.remove(work.size() - 1);
+            for (Block successor : block.successors) {
+                if (reachable.add(successor)) {
+                    work.add(successor);
+                }
+            }
+        }
+        for (Block block : blocks) {
+            if (!reachable.contains(block)) {
+                for (Block successor : new ArrayList<>(block.successors)) {
+                    unlink(block, successor);
+                }
+            }
+        }
+        blocks.retainAll(reachable);
+    }
+
+    /**
+     * a phi whose operands are one value, or itself, is that value
+     */
+    private void removeTrivialPhis() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block block : blocks) {
+                for (Instr phi : new ArrayList<>(block.instrs)) {
+                    if (phi.op != Op.PHI) {
+                        break;
+                    }
+                    Instr same = null;
+                    boolean trivial = true;
+                    for (Instr operand : phi.operands) {
+                        if (operand == phi || operand == same) {
+                            continue;
+                        }
+                        if (same != null) {
+                            trivial = false;
+                            break;
+                        }
+                        same = operand;
+                    }
+                    if (trivial && same != null) {
+                        block.instrs.remove(phi);
+                        replace(phi, same);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * order the blocks in reverse postorder, number the values and compute the dominators,
+     * after any change to the blocks or to the instructions
+     */
+    void update() {
+        List<Block> postorder = new ArrayList<>();
+        Set<Block> visited = new HashSet<>();
+        postorder(entry, visited, postorder);
+        Collections.reverse(postorder);
+        blocks.clear();
+        blocks.addAll(postorder);
+
+        int id = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            block.id = i;
+            block.order = i;
+            for (Instr instr : block.instrs) {
+                instr.block = block;
+                instr.id = id++;
+            }
+        }
+        computeDominators();
+    }
+
+    private static void postorder(Block block, Set<Block> visited, List<Block> postorder) {
+        // iterative, a long chain of ifs shouldn't overflow the stack
+        List<Block> stack = new ArrayList<>();
+        List<Integer> next = new ArrayList<>();
+        visited.add(block);
+        stack.add(block);
+        next.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            Block current = stack.get(top);
+            int i = next.get(top);
+            if (i < current.successors.size()) {
+                next.set(top, i + 1);
+                Block successor = current.successors.get(i);
+                if (visited.add(successor)) {
+                    stack.add(successor);
+                    next.add(0);
+                }
+            } else {
+                postorder.add(current);
+                stack.remove(top);
+                next.remove(top);
+            }
+        }
+    }
+
+    /**
+     * Cooper, Harvey and Kennedy, "A Simple, Fast Dominance Algorithm"
+     */
+    private void computeDominators() {
+        for (Block block : blocks) {
+            block.dominator = null;
+        }
+        entry.dominator = entry;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block block : blocks) {
+                if (block == entry) {
+                    continue;
+                }
+                Block dominator = null;
+                for (Block predecessor : block.predecessors) {
+                    if (predecessor.dominator == null) {
+                        continue;
+                    }
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+                }
+                if (block.dominator != dominator) {
+                    block.dominator = dominator;
+                    changed = true;
+                }
+            }
+        }
+        entry.dominator = null;
+    }
+
+    private static Block intersect(Block a, Block b) {
+        while (a != b) {
+            while (a.order > b.order) {
+                a = a.dominator;
+            }
+            while (b.order > a.order) {
+                b = b.dominator;
+            }
+        }
+        return a;
+    }
+
+    // ------------------------------------------------------------------ output
+
+    /**
+     * the graph in a readable form, for -Djlox.ir.dump=true
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("fun ").append(name).append(" {\n");
+        for (Block block : blocks) {
+            builder.append("b").append(block.id);
+            if (!block.predecessors.isEmpty()) {
+                builder.append(" <-");
+                for (Block predecessor : block.predecessors) {
+                    builder.append(" b").append(predecessor.id);
+                }
+            }
+            builder.append(":\n");
+            for (Instr instr : block.instrs) {
+                builder.append("    ").append(instr).append(instr.numeric ? "  ; number" : "").append('\n');
+            }
+        }
+        return builder.append("}\n").toString();
+    }
+}
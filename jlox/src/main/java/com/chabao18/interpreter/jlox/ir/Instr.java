@@ -0,0 +1,102 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+
+import java.util.Arrays;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * An instruction, and the SSA value it defines if its Op has one.
+ */
+public final class Instr {
+    public final Op op;
+    Instr[] operands;
+    // the constant, the token or the site of the instruction
+    public final Object payload;
+    // GET_OUTER, SET_OUTER: the distance of the scope from the frame; PARAM: unused
+    public final int distance;
+    // GET_OUTER, SET_OUTER, PARAM: the slot
+    public final int slot;
+
+    Block block;
+    int id;
+    // the value is known to be a number, see Types
+    boolean numeric;
+
+    Instr(Op op, Object payload, Instr... operands) {
+        this(op, payload, -1, -1, operands);
+    }
+
+    Instr(Op op, Object payload, int distance, int slot, Instr... operands) {
+        this.op = op;
+        this.payload = payload;
+        this.distance = distance;
+        this.slot = slot;
+        this.operands = operands;
+    }
+
+    public Instr operand(int i) {
+        return operands[i];
+    }
+
+    public int operandCount() {
+        return operands.length;
+    }
+
+    public Block block() {
+        return block;
+    }
+
+    /**
+     * a number for the value, unique in its Graph
+     */
+    public int id() {
+        return id;
+    }
+
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    void addOperand(Instr operand) {
+        operands = Arrays.copyOf(operands, operands.length + 1);
+        operands[operands.length - 1] = operand;
+    }
+
+    void removeOperand(int i) {
+        Instr[] result = new Instr[operands.length - 1];
+        System.arraycopy(operands, 0, result, 0, i);
+        System.arraycopy(operands, i + 1, result, i, operands.length - i - 1);
+        operands = result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if (op.hasValue) {
+            builder.append('v').append(id).append(" = ");
+        }
+        builder.append(op.name().toLowerCase());
+        if (op == Op.CONST) {
+            builder.append(' ').append(payload instanceof String ? "\"" + payload + "\"" : stringify(payload));
+        } else if (payload instanceof Token) {
+            builder.append(" '").append(((Token) payload).lexeme).append('\'');
+        } else if (payload instanceof Stmt.Function) {
+            builder.append(" <fn ").append(((Stmt.Function) payload).name.lexeme).append('>');
+        }
+        if (slot != -1) {
+            builder.append(" [").append(distance == -1 ? "" : distance + ", ").append(slot).append(']');
+        }
+        for (Instr operand : operands) {
+            builder.append(" v").append(operand.id);
+        }
+        if (op == Op.JUMP) {
+            builder.append(" b").append(block.successors.get(0).id);
+        } else if (op == Op.BRANCH) {
+            builder.append(" b").append(block.successors.get(0).id).append(" b").append(block.successors.get(1).id);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,651 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.core.TokenType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.VIRTUAL;
+
+/**
+ * Builds the Graph of a resolved function body, straight from the tree: the values of the
+ * locals are tracked per block as in Braun et al., "Simple and Efficient Construction of
+ * Static Single Assignment Form", so no dominance frontiers are needed.
+ * <p>
+ * The locals are the ones of the function scope and of the blocks inside it, numbered like
+ * the JVM locals of the compiled code: the slots of every scope follow the ones of the scope
+ * enclosing it. A function that declares a function or a class can't be built, since the
+ * declaration would capture the locals.
+ */
+public final class IrBuilder implements Expr.Visitor<Instr>, Stmt.Visitor<Void> {
+    /**
+     * why a function can't be built
+     */
+    public static final class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Graph graph;
+    // the first variable of every scope, innermost last
+    private final List<Integer> scopes = new ArrayList<>();
+    private int nextVariable;
+    private Block current;
+
+    // the value of every variable at the end of every block that assigned it, or that read it
+    private final Map<Block, Map<Integer, Instr>> definitions = new IdentityHashMap<>();
+    private final Set<Block> sealed = new HashSet<>();
+    // the phis of the blocks whose predecessors aren't all known yet, see seal()
+    private final Map<Block, Map<Integer, Instr>> incompletePhis = new IdentityHashMap<>();
+
+    private IrBuilder(String name) {
+        this.graph = new Graph(name);
+    }
+
+    /**
+     * @param isMethod whether "this" comes first in the function scope
+     */
+    public static Graph build(Stmt.Function function, boolean isMethod) {
+        IrBuilder builder = new IrBuilder(function.name.lexeme);
+        builder.function(function, isMethod);
+        builder.graph.finish();
+        return builder.graph;
+    }
+
+    private void function(Stmt.Function function, boolean isMethod) {
+        current = graph.entry;
+        seal(current);
+        int base = beginScope(function.slotCount);
+        // "this" and the parameters come in the Environment of the call
+        int defined = function.params.size() + (isMethod ? 1 : 0);
+        for (int slot = 0; slot < function.slotCount; slot++) {
+            write(base + slot, slot < defined ? add(new Instr(Op.PARAM, null, -1, slot)) : nil());
+        }
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+        if (!current.isTerminated()) {
+            add(new Instr(Op.RETURN, null, nil()));
+        }
+    }
+
+    // ------------------------------------------------------------------ blocks
+
+    private Instr add(Instr instr) {
+        current.add(instr);
+        return instr;
+    }
+
+    private Instr nil() {
+        return add(new Instr(Op.CONST, null));
+    }
+
+    private void jump(Block target) {
+        add(new Instr(Op.JUMP, null));
+        Graph.link(current, target);
+    }
+
+    private void branch(Instr condition, Block ifTruthy, Block ifFalsey) {
+        add(new Instr(Op.BRANCH, null, condition));
+        Graph.link(current, ifTruthy);
+        Graph.link(current, ifFalsey);
+    }
+
+    /**
+     * continue in a block control never reaches, e.g. after a return, it is dropped by
+     * Graph.finish()
+     */
+    private void unreachable() {
+        current = graph.newBlock();
+        seal(current);
+    }
+
+    /**
+     * all the predecessors of a block are known: complete its phis
+     */
+    private void seal(Block block) {
+        Map<Integer, Instr> phis = incompletePhis.remove(block);
+        if (phis != null) {
+            for (Map.Entry<Integer, Instr> entry : phis.entrySet()) {
+                addPhiOperands(entry.getKey(), entry.getValue());
+            }
+        }
+        sealed.add(block);
+    }
+
+    // ------------------------------------------------------------------ variables
+
+    private int beginScope(int slotCount) {
+        int base = nextVariable;
+        scopes.add(base);
+        nextVariable += slotCount;
+        return base;
+    }
+
+    private void endScope(int slotCount) {
+        scopes.remove(scopes.size() - 1);
+        nextVariable -= slotCount;
+    }
+
+    /**
+     * the variable of a local of the function, -1 if it belongs to an enclosing scope
+     */
+    private int variable(int depth, int slot) {
+        int scope = scopes.size() - 1 - depth;
+        return scope >= 0 ? scopes.get(scope) + slot : -1;
+    }
+
+    private void write(int variable, Instr value) {
+        write(variable, current, value);
+    }
+
+    private void write(int variable, Block block, Instr value) {
+        definitions.computeIfAbsent(block, b -> new HashMap<>()).put(variable, value);
+    }
+
+    private Instr read(int variable, Block block) {
+        Map<Integer, Instr> values = definitions.get(block);
+        Instr value = values == null ? null : values.get(variable);
+        return value != null ? value : readFromPredecessors(variable, block);
+    }
+
+    private Instr readFromPredecessors(int variable, Block block) {
+        Instr value;
+        if (!sealed.contains(block)) {
+            value = new Instr(Op.PHI, null);
+            block.addPhi(value);
+            incompletePhis.computeIfAbsent(block, b -> new HashMap<>()).put(variable, value);
+        } else if (block.predecessors.size() == 1) {
+            value = read(variable, block.predecessors.get(0));
+        } else if (block.predecessors.isEmpty()) {
+            // unreachable code
+            value = new Instr(Op.CONST, null);
+            value.block = block;
+            block.instrs.add(0, value);
+        } else {
+            value = new Instr(Op.PHI, null);
+            block.addPhi(value);
+            // break the cycles of the loops
+            write(variable, block, value);
+            addPhiOperands(variable, value);
+        }
+        write(variable, block, value);
+        return value;
+    }
+
+    private void addPhiOperands(int variable, Instr phi) {
+        for (Block predecessor : phi.block.predecessors) {
+            phi.addOperand(read(variable, predecessor));
+        }
+    }
+
+    private Instr load(Token name, int depth, int slot) {
+        if (depth == -1) {
+            return add(new Instr(Op.GET_GLOBAL, name));
+        }
+        int variable = variable(depth, slot);
+        if (variable != -1) {
+            return read(variable, current);
+        }
+        return add(new Instr(Op.GET_OUTER, name, depth - (scopes.size() - 1), slot));
+    }
+
+    // ------------------------------------------------------------------ expressions
+
+    private Instr value(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * jump on the truthiness of an expression, "and", "or" and "!" become control flow
+     */
+    private void condition(Expr expr, Block ifTruthy, Block ifFalsey) {
+        if (expr instanceof Expr.Grouping) {
+            condition(((Expr.Grouping) expr).expression, ifTruthy, ifFalsey);
+            return;
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            condition(((Expr.Unary) expr).right, ifFalsey, ifTruthy);
+            return;
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            Block right = graph.newBlock();
+            if (logical.operator.type == TokenType.OR) {
+                condition(logical.left, ifTruthy, right);
+            } else {
+                condition(logical.left, right, ifFalsey);
+            }
+            seal(right);
+            current = right;
+            condition(logical.right, ifTruthy, ifFalsey);
+            return;
+        }
+        branch(value(expr), ifTruthy, ifFalsey);
+    }
+
+    private void store(Token name, int depth, int slot, Instr value) {
+        if (depth == -1) {
+            add(new Instr(Op.SET_GLOBAL, name, value));
+            return;
+        }
+        int variable = variable(depth, slot);
+        if (variable != -1) {
+            write(variable, value);
+        } else {
+            add(new Instr(Op.SET_OUTER, name, depth - (scopes.size() - 1), slot, value));
+        }
+    }
+
+    @Override
+    public Instr visitAllocateExpr(Expr.Allocate expr) {
+        // the fields in variables where the callee is the class, the instance where it isn't
+        Instr callee = value(expr.call.callee);
+        Block allocated = graph.newBlock();
+        Block called = graph.newBlock();
+        Block end = graph.newBlock();
+        branch(add(new Instr(Op.IS_CLASS, expr.initializer, callee)), allocated, called);
+        seal(allocated);
+        seal(called);
+
+        current = allocated;
+        for (Expr argument : expr.arguments) {
+            value(argument);
+        }
+        for (Expr field : expr.fields) {
+            value(field);
+        }
+        store(expr.call.paren, 0, expr.base, callee);
+        Instr virtual = add(new Instr(Op.CONST, VIRTUAL));
+        jump(end);
+
+        current = called;
+        Instr instance = call(expr.call, callee);
+        jump(end);
+
+        seal(end);
+        current = end;
+        Instr phi = new Instr(Op.PHI, null, virtual, instance);
+        end.addPhi(phi);
+        return phi;
+    }
+
+    @Override
+    public Instr visitAssignExpr(Expr.Assign expr) {
+        Instr value = value(expr.value);
+        store(expr.name, expr.depth, expr.slot, value);
+        return value;
+    }
+
+    @Override
+    public Instr visitBinaryExpr(Expr.Binary expr) {
+        Instr left = value(expr.left);
+        Instr right = value(expr.right);
+        Op op;
+        switch (expr.operator.type) {
+            case PLUS:
+                op = Op.ADD;
+                break;
+            case MINUS:
+                op = Op.SUBTRACT;
+                break;
+            case STAR:
+                op = Op.MULTIPLY;
+                break;
+            case SLASH:
+                op = Op.DIVIDE;
+                break;
+            case GREATER:
+                op = Op.GREATER;
+                break;
+            case GREATER_EQUAL:
+                op = Op.GREATER_EQUAL;
+                break;
+            case LESS:
+                op = Op.LESS;
+                break;
+            case LESS_EQUAL:
+                op = Op.LESS_EQUAL;
+                break;
+            case EQUAL_EQUAL:
+                op = Op.EQUAL;
+                break;
+            case BANG_EQUAL:
+                op = Op.NOT_EQUAL;
+                break;
+            default:
+                throw new Unsupported("operator " + expr.operator.lexeme);
+        }
+        return add(new Instr(op, expr.operator, left, right));
+    }
+
+    @Override
+    public Instr visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            // "object.method(...)": the object is the receiver
+            Instr object = value(((Expr.Get) expr.callee).object);
+            Instr callee = add(new Instr(Op.PROPERTY, expr, object));
+            return call(expr, callee, add(new Instr(Op.RECEIVER, null, callee, object)));
+        }
+        return call(expr, value(expr.callee));
+    }
+
+    /**
+     * the call of a callee already evaluated
+     */
+    private Instr call(Expr.Call expr, Instr value) {
+        Instr callee = add(new Instr(Op.CHECK_CALLABLE, expr.paren, value));
+        return call(expr, callee, add(new Instr(Op.RECEIVER, null, callee)));
+    }
+
+    private Instr call(Expr.Call expr, Instr callee, Instr receiver) {
+        Instr[] operands = new Instr[2 + expr.arguments.size()];
+        operands[0] = callee;
+        operands[1] = receiver;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            operands[2 + i] = value(expr.arguments.get(i));
+        }
+        return add(new Instr(Op.CALL, expr, operands));
+    }
+
+    @Override
+    public Instr visitGetExpr(Expr.Get expr) {
+        return add(new Instr(Op.GET, expr, value(expr.object)));
+    }
+
+    @Override
+    public Instr visitGetFieldExpr(Expr.GetField expr) {
+        Expr.Variable variable = expr.object;
+        Instr object = load(variable.name, variable.depth, variable.slot);
+        Block virtual = graph.newBlock();
+        Block instance = graph.newBlock();
+        Block end = graph.newBlock();
+        branch(add(new Instr(Op.IS_VIRTUAL, null, object)), virtual, instance);
+        seal(virtual);
+        seal(instance);
+
+        current = virtual;
+        Instr field = load(expr.get.name, variable.depth, expr.slot);
+        jump(end);
+
+        current = instance;
+        Instr value = add(new Instr(Op.GET, expr.get, object));
+        jump(end);
+
+        seal(end);
+        current = end;
+        Instr phi = new Instr(Op.PHI, null, field, value);
+        end.addPhi(phi);
+        return phi;
+    }
+
+    @Override
+    public Instr visitGroupingExpr(Expr.Grouping expr) {
+        return value(expr.expression);
+    }
+
+    @Override
+    public Instr visitInlineExpr(Expr.Inline expr) {
+        // the body where the callee is the function, the call where it isn't
+        Instr callee = value(expr.call.callee);
+        Block inlined = graph.newBlock();
+        Block called = graph.newBlock();
+        Block end = graph.newBlock();
+        branch(add(new Instr(Op.IS_FUNCTION, expr.function, callee)), inlined, called);
+        seal(inlined);
+        seal(called);
+
+        current = inlined;
+        for (Expr argument : expr.arguments) {
+            value(argument);
+        }
+        Instr body = value(expr.body);
+        jump(end);
+
+        current = called;
+        Instr result = call(expr.call, callee);
+        jump(end);
+
+        seal(end);
+        current = end;
+        Instr phi = new Instr(Op.PHI, null, body, result);
+        end.addPhi(phi);
+        return phi;
+    }
+
+    @Override
+    public Instr visitLiteralExpr(Expr.Literal expr) {
+        return add(new Instr(Op.CONST, expr.value));
+    }
+
+    @Override
+    public Instr visitLogicalExpr(Expr.Logical expr) {
+        // the value of the operand that decides, e.g. print "hi" or 2 -> "hi"
+        Instr left = value(expr.left);
+        Block right = graph.newBlock();
+        Block end = graph.newBlock();
+        if (expr.operator.type == TokenType.OR) {
+            branch(left, end, right);
+        } else {
+            branch(left, right, end);
+        }
+        seal(right);
+        current = right;
+        Instr value = value(expr.right);
+        jump(end);
+        seal(end);
+        current = end;
+        Instr phi = new Instr(Op.PHI, null, left, value);
+        end.addPhi(phi);
+        return phi;
+    }
+
+    @Override
+    public Instr visitMaterializeExpr(Expr.Materialize expr) {
+        Expr.Variable variable = expr.object;
+        Instr object = load(variable.name, variable.depth, variable.slot);
+        Block virtual = graph.newBlock();
+        Block end = graph.newBlock();
+        branch(add(new Instr(Op.IS_VIRTUAL, null, object)), virtual, end);
+        seal(virtual);
+
+        current = virtual;
+        Instr[] operands = new Instr[1 + expr.fields.size()];
+        operands[0] = load(variable.name, variable.depth, expr.base);
+        for (int i = 0; i < expr.fields.size(); i++) {
+            operands[1 + i] = load(expr.fields.get(i), variable.depth, expr.base + 1 + i);
+        }
+        Instr instance = add(new Instr(Op.MATERIALIZE, expr, operands));
+        store(variable.name, variable.depth, variable.slot, instance);
+        jump(end);
+
+        seal(end);
+        current = end;
+        // the branch is the first predecessor of end
+        Instr phi = new Instr(Op.PHI, null, object, instance);
+        end.addPhi(phi);
+        return phi;
+    }
+
+    @Override
+    public Instr visitSetExpr(Expr.Set expr) {
+        Instr object = add(new Instr(Op.CHECK_FIELDS, expr, value(expr.object)));
+        Instr value = value(expr.value);
+        add(new Instr(Op.SET, expr, object, value));
+        return value;
+    }
+
+    @Override
+    public Instr visitSetFieldExpr(Expr.SetField expr) {
+        // the value is built on both paths, the instance is checked before it is evaluated
+        Expr.Variable variable = expr.object;
+        Instr object = load(variable.name, variable.depth, variable.slot);
+        Block virtual = graph.newBlock();
+        Block instance = graph.newBlock();
+        Block end = graph.newBlock();
+        branch(add(new Instr(Op.IS_VIRTUAL, null, object)), virtual, instance);
+        seal(virtual);
+        seal(instance);
+
+        current = virtual;
+        Instr field = value(expr.set.value);
+        store(expr.set.name, variable.depth, expr.slot, field);
+        jump(end);
+
+        current = instance;
+        Instr checked = add(new Instr(Op.CHECK_FIELDS, expr.set, object));
+        Instr value = value(expr.set.value);
+        add(new Instr(Op.SET, expr.set, checked, value));
+        jump(end);
+
+        seal(end);
+        current = end;
+        Instr phi = new Instr(Op.PHI, null, field, value);
+        end.addPhi(phi);
+        return phi;
+    }
+
+    @Override
+    public Instr visitThisExpr(Expr.This expr) {
+        return load(expr.keyword, expr.depth, expr.slot);
+    }
+
+    @Override
+    public Instr visitUnaryExpr(Expr.Unary expr) {
+        Instr right = value(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            return add(new Instr(Op.NOT, expr.operator, right));
+        }
+        return add(new Instr(Op.NEGATE, expr.operator, right));
+    }
+
+    @Override
+    public Instr visitVariableExpr(Expr.Variable expr) {
+        return load(expr.name, expr.depth, expr.slot);
+    }
+
+    // ------------------------------------------------------------------ statements
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // the Resolver didn't give a scope to a block that declares nothing
+        if (stmt.slotCount == 0) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        int base = beginScope(stmt.slotCount);
+        for (int slot = 0; slot < stmt.slotCount; slot++) {
+            write(base + slot, nil());
+        }
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        endScope(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("a class declaration captures the locals");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        value(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("a function declaration captures the locals");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Block thenBranch = graph.newBlock();
+        Block elseBranch = graph.newBlock();
+        Block end = stmt.elseBranch != null ? graph.newBlock() : elseBranch;
+        condition(stmt.condition, thenBranch, elseBranch);
+
+        seal(thenBranch);
+        current = thenBranch;
+        stmt.thenBranch.accept(this);
+        if (!current.isTerminated()) {
+            jump(end);
+        }
+        if (stmt.elseBranch != null) {
+            seal(elseBranch);
+            current = elseBranch;
+            stmt.elseBranch.accept(this);
+            if (!current.isTerminated()) {
+                jump(end);
+            }
+        }
+        seal(end);
+        current = end;
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // only at the top level, see Resolver
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        add(new Instr(Op.PRINT, null, value(stmt.expression)));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // a call in tail position comes back as a TailCall, see LoxFunction.execute()
+        add(new Instr(Op.RETURN, null, stmt.value != null ? value(stmt.value) : nil()));
+        unreachable();
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot == -1) {
+            throw new Unsupported("a global declaration");
+        }
+        write(variable(0, stmt.slot), stmt.initializer != null ? value(stmt.initializer) : nil());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        // the header isn't sealed before the body is built, the body jumps back to it
+        Block header = graph.newBlock();
+        jump(header);
+        current = header;
+        Block body = graph.newBlock();
+        Block exit = graph.newBlock();
+        condition(stmt.condition, body, exit);
+
+        seal(body);
+        current = body;
+        stmt.body.accept(this);
+        if (!current.isTerminated()) {
+            jump(header);
+        }
+        seal(header);
+        seal(exit);
+        current = exit;
+        return null;
+    }
+}
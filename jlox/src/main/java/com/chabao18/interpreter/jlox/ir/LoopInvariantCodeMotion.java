@@ -0,0 +1,110 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves the pure instructions of a loop whose operands are all defined before the loop to
+ * the block that enters the loop, so they run once instead of once per iteration. Only the
+ * instructions that can't fail move: the loop may not run at all, and an error must come
+ * after the output of the iterations before it.
+ * <p>
+ * The loops are the ones of "while" and "for", so a loop has a single entry: its header, the
+ * block of the condition, and the block before the loop jumps to the header and nowhere else.
+ */
+final class LoopInvariantCodeMotion {
+    private LoopInvariantCodeMotion() {
+    }
+
+    private static final class Loop {
+        final Block header;
+        final Set<Block> blocks = new HashSet<>();
+
+        Loop(Block header) {
+            this.header = header;
+        }
+    }
+
+    static void run(Graph graph) {
+        List<Loop> loops = new ArrayList<>();
+        for (Block block : graph.blocks) {
+            Loop loop = null;
+            for (Block predecessor : block.predecessors) {
+                if (block.dominates(predecessor)) {
+                    // a back edge
+                    if (loop == null) {
+                        loop = new Loop(block);
+                        loop.blocks.add(block);
+                    }
+                    collect(loop, predecessor);
+                }
+            }
+            if (loop != null) {
+                loops.add(loop);
+            }
+        }
+        // the inner loops first, what leaves them may leave the outer ones too
+        loops.sort(Comparator.comparingInt(loop -> loop.blocks.size()));
+        for (Loop loop : loops) {
+            hoist(graph, loop);
+        }
+    }
+
+    /**
+     * the blocks that reach the end of a back edge without going through the header
+     */
+    private static void collect(Loop loop, Block end) {
+        List<Block> work = new ArrayList<>();
+        if (loop.blocks.add(end)) {
+            work.add(end);
+        }
+        while (!work.isEmpty()) {
+            Block block = work.remove(work.size() - 1);
+            for (Block predecessor : block.predecessors) {
+                if (loop.blocks.add(predecessor)) {
+                    work.add(predecessor);
+                }
+            }
+        }
+    }
+
+    private static void hoist(Graph graph, Loop loop) {
+        Block preheader = null;
+        for (Block predecessor : loop.header.predecessors) {
+            if (!loop.blocks.contains(predecessor)) {
+                if (preheader != null) {
+                    return;
+                }
+                preheader = predecessor;
+            }
+        }
+        if (preheader == null || preheader.successors.size() != 1) {
+            return;
+        }
+
+        // in the order of the blocks, so an instruction moves after the operands that moved
+        for (Block block : graph.blocks) {
+            if (!loop.blocks.contains(block)) {
+                continue;
+            }
+            for (Instr instr : new ArrayList<>(block.instrs)) {
+                if (instr.op.pure && instr.op != Op.PHI && !Types.canFail(instr) && isInvariant(loop, instr)) {
+                    block.instrs.remove(instr);
+                    preheader.insertBeforeTerminator(instr);
+                }
+            }
+        }
+    }
+
+    private static boolean isInvariant(Loop loop, Instr instr) {
+        for (Instr operand : instr.operands) {
+            if (loop.blocks.contains(operand.block)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+package com.chabao18.interpreter.jlox.ir;
+
+/**
+ * The operations of the IR, see Instr for the operands of each.
+ */
+public enum Op {
+    // ------------------------------------------------------------------ values
+    // the Lox value in payload
+    CONST(true, true),
+    // a local of the function scope defined by the call ("this" and the parameters), from the frame
+    PARAM(true, false),
+    // one operand per predecessor of the block
+    PHI(true, true),
+
+    // pure, but may fail: left, right, the operator token in payload
+    ADD(true, true),
+    SUBTRACT(true, true),
+    MULTIPLY(true, true),
+    DIVIDE(true, true),
+    GREATER(true, true),
+    GREATER_EQUAL(true, true),
+    LESS(true, true),
+    LESS_EQUAL(true, true),
+    // right, the operator token in payload
+    NEGATE(true, true),
+    // these can't fail
+    EQUAL(true, true),
+    NOT_EQUAL(true, true),
+    NOT(true, true),
+
+    // ------------------------------------------------------------------ memory
+    // a global, the name token in payload
+    GET_GLOBAL(true, false),
+    SET_GLOBAL(false, false),
+    // a local of a scope enclosing the function, at distance and slot from the frame
+    GET_OUTER(true, false),
+    SET_OUTER(false, false),
+    // object, the Expr.Get in payload
+    GET(true, false),
+    // object, the Expr.Set in payload: check the object before the value is evaluated
+    CHECK_FIELDS(true, false),
+    // object, value, the Expr.Set in payload
+    SET(false, false),
+    // a local, whether it holds Values.VIRTUAL: an instance still in variables
+    IS_VIRTUAL(true, true),
+    // class, fields..., the Expr.Materialize in payload: the instance of an Expr.Allocate
+    MATERIALIZE(true, false),
+
+    // ------------------------------------------------------------------ calls
+    // callee, the paren token in payload
+    CHECK_CALLABLE(true, false),
+    // callee, the Stmt.Function of an Expr.Inline in payload: whether the callee was created from it
+    IS_FUNCTION(true, true),
+    // callee, the init of an Expr.Allocate in payload: whether the callee is the class of that init
+    IS_CLASS(true, true),
+    // object, the Expr.Call in payload: the method or the callable field of "object.name(...)"
+    PROPERTY(true, false),
+    // callee and, for "object.name(...)", object
+    RECEIVER(true, false),
+    // callee, receiver, arguments..., the Expr.Call in payload
+    CALL(true, false),
+
+    PRINT(false, false),
+
+    // ------------------------------------------------------------------ terminators
+    JUMP(false, false),
+    // the condition, jumps on its truthiness
+    BRANCH(false, false),
+    RETURN(false, false);
+
+    /**
+     * whether the instruction produces a value
+     */
+    public final boolean hasValue;
+    /**
+     * whether the instruction only depends on its operands: it can be merged with another one
+     * of the same operands, and dropped when its value isn't used
+     */
+    public final boolean pure;
+
+    Op(boolean hasValue, boolean pure) {
+        this.hasValue = hasValue;
+        this.pure = pure;
+    }
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN;
+    }
+}
@@ -0,0 +1,104 @@
+package com.chabao18.interpreter.jlox.ir;
+
+/**
+ * Replaces arithmetic by cheaper arithmetic of the same result, bit for bit:
+ * <pre>
+ *     x / 4  ->  x * 0.25     (a power of two has an exact reciprocal)
+ *     x * 2  ->  x + x
+ *     x * 1  ->  x
+ *     x - 0  ->  x
+ *     -(-x)  ->  x
+ * </pre>
+ * all but the first only when x is known to be a number, so the error of a bad operand
+ * doesn't change. x + 0 isn't x, since -0 + 0 is 0.
+ */
+final class StrengthReduction {
+    private StrengthReduction() {
+    }
+
+    static void run(Graph graph) {
+        for (Block block : graph.blocks) {
+            for (int i = 0; i < block.instrs.size(); i++) {
+                Instr instr = block.instrs.get(i);
+                Instr reduced = reduce(graph, instr);
+                if (reduced == null) {
+                    continue;
+                }
+                if (reduced.block == null) {
+                    // a new instruction takes the place of the old one
+                    reduced.numeric = instr.numeric;
+                    reduced.block = block;
+                    // past the constant a division may have put before it
+                    i = block.instrs.indexOf(instr);
+                    block.instrs.set(i, reduced);
+                } else {
+                    block.instrs.remove(i--);
+                }
+                graph.replace(instr, reduced);
+            }
+        }
+    }
+
+    private static Instr reduce(Graph graph, Instr instr) {
+        switch (instr.op) {
+            case DIVIDE: {
+                Instr right = instr.operands[1];
+                if (right.op == Op.CONST && right.payload instanceof Double && hasExactReciprocal((double) right.payload)) {
+                    // the same errors as the division, the divisor isn't zero
+                    Instr reciprocal = new Instr(Op.CONST, 1.0 / (double) right.payload);
+                    reciprocal.numeric = true;
+                    instr.block.instrs.add(instr.block.instrs.indexOf(instr), reciprocal);
+                    reciprocal.block = instr.block;
+                    return new Instr(Op.MULTIPLY, instr.payload, instr.operands[0], reciprocal);
+                }
+                return null;
+            }
+            case MULTIPLY: {
+                Instr left = instr.operands[0];
+                Instr right = instr.operands[1];
+                if (!left.numeric || !right.numeric) {
+                    return null;
+                }
+                if (Types.isConstant(right, 1.0)) {
+                    return left;
+                }
+                if (Types.isConstant(left, 1.0)) {
+                    return right;
+                }
+                if (Types.isConstant(right, 2.0)) {
+                    return new Instr(Op.ADD, instr.payload, left, left);
+                }
+                if (Types.isConstant(left, 2.0)) {
+                    return new Instr(Op.ADD, instr.payload, right, right);
+                }
+                return null;
+            }
+            case SUBTRACT:
+                if (instr.operands[0].numeric && Types.isConstant(instr.operands[1], 0.0)) {
+                    return instr.operands[0];
+                }
+                return null;
+            case NEGATE: {
+                Instr right = instr.operands[0];
+                if (right.op == Op.NEGATE && right.operands[0].numeric) {
+                    return right.operands[0];
+                }
+                return null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * whether 1 / value is exact: a power of two, far enough from the ends of the exponent range
+     */
+    private static boolean hasExactReciprocal(double value) {
+        if (value == 0.0 || Double.isInfinite(value) || Double.isNaN(value)) {
+            return false;
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        int exponent = Math.getExponent(value);
+        return (bits & 0x000fffffffffffffL) == 0 && exponent > Double.MIN_EXPONENT && exponent < Double.MAX_EXPONENT;
+    }
+}
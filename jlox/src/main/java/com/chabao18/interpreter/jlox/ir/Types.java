@@ -0,0 +1,97 @@
+package com.chabao18.interpreter.jlox.ir;
+
+/**
+ * Which values are known to be numbers, and so which instructions can't fail. An instruction
+ * that can fail must run exactly where the tree puts it: the error it reports, and the output
+ * before it, depend on it.
+ */
+public final class Types {
+    private Types() {
+    }
+
+    /**
+     * mark the numbers: the number constants and the results of the arithmetic, optimistic
+     * about the phis of the loops
+     */
+    static void infer(Graph graph) {
+        for (Block block : graph.blocks) {
+            for (Instr instr : block.instrs) {
+                instr.numeric = true;
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block block : graph.blocks) {
+                for (Instr instr : block.instrs) {
+                    boolean numeric = isNumeric(instr);
+                    if (numeric != instr.numeric) {
+                        instr.numeric = numeric;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isNumeric(Instr instr) {
+        switch (instr.op) {
+            case CONST:
+                return instr.payload instanceof Double;
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+            case NEGATE:
+                // the result, if any
+                return true;
+            case ADD:
+                return instr.operands[0].numeric && instr.operands[1].numeric;
+            case PHI:
+                for (Instr operand : instr.operands) {
+                    if (!operand.numeric) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean canFail(Instr instr) {
+        switch (instr.op) {
+            case CONST:
+            case PHI:
+            case EQUAL:
+            case NOT_EQUAL:
+            case NOT:
+            case IS_FUNCTION:
+            case IS_CLASS:
+            case IS_VIRTUAL:
+                return false;
+            case NEGATE:
+                return !instr.operands[0].numeric;
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return !instr.operands[0].numeric || !instr.operands[1].numeric;
+            case DIVIDE:
+                return !instr.operands[0].numeric || !isNonZeroConstant(instr.operands[1]);
+            default:
+                return true;
+        }
+    }
+
+    static boolean isConstant(Instr instr, double value) {
+        return instr.op == Op.CONST && instr.payload instanceof Double
+                && Double.compare((double) instr.payload, value) == 0;
+    }
+
+    public static boolean isNonZeroConstant(Instr instr) {
+        return instr.op == Op.CONST && instr.payload instanceof Double && Double.compare((double) instr.payload, 0.0) != 0;
+    }
+}
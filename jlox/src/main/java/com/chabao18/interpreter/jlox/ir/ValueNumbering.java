@@ -0,0 +1,79 @@
+package com.chabao18.interpreter.jlox.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Global value numbering: a pure instruction of the same operation and operands as one that
+ * dominates it is that value, e.g. the second a * b of "(a * b) + (a * b)", or the one of a
+ * branch when the other was computed before the if. So is a phi of the same operands as
+ * another phi of its block.
+ * <p>
+ * Even an instruction that can fail can go: the one that dominates it ran first, and failed
+ * first if it had to.
+ */
+final class ValueNumbering {
+    private final Graph graph;
+    private final Map<Block, List<Block>> children = new IdentityHashMap<>();
+    // the value of every key on the path from the entry to the current block
+    private final Map<List<Object>, Instr> values = new HashMap<>();
+
+    private ValueNumbering(Graph graph) {
+        this.graph = graph;
+    }
+
+    static void run(Graph graph) {
+        ValueNumbering numbering = new ValueNumbering(graph);
+        for (Block block : graph.blocks) {
+            if (block.dominator != null) {
+                numbering.children.computeIfAbsent(block.dominator, b -> new ArrayList<>()).add(block);
+            }
+        }
+        numbering.visit(graph.entry);
+    }
+
+    private void visit(Block block) {
+        List<List<Object>> added = new ArrayList<>();
+        for (Instr instr : new ArrayList<>(block.instrs)) {
+            if (!instr.op.pure) {
+                continue;
+            }
+            List<Object> key = key(instr);
+            Instr value = values.get(key);
+            if (value == null) {
+                values.put(key, instr);
+                added.add(key);
+            } else {
+                block.instrs.remove(instr);
+                graph.replace(instr, value);
+            }
+        }
+        for (Block child : children.getOrDefault(block, List.of())) {
+            visit(child);
+        }
+        for (List<Object> key : added) {
+            values.remove(key);
+        }
+    }
+
+    private static List<Object> key(Instr instr) {
+        List<Object> key = new ArrayList<>();
+        key.add(instr.op);
+        if (instr.op == Op.CONST) {
+            // Double.equals() tells -0 from 0
+            key.add(instr.payload == null ? null : instr.payload.getClass());
+            key.add(instr.payload);
+        } else if (instr.op == Op.PHI) {
+            key.add(instr.block);
+        } else if (instr.op == Op.IS_FUNCTION || instr.op == Op.IS_CLASS) {
+            key.add(instr.payload);
+        }
+        for (Instr operand : instr.operands) {
+            key.add(operand);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,246 @@
+package com.chabao18.interpreter.jlox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a class file, only what the JitCompiler needs.
+ * <p>
+ * The class file version is 49 (Java 5): the JVM verifies it by type inference, so the writer
+ * doesn't have to compute StackMapTable frames.
+ */
+final class ClassWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    // constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    /**
+     * @param name internal names, e.g. "java/lang/Object"
+     */
+    ClassWriter(String name, String superName, String... interfaceNames) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * start a method, its code is written through the returned Code
+     */
+    Code method(int access, String name, String descriptor) {
+        Code code = new Code(this, access, utf8(name), utf8(descriptor), descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            // resolve the pool entries the methods need before the pool is written
+            List<byte[]> methodBytes = new ArrayList<>();
+            int codeAttribute = utf8("Code");
+            for (Code method : methods) {
+                methodBytes.add(method.toByteArray(codeAttribute));
+            }
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methodBytes) {
+                out.write(method);
+            }
+            // no class attributes
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // ------------------------------------------------------------------ constant pool
+
+    int utf8(String value) {
+        Integer index = poolIndices.get("U" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(CONSTANT_UTF8);
+            poolOut.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add("U" + value, 1);
+    }
+
+    int integer(int value) {
+        Integer index = poolIndices.get("I" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(CONSTANT_INTEGER);
+            poolOut.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add("I" + value, 1);
+    }
+
+    /**
+     * a double takes two entries of the pool
+     */
+    int doubleConstant(double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(CONSTANT_DOUBLE);
+            poolOut.writeDouble(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add(key, 2);
+    }
+
+    int classRef(String name) {
+        Integer index = poolIndices.get("C" + name);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = utf8(name);
+        write(CONSTANT_CLASS, nameIndex);
+        return add("C" + name, 1);
+    }
+
+    int string(String value) {
+        Integer index = poolIndices.get("S" + value);
+        if (index != null) {
+            return index;
+        }
+        int valueIndex = utf8(value);
+        write(CONSTANT_STRING, valueIndex);
+        return add("S" + value, 1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        int classIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        write(tag, classIndex, nameAndType);
+        return add(key, 1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + descriptor;
+        Integer index = poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        write(CONSTANT_NAME_AND_TYPE, nameIndex, descriptorIndex);
+        return add(key, 1);
+    }
+
+    private void write(int tag, int... indices) {
+        try {
+            poolOut.writeByte(tag);
+            for (int index : indices) {
+                poolOut.writeShort(index);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int add(String key, int size) {
+        int index = poolCount;
+        poolCount += size;
+        if (poolCount > 0xFFFF) {
+            throw new IllegalStateException("Too many constants.");
+        }
+        poolIndices.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,371 @@
+package com.chabao18.interpreter.jlox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The code of one method. It keeps track of the operand stack depth as instructions are added,
+ * so max_stack comes for free.
+ */
+final class Code {
+    // the opcodes in use
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP_X1 = 0x5a;
+    static final int SWAP = 0x5f;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+    /**
+     * a position in the code, jumped to before or after it is marked
+     */
+    static final class Label {
+        private int offset = -1;
+        // the stack depth at the label, -1 until a jump or the code reaches it
+        private int depth = -1;
+        // the jumps to patch once the label is marked: [instruction offset, operand offset]
+        private final List<int[]> jumps = new ArrayList<>();
+    }
+
+    private final ClassWriter writer;
+    private final int access;
+    private final int name;
+    private final int descriptor;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private int depth = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    Code(ClassWriter writer, int access, int name, int descriptor, String descriptorText) {
+        this.writer = writer;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxLocals = argumentSlots(descriptorText) + ((access & ClassWriter.ACC_STATIC) != 0 ? 0 : 1);
+    }
+
+    void useLocals(int count) {
+        maxLocals = Math.max(maxLocals, count);
+    }
+
+    // ------------------------------------------------------------------ instructions
+
+    void op(int opcode) {
+        switch (opcode) {
+            case ACONST_NULL:
+            case DUP:
+            case DUP_X1:
+                push(1);
+                break;
+            case SWAP:
+            case DNEG:
+                break;
+            case POP2:
+            case DADD:
+            case DSUB:
+            case DMUL:
+            case DDIV:
+                push(-2);
+                break;
+            case DCMPL:
+            case DCMPG:
+                push(-3);
+                break;
+            case POP:
+            case IXOR:
+            case ARETURN:
+                push(-1);
+                break;
+            case AALOAD:
+                push(-1);
+                break;
+            case AASTORE:
+                push(-3);
+                break;
+            case RETURN:
+                break;
+            default:
+                throw new IllegalArgumentException("opcode " + opcode);
+        }
+        bytes.write(opcode);
+        if (opcode == ARETURN || opcode == RETURN) {
+            unreachable();
+        }
+    }
+
+    void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            bytes.write(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            bytes.write(BIPUSH);
+            bytes.write(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            bytes.write(SIPUSH);
+            writeShort(value);
+        } else {
+            bytes.write(LDC_W);
+            writeShort(writer.integer(value));
+        }
+        push(1);
+    }
+
+    void aload(int local) {
+        local(ALOAD, local);
+        push(1);
+    }
+
+    void astore(int local) {
+        local(ASTORE, local);
+        push(-1);
+    }
+
+    /**
+     * a double takes the local and the one after it
+     */
+    void dload(int local) {
+        local(DLOAD, local);
+        useLocals(local + 2);
+        push(2);
+    }
+
+    void dstore(int local) {
+        local(DSTORE, local);
+        useLocals(local + 2);
+        push(-2);
+    }
+
+    void dconst(double value) {
+        bytes.write(LDC2_W);
+        writeShort(writer.doubleConstant(value));
+        push(2);
+    }
+
+    private void local(int opcode, int local) {
+        if (local > 0xFFFF) {
+            throw new IllegalStateException("Too many locals.");
+        }
+        if (local > 0xFF) {
+            bytes.write(WIDE);
+            bytes.write(opcode);
+            writeShort(local);
+        } else {
+            bytes.write(opcode);
+            bytes.write(local);
+        }
+        useLocals(local + 1);
+    }
+
+    /**
+     * push a constant of the pool, a String or a Class
+     */
+    void ldc(int index) {
+        bytes.write(LDC_W);
+        writeShort(index);
+        push(1);
+    }
+
+    void getstatic(String owner, String name, String descriptor) {
+        bytes.write(GETSTATIC);
+        writeShort(writer.fieldRef(owner, name, descriptor));
+        push(1);
+    }
+
+    void putstatic(String owner, String name, String descriptor) {
+        bytes.write(PUTSTATIC);
+        writeShort(writer.fieldRef(owner, name, descriptor));
+        push(-1);
+    }
+
+    void type(int opcode, String type) {
+        bytes.write(opcode);
+        writeShort(writer.classRef(type));
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+        bytes.write(opcode);
+        writeShort(writer.methodRef(owner, name, descriptor));
+        int delta = -argumentSlots(descriptor) + returnSlots(descriptor);
+        if (opcode != INVOKESTATIC) {
+            delta--;
+        }
+        push(delta);
+    }
+
+    // ------------------------------------------------------------------ jumps
+
+    /**
+     * a conditional jump pops an int, goto doesn't pop anything
+     */
+    void jump(int opcode, Label label) {
+        int start = bytes.size();
+        bytes.write(opcode);
+        if (opcode != GOTO) {
+            push(-1);
+        }
+        arrive(label);
+        if (label.offset != -1) {
+            writeShort(label.offset - start);
+        } else {
+            label.jumps.add(new int[]{start, bytes.size()});
+            writeShort(0);
+        }
+        if (opcode == GOTO) {
+            unreachable();
+        }
+    }
+
+    void mark(Label label) {
+        if (depth != -1) {
+            arrive(label);
+        }
+        depth = label.depth;
+        label.offset = bytes.size();
+    }
+
+    private void arrive(Label label) {
+        if (label.depth == -1) {
+            label.depth = depth;
+        } else if (label.depth != depth) {
+            throw new IllegalStateException("Inconsistent stack depth at a label.");
+        }
+    }
+
+    private void unreachable() {
+        depth = -1;
+    }
+
+    boolean isReachable() {
+        return depth != -1;
+    }
+
+    // ------------------------------------------------------------------ output
+
+    private void push(int delta) {
+        if (depth == -1) {
+            // dead code, e.g. after a return: start over from an empty stack
+            depth = 0;
+        }
+        depth += delta;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void writeShort(int value) {
+        bytes.write(value >> 8);
+        bytes.write(value);
+    }
+
+    byte[] toByteArray(int codeAttribute) throws IOException {
+        byte[] code = bytes.toByteArray();
+        if (code.length > Short.MAX_VALUE) {
+            throw new IllegalStateException("Method too large.");
+        }
+        patchJumps(code);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeShort(access);
+        data.writeShort(name);
+        data.writeShort(descriptor);
+        data.writeShort(1);
+        data.writeShort(codeAttribute);
+        data.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        data.writeShort(maxStack);
+        data.writeShort(maxLocals);
+        data.writeInt(code.length);
+        data.write(code);
+        // no exception table, no attributes
+        data.writeShort(0);
+        data.writeShort(0);
+        return out.toByteArray();
+    }
+
+    private List<Label> labels = new ArrayList<>();
+
+    Label newLabel() {
+        Label label = new Label();
+        labels.add(label);
+        return label;
+    }
+
+    private void patchJumps(byte[] code) {
+        for (Label label : labels) {
+            for (int[] jump : label.jumps) {
+                if (label.offset == -1) {
+                    throw new IllegalStateException("Jump to a label never marked.");
+                }
+                int offset = label.offset - jump[0];
+                code[jump[1]] = (byte) (offset >> 8);
+                code[jump[1] + 1] = (byte) offset;
+            }
+        }
+    }
+
+    private static int returnSlots(String descriptor) {
+        char type = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return type == 'V' ? 0 : type == 'D' || type == 'J' ? 2 : 1;
+    }
+
+    /**
+     * the number of local slots the arguments of a method descriptor take
+     */
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+            } else {
+                slots++;
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                i++;
+            }
+        }
+        return slots;
+    }
+}
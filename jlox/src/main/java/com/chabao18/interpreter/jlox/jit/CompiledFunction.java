@@ -0,0 +1,17 @@
+package com.chabao18.interpreter.jlox.jit;
+
+import com.chabao18.interpreter.jlox.core.Environment;
+import com.chabao18.interpreter.jlox.core.Interpreter;
+
+/**
+ * The body of a Lox function compiled to a JVM class by the JitCompiler.
+ */
+public interface CompiledFunction {
+    /**
+     * run the body, like Interpreter.executeBody()
+     *
+     * @param frame the environment of the call, with "this" and the arguments defined
+     * @return the value of the "return" that ended it, null if it ran to its end
+     */
+    Object invoke(Interpreter interpreter, Environment frame);
+}
@@ -0,0 +1,63 @@
+package com.chabao18.interpreter.jlox.jit;
+
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.ir.Graph;
+import com.chabao18.interpreter.jlox.ir.IrBuilder;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Counts the calls of every function, and compiles the body of a function to a JVM class once
+ * it is called often enough. A function that can't be compiled keeps running in the
+ * Interpreter, as does every function with -Djlox.jit.threshold=-1.
+ * <p>
+ * The count and the compiled code are kept on the declaration, so every closure of a function
+ * shares them.
+ */
+public final class Jit {
+    private static final int THRESHOLD = Integer.getInteger("jlox.jit.threshold", 1000);
+    // print the optimized IR of every function compiled to stderr
+    private static final boolean DUMP = Boolean.getBoolean("jlox.ir.dump");
+    // the compiled code of a function that can't be compiled
+    private static final Object FAILED = new Object();
+
+    private Jit() {
+    }
+
+    /**
+     * count a call of the function
+     *
+     * @return the compiled body, null while it runs in the Interpreter
+     */
+    public static CompiledFunction compiled(Stmt.Function function, boolean isMethod) {
+        Object compiled = function.compiled;
+        if (compiled instanceof CompiledFunction) {
+            return (CompiledFunction) compiled;
+        }
+        if (compiled == FAILED || THRESHOLD < 0 || function.calls++ < THRESHOLD) {
+            return null;
+        }
+
+        function.compiled = compile(function, isMethod);
+        return function.compiled == FAILED ? null : (CompiledFunction) function.compiled;
+    }
+
+    private static Object compile(Stmt.Function function, boolean isMethod) {
+        try {
+            Graph graph = IrBuilder.build(function, isMethod);
+            graph.optimize();
+            if (DUMP) {
+                System.err.print(graph.dump());
+            }
+            JitCompiler compiler = new JitCompiler();
+            byte[] bytes = compiler.compile(graph);
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(bytes, compiler.constants(), true);
+            return lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            // e.g. an IrBuilder.Unsupported, or a method too large for the class file
+            return FAILED;
+        }
+    }
+}
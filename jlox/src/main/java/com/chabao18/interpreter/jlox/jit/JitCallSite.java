@@ -0,0 +1,139 @@
+package com.chabao18.interpreter.jlox.jit;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.core.Environment;
+import com.chabao18.interpreter.jlox.core.Interpreter;
+import com.chabao18.interpreter.jlox.runtime.LoxCallable;
+import com.chabao18.interpreter.jlox.runtime.LoxClass;
+import com.chabao18.interpreter.jlox.runtime.LoxFunction;
+import com.chabao18.interpreter.jlox.runtime.LoxInstance;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+/**
+ * The call site of an Expr.Call in compiled code, like the LoxCallSite of the Interpreter but
+ * with the arguments evaluated by the caller.
+ * <p>
+ * The compiled class keeps the invoker of each site in a static final field, so the JVM
+ * treats it as a constant: a site that keeps calling the same callee becomes a guard and a
+ * direct call, inlined into the caller, and a relink deoptimizes the callers.
+ */
+final class JitCallSite extends MutableCallSite {
+    private static final int MAX_CALLEES = 4;
+
+    // (callee, receiver, arguments, interpreter, call) -> the value of the call
+    static final MethodType TYPE = MethodType.methodType(Object.class, Object.class, LoxInstance.class,
+            Object[].class, Interpreter.class, Expr.Call.class);
+
+    private static final MethodHandle RELINK;
+    private static final MethodHandle IS_SAME;
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle CONSTRUCT;
+    private static final MethodHandle CALL_NATIVE;
+    private static final MethodHandle CALL_GENERIC;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            RELINK = lookup.findVirtual(JitCallSite.class, "relink", TYPE);
+            IS_SAME = lookup.findStatic(JitCallSite.class, "isSame",
+                    MethodType.methodType(boolean.class, Object.class, Object.class));
+            INVOKE = lookup.findStatic(JitCallSite.class, "invoke", TYPE.insertParameterTypes(0, LoxFunction.class));
+            CONSTRUCT = lookup.findStatic(JitCallSite.class, "construct", TYPE.insertParameterTypes(0, LoxClass.class));
+            CALL_NATIVE = lookup.findStatic(JitCallSite.class, "callNative", TYPE.insertParameterTypes(0, LoxCallable.class));
+            CALL_GENERIC = lookup.findStatic(JitCallSite.class, "callGeneric", TYPE);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private int callees = 0;
+
+    JitCallSite() {
+        super(TYPE);
+        setTarget(RELINK.bindTo(this));
+    }
+
+    /**
+     * call a callee that isn't linked yet, and link it
+     */
+    private Object relink(Object callee, LoxInstance receiver, Object[] arguments, Interpreter interpreter,
+                          Expr.Call site) {
+        // the caller checked that the callee is callable, a wrong number of arguments isn't
+        // linked, the generic call reports it
+        if (((LoxCallable) callee).arity() != arguments.length) {
+            return callGeneric(callee, receiver, arguments, interpreter, site);
+        }
+        if (++callees > MAX_CALLEES) {
+            setTarget(CALL_GENERIC);
+            return callGeneric(callee, receiver, arguments, interpreter, site);
+        }
+
+        MethodHandle target;
+        if (callee instanceof LoxFunction) {
+            target = INVOKE.bindTo(callee);
+        } else if (callee instanceof LoxClass) {
+            target = CONSTRUCT.bindTo(callee);
+        } else {
+            target = CALL_NATIVE.bindTo(callee);
+        }
+        MethodHandle test = MethodHandles.insertArguments(IS_SAME, 0, callee);
+        setTarget(MethodHandles.guardWithTest(test, target, getTarget()));
+        return callGeneric(callee, receiver, arguments, interpreter, site);
+    }
+
+    private static boolean isSame(Object expected, Object callee) {
+        return callee == expected;
+    }
+
+    private static Object invoke(LoxFunction function, Object callee, LoxInstance receiver, Object[] arguments,
+                                 Interpreter interpreter, Expr.Call site) {
+        Environment environment = environment(function, receiver, arguments);
+        if (site.tail) {
+            // "return f(...);": the function that returns makes the call, see LoxFunction.execute()
+            return function.tailCall(environment);
+        }
+        return function.execute(interpreter, environment);
+    }
+
+    private static Object construct(LoxClass klass, Object callee, LoxInstance receiver, Object[] arguments,
+                                    Interpreter interpreter, Expr.Call site) {
+        LoxInstance instance = klass.instantiate();
+        LoxFunction initializer = klass.initializer();
+        if (initializer != null) {
+            initializer.execute(interpreter, environment(initializer, instance, arguments));
+        }
+        return instance;
+    }
+
+    private static Object callNative(LoxCallable function, Object callee, LoxInstance receiver, Object[] arguments,
+                                     Interpreter interpreter, Expr.Call site) {
+        return function.call(interpreter, Arrays.asList(arguments));
+    }
+
+    private static Object callGeneric(Object callee, LoxInstance receiver, Object[] arguments,
+                                      Interpreter interpreter, Expr.Call site) {
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(site.paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+        }
+        if (callee instanceof LoxFunction) {
+            return invoke((LoxFunction) callee, callee, receiver, arguments, interpreter, site);
+        }
+        return function.call(interpreter, Arrays.asList(arguments));
+    }
+
+    private static Environment environment(LoxFunction function, LoxInstance receiver, Object[] arguments) {
+        Environment environment = function.newEnvironment(receiver);
+        int slot = function.parameterSlot();
+        for (Object argument : arguments) {
+            environment.define(slot++, argument);
+        }
+        return environment;
+    }
+}
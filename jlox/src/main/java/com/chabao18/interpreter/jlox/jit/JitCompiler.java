@@ -0,0 +1,666 @@
+package com.chabao18.interpreter.jlox.jit;
+
+import com.chabao18.interpreter.jlox.ir.Block;
+import com.chabao18.interpreter.jlox.ir.Graph;
+import com.chabao18.interpreter.jlox.ir.Instr;
+import com.chabao18.interpreter.jlox.ir.Op;
+import com.chabao18.interpreter.jlox.ir.Types;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.chabao18.interpreter.jlox.jit.Code.*;
+
+/**
+ * Compiles the Graph of a Lox function to the invoke() method of a CompiledFunction.
+ * <p>
+ * Every value of the graph lives in a JVM local of its own, after slot 0 the CompiledFunction,
+ * 1 the Interpreter and 2 the Environment of the call. A value known to be a number is a
+ * double, boxed only where it is passed to something that takes any value, so the arithmetic
+ * on numbers is the JVM's. A phi has a second local, for the value its predecessors pass it:
+ * the block that jumps stores the operands of the phis there, and the phis load them where
+ * their block starts, so a phi that is the operand of another phi of the same block keeps its
+ * old value.
+ * <p>
+ * Everything the code needs that isn't a number (tokens, sites, constants) is passed as the
+ * class data of the class, the array K. The invoker of the JitCallSite of every call gets a
+ * static final field of its own, so the JVM can inline through it.
+ */
+final class JitCompiler {
+    static final String CLASS_NAME = "com/chabao18/interpreter/jlox/jit/Compiled";
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "com/chabao18/interpreter/jlox/jit/JitRuntime";
+    private static final String ENVIRONMENT = "com/chabao18/interpreter/jlox/core/Environment";
+    private static final String INTERPRETER = "com/chabao18/interpreter/jlox/core/Interpreter";
+    private static final String INSTANCE = "com/chabao18/interpreter/jlox/runtime/LoxInstance";
+    private static final String TOKEN = "Lcom/chabao18/interpreter/jlox/core/Token;";
+    private static final String GET = "Lcom/chabao18/interpreter/jlox/ast/Expr$Get;";
+    private static final String SET = "Lcom/chabao18/interpreter/jlox/ast/Expr$Set;";
+    private static final String CALL = "Lcom/chabao18/interpreter/jlox/ast/Expr$Call;";
+    private static final String FUNCTION = "Lcom/chabao18/interpreter/jlox/ast/Stmt$Function;";
+    private static final String MATERIALIZE = "Lcom/chabao18/interpreter/jlox/ast/Expr$Materialize;";
+    private static final String CONSTANTS = "[Ljava/lang/Object;";
+    private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String CALL_SITE_TYPE = "(Ljava/lang/Object;L" + INSTANCE + ";"
+            + "[Ljava/lang/Object;L" + INTERPRETER + ";" + CALL + ")Ljava/lang/Object;";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")";
+
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int FRAME_LOCAL = 2;
+    private static final int FIRST_VALUE_LOCAL = 3;
+
+    private final ClassWriter writer = new ClassWriter(CLASS_NAME, OBJECT, "com/chabao18/interpreter/jlox/jit/CompiledFunction");
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+    // the index in K of the invoker of every call site, the field of site i is "S" + i
+    private final List<Integer> sites = new ArrayList<>();
+    private final Map<Block, Label> labels = new IdentityHashMap<>();
+    private int[] uses;
+    // the JVM local of every value, and of the incoming value of every phi, by id
+    private int[] locals;
+    private int[] incomingLocals;
+    private Code code;
+
+    byte[] compile(Graph graph) {
+        this.uses = graph.uses();
+        allocateLocals(graph);
+
+        Code init = writer.method(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+        init.aload(0);
+        init.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        init.op(RETURN);
+
+        writer.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL, "K", CONSTANTS);
+
+        code = writer.method(ClassWriter.ACC_PUBLIC, "invoke",
+                "(L" + INTERPRETER + ";L" + ENVIRONMENT + ";)Ljava/lang/Object;");
+        List<Block> blocks = graph.blocks();
+        for (Block block : blocks) {
+            labels.put(block, code.newLabel());
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            block(blocks.get(i), i + 1 < blocks.size() ? blocks.get(i + 1) : null);
+        }
+
+        staticInitializer();
+        return writer.toByteArray();
+    }
+
+    /**
+     * load the class data into K, and the invokers of the call sites into their fields
+     */
+    private void staticInitializer() {
+        Code clinit = writer.method(ClassWriter.ACC_STATIC, "<clinit>", "()V");
+        clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        clinit.ldc(writer.string("_"));
+        clinit.ldc(writer.classRef(CONSTANTS));
+        clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+        clinit.type(CHECKCAST, CONSTANTS);
+        clinit.putstatic(CLASS_NAME, "K", CONSTANTS);
+        for (int i = 0; i < sites.size(); i++) {
+            writer.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL,
+                    "S" + i, "L" + METHOD_HANDLE + ";");
+            clinit.getstatic(CLASS_NAME, "K", CONSTANTS);
+            clinit.iconst(sites.get(i));
+            clinit.op(AALOAD);
+            clinit.type(CHECKCAST, METHOD_HANDLE);
+            clinit.putstatic(CLASS_NAME, "S" + i, "L" + METHOD_HANDLE + ";");
+        }
+        clinit.op(RETURN);
+    }
+
+    Object[] constants() {
+        return constants.toArray();
+    }
+
+    // ------------------------------------------------------------------ helpers
+
+    private void allocateLocals(Graph graph) {
+        locals = new int[graph.size()];
+        incomingLocals = new int[graph.size()];
+        int next = FIRST_VALUE_LOCAL;
+        for (Block block : graph.blocks()) {
+            for (Instr instr : block.instrs()) {
+                if (!instr.op.hasValue) {
+                    continue;
+                }
+                int size = instr.isNumeric() ? 2 : 1;
+                locals[instr.id()] = next;
+                next += size;
+                if (instr.op == Op.PHI) {
+                    incomingLocals[instr.id()] = next;
+                    next += size;
+                }
+            }
+        }
+    }
+
+    /**
+     * push a value as an Object
+     */
+    private void load(Instr value) {
+        if (value.isNumeric()) {
+            code.dload(locals[value.id()]);
+            code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        } else {
+            code.aload(locals[value.id()]);
+        }
+    }
+
+    /**
+     * push a value known to be a number as a double
+     */
+    private void loadNumber(Instr value) {
+        code.dload(locals[value.id()]);
+    }
+
+    private static boolean isNumeric(Instr instr) {
+        for (int i = 0; i < instr.operandCount(); i++) {
+            if (!instr.operand(i).isNumeric()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        code.getstatic(CLASS_NAME, "K", CONSTANTS);
+        code.iconst(index);
+        code.op(AALOAD);
+        return index;
+    }
+
+    private void constant(Object value, String type) {
+        constant(value);
+        code.type(CHECKCAST, type.substring(1, type.length() - 1));
+    }
+
+    private void runtime(String name, String descriptor) {
+        code.invoke(INVOKESTATIC, RUNTIME, name, descriptor);
+    }
+
+    private void unbox() {
+        code.type(CHECKCAST, "java/lang/Double");
+        code.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+    }
+
+    /**
+     * the jump of the opposite condition
+     */
+    private static int negate(int jump) {
+        switch (jump) {
+            case IFEQ:
+                return IFNE;
+            case IFNE:
+                return IFEQ;
+            case IFLT:
+                return IFGE;
+            case IFGE:
+                return IFLT;
+            case IFGT:
+                return IFLE;
+            case IFLE:
+                return IFGT;
+            default:
+                throw new IllegalArgumentException("jump " + jump);
+        }
+    }
+
+    /**
+     * whether an instruction is a comparison only its block's BRANCH uses, right before it:
+     * it leaves its int on the stack for the jump instead of a Boolean in a local
+     */
+    private boolean isFused(Instr instr) {
+        if (!isComparison(instr.op) || uses[instr.id()] != 1) {
+            return false;
+        }
+        List<Instr> instrs = instr.block().instrs();
+        Instr last = instrs.get(instrs.size() - 1);
+        return last.op == Op.BRANCH && last.operand(0) == instr && instrs.get(instrs.size() - 2) == instr;
+    }
+
+    private static boolean isComparison(Op op) {
+        switch (op) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case EQUAL:
+            case NOT_EQUAL:
+            case NOT:
+            case IS_FUNCTION:
+            case IS_CLASS:
+            case IS_VIRTUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ------------------------------------------------------------------ blocks
+
+    private void block(Block block, Block next) {
+        code.mark(labels.get(block));
+        for (Instr instr : block.instrs()) {
+            if (instr.op == Op.PHI) {
+                if (instr.isNumeric()) {
+                    code.dload(incomingLocals[instr.id()]);
+                    code.dstore(locals[instr.id()]);
+                } else {
+                    code.aload(incomingLocals[instr.id()]);
+                    code.astore(locals[instr.id()]);
+                }
+                continue;
+            }
+            if (instr.op.isTerminator()) {
+                terminator(block, instr, next);
+            } else if (!isFused(instr)) {
+                instruction(instr);
+            }
+        }
+    }
+
+    /**
+     * pass the operands of the phis of a successor
+     */
+    private void edge(Block from, Block to) {
+        int i = to.predecessors().indexOf(from);
+        for (Instr phi : to.instrs()) {
+            if (phi.op != Op.PHI) {
+                break;
+            }
+            if (phi.isNumeric()) {
+                loadNumber(phi.operand(i));
+                code.dstore(incomingLocals[phi.id()]);
+            } else {
+                load(phi.operand(i));
+                code.astore(incomingLocals[phi.id()]);
+            }
+        }
+    }
+
+    private static boolean hasPhis(Block block) {
+        return !block.instrs().isEmpty() && block.instrs().get(0).op == Op.PHI;
+    }
+
+    private void jump(Block from, Block to, Block next) {
+        edge(from, to);
+        if (to != next) {
+            code.jump(GOTO, labels.get(to));
+        }
+    }
+
+    private void terminator(Block block, Instr instr, Block next) {
+        switch (instr.op) {
+            case JUMP:
+                jump(block, block.successors().get(0), next);
+                return;
+            case RETURN:
+                // a call in tail position comes back as a TailCall, see LoxFunction.execute()
+                load(instr.operand(0));
+                code.op(ARETURN);
+                return;
+            case BRANCH:
+                break;
+            default:
+                throw new IllegalStateException("terminator " + instr.op);
+        }
+
+        int ifTrue = truthiness(instr.operand(0));
+        Block ifTruthy = block.successors().get(0);
+        Block ifFalsey = block.successors().get(1);
+        if (!hasPhis(ifTruthy)) {
+            code.jump(ifTrue, labels.get(ifTruthy));
+            jump(block, ifFalsey, next);
+        } else if (!hasPhis(ifFalsey)) {
+            code.jump(negate(ifTrue), labels.get(ifFalsey));
+            jump(block, ifTruthy, next);
+        } else {
+            Label falsey = code.newLabel();
+            code.jump(negate(ifTrue), falsey);
+            jump(block, ifTruthy, null);
+            code.mark(falsey);
+            jump(block, ifFalsey, next);
+        }
+    }
+
+    /**
+     * push an int for the truthiness of a value
+     *
+     * @return the jump taken when the value is truthy
+     */
+    private int truthiness(Instr value) {
+        if (isFused(value)) {
+            return condition(value);
+        }
+        if (value.isNumeric()) {
+            // only 0 is falsey, NaN isn't
+            loadNumber(value);
+            code.dconst(0.0);
+            code.op(DCMPL);
+            return IFNE;
+        }
+        load(value);
+        runtime("truthy", "(Ljava/lang/Object;)Z");
+        return IFNE;
+    }
+
+    // ------------------------------------------------------------------ instructions
+
+    /**
+     * evaluate a comparison, leaves an int on the stack
+     *
+     * @return the jump taken when the comparison holds
+     */
+    private int condition(Instr instr) {
+        String comparison;
+        switch (instr.op) {
+            case EQUAL:
+            case NOT_EQUAL:
+                if (isNumeric(instr)) {
+                    // Double.compare() is Double.equals(), -0 isn't 0 and NaN is NaN
+                    loadNumber(instr.operand(0));
+                    loadNumber(instr.operand(1));
+                    code.invoke(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I");
+                    return instr.op == Op.EQUAL ? IFEQ : IFNE;
+                }
+                load(instr.operand(0));
+                load(instr.operand(1));
+                runtime("equal", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                return instr.op == Op.EQUAL ? IFNE : IFEQ;
+            case NOT:
+                return negate(truthiness(instr.operand(0)));
+            case IS_FUNCTION:
+                load(instr.operand(0));
+                constant(instr.payload, FUNCTION);
+                runtime("isFunction", "(Ljava/lang/Object;" + FUNCTION + ")Z");
+                return IFNE;
+            case IS_CLASS:
+                load(instr.operand(0));
+                constant(instr.payload, FUNCTION);
+                runtime("isClass", "(Ljava/lang/Object;" + FUNCTION + ")Z");
+                return IFNE;
+            case IS_VIRTUAL:
+                load(instr.operand(0));
+                runtime("isVirtual", "(Ljava/lang/Object;)Z");
+                return IFNE;
+            case GREATER:
+                comparison = "greater";
+                break;
+            case GREATER_EQUAL:
+                comparison = "greaterEqual";
+                break;
+            case LESS:
+                comparison = "less";
+                break;
+            case LESS_EQUAL:
+                comparison = "lessEqual";
+                break;
+            default:
+                throw new IllegalStateException("comparison " + instr.op);
+        }
+        if (isNumeric(instr)) {
+            // a comparison with NaN is false: dcmpg gives 1 for "<", dcmpl -1 for ">"
+            loadNumber(instr.operand(0));
+            loadNumber(instr.operand(1));
+            switch (instr.op) {
+                case GREATER:
+                    code.op(DCMPL);
+                    return IFGT;
+                case GREATER_EQUAL:
+                    code.op(DCMPL);
+                    return IFGE;
+                case LESS:
+                    code.op(DCMPG);
+                    return IFLT;
+                default:
+                    code.op(DCMPG);
+                    return IFLE;
+            }
+        }
+        load(instr.operand(0));
+        load(instr.operand(1));
+        constant(instr.payload, TOKEN);
+        runtime(comparison, BINARY + "Z");
+        return IFNE;
+    }
+
+    /**
+     * leave the Boolean of a comparison on the stack
+     */
+    private void comparison(Instr instr) {
+        int ifTrue = condition(instr);
+        if (ifTrue == IFNE) {
+            code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            return;
+        }
+        Label isTrue = code.newLabel();
+        Label end = code.newLabel();
+        code.jump(ifTrue, isTrue);
+        code.getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+        code.jump(GOTO, end);
+        code.mark(isTrue);
+        code.getstatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+        code.mark(end);
+    }
+
+    /**
+     * +, -, * and /: the JVM's on two numbers, JitRuntime's otherwise
+     *
+     * @return whether the result is a double
+     */
+    private boolean arithmetic(Instr instr, String operation, int opcode) {
+        if (isNumeric(instr)) {
+            loadNumber(instr.operand(0));
+            loadNumber(instr.operand(1));
+            if (opcode == DDIV && !Types.isNonZeroConstant(instr.operand(1))) {
+                constant(instr.payload, TOKEN);
+                runtime("divide", "(DD" + TOKEN + ")D");
+            } else {
+                code.op(opcode);
+            }
+            return true;
+        }
+        load(instr.operand(0));
+        load(instr.operand(1));
+        constant(instr.payload, TOKEN);
+        runtime(operation, BINARY + "Ljava/lang/Object;");
+        return false;
+    }
+
+    private void instruction(Instr instr) {
+        // whether the value on the stack is a double
+        boolean isDouble = false;
+        switch (instr.op) {
+            case CONST:
+                if (instr.isNumeric()) {
+                    code.dconst((double) instr.payload);
+                    isDouble = true;
+                } else if (instr.payload == null) {
+                    code.op(ACONST_NULL);
+                } else {
+                    constant(instr.payload);
+                }
+                break;
+            case PARAM:
+                // "this" and the parameters come in the Environment of the call
+                code.aload(FRAME_LOCAL);
+                code.iconst(0);
+                code.iconst(instr.slot);
+                code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+                break;
+            case ADD:
+                isDouble = arithmetic(instr, "add", DADD);
+                break;
+            case SUBTRACT:
+                isDouble = arithmetic(instr, "subtract", DSUB);
+                break;
+            case MULTIPLY:
+                isDouble = arithmetic(instr, "multiply", DMUL);
+                break;
+            case DIVIDE:
+                isDouble = arithmetic(instr, "divide", DDIV);
+                break;
+            case NEGATE:
+                if (isNumeric(instr)) {
+                    loadNumber(instr.operand(0));
+                    code.op(DNEG);
+                    isDouble = true;
+                    break;
+                }
+                load(instr.operand(0));
+                constant(instr.payload, TOKEN);
+                runtime("negate", "(Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+                break;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case EQUAL:
+            case NOT_EQUAL:
+            case NOT:
+            case IS_FUNCTION:
+            case IS_CLASS:
+            case IS_VIRTUAL:
+                comparison(instr);
+                break;
+            case GET_GLOBAL:
+                constant(instr.payload, TOKEN);
+                code.aload(INTERPRETER_LOCAL);
+                runtime("getGlobal", "(" + TOKEN + "L" + INTERPRETER + ";)Ljava/lang/Object;");
+                break;
+            case SET_GLOBAL:
+                load(instr.operand(0));
+                constant(instr.payload, TOKEN);
+                code.aload(INTERPRETER_LOCAL);
+                runtime("assignGlobal", "(Ljava/lang/Object;" + TOKEN + "L" + INTERPRETER + ";)Ljava/lang/Object;");
+                code.op(POP);
+                return;
+            case GET_OUTER:
+                code.aload(FRAME_LOCAL);
+                code.iconst(instr.distance);
+                code.iconst(instr.slot);
+                code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+                break;
+            case SET_OUTER:
+                load(instr.operand(0));
+                code.aload(FRAME_LOCAL);
+                code.iconst(instr.distance);
+                code.iconst(instr.slot);
+                runtime("assignAt", "(Ljava/lang/Object;L" + ENVIRONMENT + ";II)Ljava/lang/Object;");
+                code.op(POP);
+                return;
+            case GET:
+                load(instr.operand(0));
+                constant(instr.payload, GET);
+                runtime("get", "(Ljava/lang/Object;" + GET + ")Ljava/lang/Object;");
+                break;
+            case CHECK_FIELDS:
+                load(instr.operand(0));
+                constant(instr.payload, SET);
+                runtime("checkFields", "(Ljava/lang/Object;" + SET + ")Ljava/lang/Object;");
+                break;
+            case SET:
+                load(instr.operand(0));
+                load(instr.operand(1));
+                constant(instr.payload, SET);
+                runtime("set", "(Ljava/lang/Object;Ljava/lang/Object;" + SET + ")Ljava/lang/Object;");
+                code.op(POP);
+                return;
+            case MATERIALIZE:
+                materialize(instr);
+                break;
+            case CHECK_CALLABLE:
+                load(instr.operand(0));
+                constant(instr.payload, TOKEN);
+                runtime("checkCallable", "(Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+                break;
+            case PROPERTY:
+                load(instr.operand(0));
+                constant(instr.payload, CALL);
+                runtime("property", "(Ljava/lang/Object;" + CALL + ")Ljava/lang/Object;");
+                break;
+            case RECEIVER:
+                load(instr.operand(0));
+                if (instr.operandCount() > 1) {
+                    load(instr.operand(1));
+                } else {
+                    code.op(ACONST_NULL);
+                }
+                runtime("receiver", "(Ljava/lang/Object;Ljava/lang/Object;)L" + INSTANCE + ";");
+                break;
+            case CALL:
+                call(instr);
+                break;
+            case PRINT:
+                load(instr.operand(0));
+                runtime("print", "(Ljava/lang/Object;)V");
+                return;
+            default:
+                throw new IllegalStateException("instruction " + instr.op);
+        }
+
+        if (instr.isNumeric() && !isDouble) {
+            // e.g. the difference of two values not known to be numbers
+            unbox();
+            isDouble = true;
+        }
+        if (uses[instr.id()] == 0) {
+            code.op(isDouble ? POP2 : POP);
+        } else if (isDouble) {
+            code.dstore(locals[instr.id()]);
+        } else {
+            code.astore(locals[instr.id()]);
+        }
+    }
+
+    private void materialize(Instr instr) {
+        load(instr.operand(0));
+        int count = instr.operandCount() - 1;
+        code.iconst(count);
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < count; i++) {
+            code.op(DUP);
+            code.iconst(i);
+            load(instr.operand(1 + i));
+            code.op(AASTORE);
+        }
+        constant(instr.payload, MATERIALIZE);
+        runtime("materialize", "(Ljava/lang/Object;[Ljava/lang/Object;" + MATERIALIZE + ")Ljava/lang/Object;");
+    }
+
+    private void call(Instr instr) {
+        // the invoker of the site goes first, it is the receiver of invokeExact()
+        code.getstatic(CLASS_NAME, "S" + sites.size(), "L" + METHOD_HANDLE + ";");
+        int index = constants.size();
+        constants.add(new JitCallSite().dynamicInvoker());
+        sites.add(index);
+
+        load(instr.operand(0));
+        load(instr.operand(1));
+        code.type(CHECKCAST, INSTANCE);
+        int count = instr.operandCount() - 2;
+        code.iconst(count);
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < count; i++) {
+            code.op(DUP);
+            code.iconst(i);
+            load(instr.operand(2 + i));
+            code.op(AASTORE);
+        }
+        code.aload(INTERPRETER_LOCAL);
+        constant(instr.payload, CALL);
+        code.invoke(INVOKEVIRTUAL, METHOD_HANDLE, "invokeExact", CALL_SITE_TYPE);
+    }
+}
@@ -0,0 +1,221 @@
+package com.chabao18.interpreter.jlox.jit;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Environment;
+import com.chabao18.interpreter.jlox.core.Interpreter;
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.core.TokenType;
+import com.chabao18.interpreter.jlox.runtime.LoxCallable;
+import com.chabao18.interpreter.jlox.runtime.LoxClass;
+import com.chabao18.interpreter.jlox.runtime.LoxFunction;
+import com.chabao18.interpreter.jlox.runtime.LoxInstance;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * What the compiled code calls for everything that is more than a few instructions. The
+ * operands come in evaluated, in the order the Interpreter evaluates them, and the errors are
+ * the ones the Interpreter reports.
+ */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    // ------------------------------------------------------------------ operators
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return (String) left + (String) right;
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        if (Double.compare((double) right, 0.0) == 0) {
+            throw new RuntimeError(operator, "Division by zero.");
+        }
+        return (double) left / (double) right;
+    }
+
+    /**
+     * the division of two numbers, which fails on a zero divisor
+     */
+    static double divide(double left, double right, Token operator) {
+        if (Double.compare(right, 0.0) == 0) {
+            throw new RuntimeError(operator, "Division by zero.");
+        }
+        return left / right;
+    }
+
+    static Object negate(Object right, Token operator) {
+        if (right instanceof Double) {
+            return -(double) right;
+        }
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static boolean greater(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    static boolean greaterEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    static boolean less(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    static boolean lessEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    static boolean truthy(Object object) {
+        return isTruthy(object);
+    }
+
+    static boolean equal(Object left, Object right) {
+        return isEqual(left, right);
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return;
+        }
+        if (operator.type == TokenType.PLUS) {
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    static void print(Object value) {
+        System.out.println(stringify(value));
+    }
+
+    // ------------------------------------------------------------------ variables
+
+    static Object getGlobal(Token name, Interpreter interpreter) {
+        return interpreter.getGlobal(name);
+    }
+
+    static Object assignGlobal(Object value, Token name, Interpreter interpreter) {
+        interpreter.assignGlobal(name, value);
+        return value;
+    }
+
+    static Object assignAt(Object value, Environment environment, int distance, int slot) {
+        environment.assignAt(distance, slot, value);
+        return value;
+    }
+
+    // ------------------------------------------------------------------ properties
+
+    static Object get(Object object, Expr.Get site) {
+        if (object instanceof LoxInstance) {
+            return ((LoxInstance) object).get(site);
+        }
+        throw new RuntimeError(site.name, "Only instances have properties.");
+    }
+
+    /**
+     * the object of "object.name = value", checked before the value is evaluated
+     */
+    static Object checkFields(Object object, Expr.Set site) {
+        if (object instanceof LoxInstance) {
+            return object;
+        }
+        throw new RuntimeError(site.name, "Only instances have fields.");
+    }
+
+    static Object set(Object object, Object value, Expr.Set site) {
+        ((LoxInstance) object).set(site, value);
+        return value;
+    }
+
+    /**
+     * whether a local holds an instance still in variables, see Expr.Allocate
+     */
+    static boolean isVirtual(Object object) {
+        return object == VIRTUAL;
+    }
+
+    /**
+     * the instance of an Expr.Allocate, from its class and the values of its fields
+     */
+    static Object materialize(Object klass, Object[] values, Expr.Materialize site) {
+        return ((LoxClass) klass).instantiate(site.fields, values);
+    }
+
+    // ------------------------------------------------------------------ calls
+
+    static Object checkCallable(Object callee, Token paren) {
+        if (callee instanceof LoxCallable) {
+            return callee;
+        }
+        throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    /**
+     * the check of an inlined call, see Expr.Inline
+     */
+    static boolean isFunction(Object callee, Stmt.Function declaration) {
+        return callee instanceof LoxFunction && ((LoxFunction) callee).isDeclaredBy(declaration);
+    }
+
+    /**
+     * the check of a replaced instance, see Expr.Allocate
+     */
+    static boolean isClass(Object callee, Stmt.Function initializer) {
+        return callee instanceof LoxClass && ((LoxClass) callee).isInitializedBy(initializer);
+    }
+
+    /**
+     * the callee of "object.name(...)": the method, not bound to the object, or the value of the field
+     */
+    static Object property(Object object, Expr.Call site) {
+        Expr.Get get = (Expr.Get) site.callee;
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        LoxFunction method = instance.getMethod(get);
+        if (method != null) {
+            return method;
+        }
+        return checkCallable(instance.get(get), site.paren);
+    }
+
+    /**
+     * the receiver of a call: the object of "object.method(...)", or the instance a function
+     * was bound to
+     */
+    static LoxInstance receiver(Object callee, Object object) {
+        if (callee instanceof LoxFunction) {
+            LoxInstance receiver = ((LoxFunction) callee).receiver();
+            if (receiver != null) {
+                return receiver;
+            }
+        }
+        return object instanceof LoxInstance ? (LoxInstance) object : null;
+    }
+}
@@ -0,0 +1,826 @@
+package com.chabao18.interpreter.jlox.node;
+
+import com.chabao18.interpreter.jlox.core.Environment;
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * An executable expression. Every node already knows its operator, its operands and where
+ * its variables live, so evaluating it is a plain virtual call, without visitor dispatch.
+ */
+abstract class ExprNode extends Node {
+    abstract Object evaluate(Environment environment);
+
+    /**
+     * evaluate as the condition of an "if", a "while" or a "!", nodes that produce a boolean
+     * override it to skip boxing the result
+     */
+    boolean evaluateCondition(Environment environment) {
+        return isTruthy(evaluate(environment));
+    }
+
+    /**
+     * replace this node in its parent, the replacement runs from the next evaluation on
+     */
+    final <T extends ExprNode> T replace(T replacement) {
+        parent.replaceChild(this, replacement);
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    static final class Literal extends ExprNode {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return value;
+        }
+    }
+
+    // ------------------------------------------------------------------ variables
+
+    static final class GetLocal extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        GetLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return environment.getAt(depth, slot);
+        }
+    }
+
+    static final class SetLocal extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private ExprNode value;
+
+        SetLocal(int depth, int slot, ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object value = this.value.evaluate(environment);
+            environment.assignAt(depth, slot, value);
+            return value;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static final class GetGlobal extends ExprNode {
+        private final GlobalCell cell;
+        private final Token name;
+
+        GetGlobal(GlobalCell cell, Token name) {
+            this.cell = cell;
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return cell.get(name);
+        }
+    }
+
+    static final class SetGlobal extends ExprNode {
+        private final GlobalCell cell;
+        private final Token name;
+        private ExprNode value;
+
+        SetGlobal(GlobalCell cell, Token name, ExprNode value) {
+            this.cell = cell;
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object value = this.value.evaluate(environment);
+            cell.assign(name, value);
+            return value;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    // ------------------------------------------------------------------ operators
+
+    /**
+     * a binary operator, the subclass is the operator
+     */
+    abstract static class Binary extends ExprNode {
+        ExprNode left;
+        final Token operator;
+        ExprNode right;
+
+        Binary(ExprNode left, Token operator, ExprNode right) {
+            this.left = adopt(left);
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        final void checkNumberOperands(Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return;
+            }
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+
+        @Override
+        final void replaceChild(ExprNode child, ExprNode replacement) {
+            if (left == child) {
+                left = replacement;
+            } else {
+                right = replacement;
+            }
+        }
+    }
+
+    /**
+     * A "+" that hasn't run yet. The first operands it sees decide which version of the
+     * operator it turns into: AddNumbers, AddStrings, or AddGeneric when they don't match.
+     */
+    static final class Add extends Binary {
+        Add(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            if (left instanceof Double && right instanceof Double) {
+                replace(new AddNumbers(this.left, operator, this.right));
+                return (double) left + (double) right;
+            }
+            if (left instanceof String && right instanceof String) {
+                replace(new AddStrings(this.left, operator, this.right));
+                return (String) left + (String) right;
+            }
+            // a type error, stay uninitialized
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+    }
+
+    /**
+     * a "+" that has only seen numbers
+     */
+    static final class AddNumbers extends Binary {
+        AddNumbers(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left + (double) right;
+            }
+            return replace(new AddGeneric(this.left, operator, this.right)).add(left, right);
+        }
+    }
+
+    /**
+     * a "+" that has only seen strings
+     */
+    static final class AddStrings extends Binary {
+        AddStrings(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            if (left instanceof String && right instanceof String) {
+                return (String) left + (String) right;
+            }
+            return replace(new AddGeneric(this.left, operator, this.right)).add(left, right);
+        }
+    }
+
+    /**
+     * a "+" that has seen both kinds of operands, it checks them every time
+     */
+    static final class AddGeneric extends Binary {
+        AddGeneric(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return add(left.evaluate(environment), right.evaluate(environment));
+        }
+
+        Object add(Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left + (double) right;
+            }
+            if (left instanceof String && right instanceof String) {
+                return (String) left + (String) right;
+            }
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+    }
+
+    static final class Subtract extends Binary {
+        Subtract(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            checkNumberOperands(left, right);
+            return (double) left - (double) right;
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            checkNumberOperands(left, right);
+            return (double) left * (double) right;
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            checkNumberOperands(left, right);
+            if (Double.compare((double) right, 0.0) == 0) {
+                throw new RuntimeError(operator, "Division by zero.");
+            }
+            return (double) left / (double) right;
+        }
+    }
+
+    static final class Greater extends Binary {
+        Greater(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return evaluateCondition(environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            checkNumberOperands(left, right);
+            return (double) left > (double) right;
+        }
+    }
+
+    static final class GreaterEqual extends Binary {
+        GreaterEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return evaluateCondition(environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            checkNumberOperands(left, right);
+            return (double) left >= (double) right;
+        }
+    }
+
+    static final class Less extends Binary {
+        Less(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return evaluateCondition(environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            checkNumberOperands(left, right);
+            return (double) left < (double) right;
+        }
+    }
+
+    static final class LessEqual extends Binary {
+        LessEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return evaluateCondition(environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            Object right = this.right.evaluate(environment);
+            checkNumberOperands(left, right);
+            return (double) left <= (double) right;
+        }
+    }
+
+    static final class Equal extends Binary {
+        Equal(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return evaluateCondition(environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Environment environment) {
+            return isEqual(left.evaluate(environment), right.evaluate(environment));
+        }
+    }
+
+    static final class NotEqual extends Binary {
+        NotEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return evaluateCondition(environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Environment environment) {
+            return !isEqual(left.evaluate(environment), right.evaluate(environment));
+        }
+    }
+
+    static final class Negate extends ExprNode {
+        private final Token operator;
+        private ExprNode right;
+
+        Negate(Token operator, ExprNode right) {
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object right = this.right.evaluate(environment);
+            if (right instanceof Double) {
+                return -(double) right;
+            }
+            throw new RuntimeError(operator, "Operand must be a number.");
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            right = replacement;
+        }
+    }
+
+    static final class Not extends ExprNode {
+        private ExprNode right;
+
+        Not(ExprNode right) {
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return evaluateCondition(environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Environment environment) {
+            return !right.evaluateCondition(environment);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            right = replacement;
+        }
+    }
+
+    static final class And extends ExprNode {
+        private ExprNode left;
+        private ExprNode right;
+
+        And(ExprNode left, ExprNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            if (!isTruthy(left)) {
+                return left;
+            }
+            return right.evaluate(environment);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (left == child) {
+                left = replacement;
+            } else {
+                right = replacement;
+            }
+        }
+    }
+
+    static final class Or extends ExprNode {
+        private ExprNode left;
+        private ExprNode right;
+
+        Or(ExprNode left, ExprNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object left = this.left.evaluate(environment);
+            if (isTruthy(left)) {
+                return left;
+            }
+            return right.evaluate(environment);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (left == child) {
+                left = replacement;
+            } else {
+                right = replacement;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------ calls and objects
+
+    static final class Call extends ExprNode {
+        private ExprNode callee;
+        private final Token paren;
+        private final ExprNode[] arguments;
+
+        Call(ExprNode callee, Token paren, ExprNode[] arguments) {
+            this.callee = adopt(callee);
+            this.paren = paren;
+            this.arguments = arguments;
+            for (ExprNode argument : arguments) {
+                adopt(argument);
+            }
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            return call(this.callee.evaluate(environment), environment);
+        }
+
+        /**
+         * the call with the callee already evaluated
+         */
+        Object call(Object callee, Environment environment) {
+            if (callee instanceof NodeFunction) {
+                NodeFunction function = (NodeFunction) callee;
+                NodeFunction.Template template = function.template;
+                if (template.arity == arguments.length) {
+                    // evaluate the arguments right into the slots of the parameters
+                    Environment frame = function.newEnvironment();
+                    int slot = function.parameterSlot();
+                    for (ExprNode argument : arguments) {
+                        frame.define(slot++, argument.evaluate(environment));
+                    }
+                    return function.invoke(frame);
+                }
+            } else if (!(callee instanceof NodeCallable)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].evaluate(environment);
+            }
+            NodeCallable function = (NodeCallable) callee;
+            if (values.length != function.arity()) {
+                throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + values.length + ".");
+            }
+            return function.call(values);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (callee == child) {
+                callee = replacement;
+                return;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child) {
+                    arguments[i] = replacement;
+                }
+            }
+        }
+    }
+
+    /**
+     * the body of a top-level function in place of a call, see Expr.Inline
+     */
+    static final class Inline extends ExprNode {
+        private ExprNode callee;
+        private final NodeFunction.Template template;
+        // the stores to the temporaries
+        private final ExprNode[] arguments;
+        private ExprNode body;
+        // when the global holds something else, its callee isn't evaluated
+        private final Call call;
+
+        Inline(ExprNode callee, NodeFunction.Template template, ExprNode[] arguments, ExprNode body, Call call) {
+            this.callee = adopt(callee);
+            this.template = template;
+            this.arguments = arguments;
+            for (ExprNode argument : arguments) {
+                adopt(argument);
+            }
+            this.body = adopt(body);
+            this.call = adopt(call);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object callee = this.callee.evaluate(environment);
+            if (!(callee instanceof NodeFunction) || ((NodeFunction) callee).template != template) {
+                return call.call(callee, environment);
+            }
+            for (ExprNode argument : arguments) {
+                argument.evaluate(environment);
+            }
+            return body.evaluate(environment);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (callee == child) {
+                callee = replacement;
+                return;
+            }
+            if (body == child) {
+                body = replacement;
+                return;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child) {
+                    arguments[i] = replacement;
+                }
+            }
+        }
+    }
+
+    static final class Get extends ExprNode {
+        private ExprNode object;
+        private final Token name;
+
+        Get(ExprNode object, Token name) {
+            this.object = adopt(object);
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object object = this.object.evaluate(environment);
+            if (object instanceof NodeInstance) {
+                return ((NodeInstance) object).get(name);
+            }
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            object = replacement;
+        }
+    }
+
+    static final class Set extends ExprNode {
+        private ExprNode object;
+        private final Token name;
+        private ExprNode value;
+
+        Set(ExprNode object, Token name, ExprNode value) {
+            this.object = adopt(object);
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object object = this.object.evaluate(environment);
+            if (!(object instanceof NodeInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+            Object value = this.value.evaluate(environment);
+            ((NodeInstance) object).set(name, value);
+            return value;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (object == child) {
+                object = replacement;
+            } else {
+                value = replacement;
+            }
+        }
+    }
+
+    /**
+     * the fields init would set in slots, in place of a new instance, see Expr.Allocate
+     */
+    static final class Allocate extends ExprNode {
+        private ExprNode callee;
+        private final NodeFunction.Template initializer;
+        // the stores to the temporaries and to the fields
+        private final ExprNode[] arguments;
+        private final ExprNode[] fields;
+        private final int base;
+        // when the global holds something else, its callee isn't evaluated
+        private final Call call;
+
+        Allocate(ExprNode callee, NodeFunction.Template initializer, ExprNode[] arguments, ExprNode[] fields,
+                 int base, Call call) {
+            this.callee = adopt(callee);
+            this.initializer = initializer;
+            this.arguments = arguments;
+            for (ExprNode argument : arguments) {
+                adopt(argument);
+            }
+            this.fields = fields;
+            for (ExprNode field : fields) {
+                adopt(field);
+            }
+            this.base = base;
+            this.call = adopt(call);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object callee = this.callee.evaluate(environment);
+            if (!(callee instanceof NodeClass) || ((NodeClass) callee).initializer == null
+                    || ((NodeClass) callee).initializer.template != initializer) {
+                return call.call(callee, environment);
+            }
+            for (ExprNode argument : arguments) {
+                argument.evaluate(environment);
+            }
+            for (ExprNode field : fields) {
+                field.evaluate(environment);
+            }
+            environment.define(base, callee);
+            return VIRTUAL;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (callee == child) {
+                callee = replacement;
+                return;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child) {
+                    arguments[i] = replacement;
+                }
+            }
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == child) {
+                    fields[i] = replacement;
+                }
+            }
+        }
+    }
+
+    /**
+     * "object.name" of an instance that may still be in slots, see Expr.GetField
+     */
+    static final class GetField extends ExprNode {
+        private final int depth;
+        private final int object;
+        private final int slot;
+        private final Get get;
+
+        GetField(int depth, int object, int slot, Get get) {
+            this.depth = depth;
+            this.object = object;
+            this.slot = slot;
+            this.get = adopt(get);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            if (environment.getAt(depth, object) != VIRTUAL) {
+                return get.evaluate(environment);
+            }
+            return environment.getAt(depth, slot);
+        }
+    }
+
+    /**
+     * "object.name = value" of an instance that may still be in slots, see Expr.SetField
+     */
+    static final class SetField extends ExprNode {
+        private final int depth;
+        private final int object;
+        private final int slot;
+        private final Set set;
+
+        SetField(int depth, int object, int slot, Set set) {
+            this.depth = depth;
+            this.object = object;
+            this.slot = slot;
+            this.set = adopt(set);
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            if (environment.getAt(depth, object) != VIRTUAL) {
+                return set.evaluate(environment);
+            }
+            // the value node is a child of the Set, it is the same node either way
+            Object value = set.value.evaluate(environment);
+            environment.assignAt(depth, slot, value);
+            return value;
+        }
+    }
+
+    /**
+     * a read of a local that may hold an instance still in slots, see Expr.Materialize
+     */
+    static final class Materialize extends ExprNode {
+        private final int depth;
+        private final int object;
+        private final Token[] fields;
+        private final int base;
+
+        Materialize(int depth, int object, Token[] fields, int base) {
+            this.depth = depth;
+            this.object = object;
+            this.fields = fields;
+            this.base = base;
+        }
+
+        @Override
+        Object evaluate(Environment environment) {
+            Object value = environment.getAt(depth, object);
+            if (value != VIRTUAL) {
+                return value;
+            }
+            NodeInstance instance = new NodeInstance((NodeClass) environment.getAt(depth, base));
+            for (int i = 0; i < fields.length; i++) {
+                instance.set(fields[i], environment.getAt(depth, base + 1 + i));
+            }
+            environment.assignAt(depth, object, instance);
+            return instance;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.chabao18.interpreter.jlox.node;
+
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+/**
+ * The storage of one global variable. Nodes that read or write a global are linked to its cell
+ * when they are compiled, so a global access never looks up the name.
+ */
+final class GlobalCell {
+    // marks a global that has been referenced but not defined (yet)
+    static final Object UNDEFINED = new Object();
+
+    Object value = UNDEFINED;
+
+    Object get(Token name) {
+        Object value = this.value;
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        return value;
+    }
+
+    void assign(Token name, Object value) {
+        if (this.value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        this.value = value;
+    }
+}
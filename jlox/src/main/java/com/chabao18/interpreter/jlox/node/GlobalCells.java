@@ -0,0 +1,66 @@
+package com.chabao18.interpreter.jlox.node;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cells of the globals by name, kept between runs. A cell that is only referenced, never
+ * defined, is held weakly once the program that linked it ran: the nodes that refer to it
+ * keep it, and it goes with them. The REPL compiles a program per line, a cell for every
+ * name a line ever mentioned would stay forever.
+ */
+final class GlobalCells {
+
+    private static final class Undefined extends WeakReference<GlobalCell> {
+        final String name;
+
+        Undefined(String name, GlobalCell cell, ReferenceQueue<GlobalCell> queue) {
+            super(cell, queue);
+            this.name = name;
+        }
+    }
+
+    private final Map<String, GlobalCell> cells = new HashMap<>();
+    private final Map<String, Undefined> undefined = new HashMap<>();
+    private final ReferenceQueue<GlobalCell> cleared = new ReferenceQueue<>();
+    // the names linked since the last release()
+    private final List<String> linked = new ArrayList<>();
+
+    GlobalCell cell(String name) {
+        GlobalCell cell = cells.get(name);
+        if (cell == null) {
+            // the nodes of an earlier program may still refer to it
+            Undefined reference = undefined.remove(name);
+            cell = reference == null ? null : reference.get();
+            if (cell == null) {
+                cell = new GlobalCell();
+            }
+            cells.put(name, cell);
+            linked.add(name);
+        }
+        return cell;
+    }
+
+    /**
+     * hold the cells linked since the last call weakly if nothing defined them
+     */
+    void release() {
+        for (Reference<? extends GlobalCell> reference = cleared.poll(); reference != null; reference = cleared.poll()) {
+            Undefined cell = (Undefined) reference;
+            undefined.remove(cell.name, cell);
+        }
+        for (String name : linked) {
+            GlobalCell cell = cells.get(name);
+            if (cell.value == GlobalCell.UNDEFINED) {
+                cells.remove(name);
+                undefined.put(name, new Undefined(name, cell, cleared));
+            }
+        }
+        linked.clear();
+    }
+}
@@ -0,0 +1,27 @@
+package com.chabao18.interpreter.jlox.node;
+
+/**
+ * The common part of expression and statement nodes: the link between a node and its parent,
+ * which lets an expression node replace itself with a more specialized version.
+ */
+abstract class Node {
+    // the node holding this one, null for a statement
+    Node parent;
+
+    /**
+     * take ownership of a child node, call it from the constructor for every child expression
+     */
+    final <T extends ExprNode> T adopt(T child) {
+        if (child != null) {
+            child.parent = this;
+        }
+        return child;
+    }
+
+    /**
+     * point the field that holds the child to its replacement
+     */
+    void replaceChild(ExprNode child, ExprNode replacement) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no replaceable child");
+    }
+}
@@ -0,0 +1,10 @@
+package com.chabao18.interpreter.jlox.node;
+
+/**
+ * Anything that can be called, the call node has a faster path for NodeFunction.
+ */
+interface NodeCallable {
+    int arity();
+
+    Object call(Object[] arguments);
+}
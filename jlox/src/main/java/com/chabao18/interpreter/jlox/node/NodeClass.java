@@ -0,0 +1,39 @@
+package com.chabao18.interpreter.jlox.node;
+
+import java.util.Map;
+
+final class NodeClass implements NodeCallable {
+    final String name;
+    private final Map<String, NodeFunction> methods;
+    // looked up once, every call of the class needs it
+    final NodeFunction initializer;
+
+    NodeClass(String name, Map<String, NodeFunction> methods) {
+        this.name = name;
+        this.methods = methods;
+        this.initializer = methods.get("init");
+    }
+
+    NodeFunction findMethod(String name) {
+        return methods.get(name);
+    }
+
+    @Override
+    public int arity() {
+        return initializer == null ? 0 : initializer.arity();
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        NodeInstance instance = new NodeInstance(this);
+        if (initializer != null) {
+            initializer.bind(instance).call(arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,272 @@
+package com.chabao18.interpreter.jlox.node;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the resolved AST into a tree of executable nodes. Everything that the interpreter
+ * decides again on every visit (the operator, local or global, the slot) is decided here once.
+ */
+final class NodeCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+    private final GlobalCells globals;
+    // an Inline may come before the declaration it checks the callee against
+    private final Map<Stmt.Function, NodeFunction.Template> templates = new IdentityHashMap<>();
+
+    NodeCompiler(GlobalCells globals) {
+        this.globals = globals;
+    }
+
+    StmtNode[] compile(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = statements.get(i).accept(this);
+        }
+        return nodes;
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private GlobalCell cell(Token name) {
+        return globals.cell(name.lexeme);
+    }
+
+    private NodeFunction.Template template(Stmt.Function stmt, boolean isInitializer, boolean isMethod) {
+        return templates.computeIfAbsent(stmt, key -> new NodeFunction.Template(
+                stmt.name.lexeme, stmt.params.size(), stmt.slotCount, isInitializer, isMethod));
+    }
+
+    private NodeFunction.Template function(Stmt.Function stmt, boolean isInitializer, boolean isMethod) {
+        NodeFunction.Template template = template(stmt, isInitializer, isMethod);
+        template.body = compile(stmt.body);
+        return template;
+    }
+
+    private ExprNode variable(Token name, int depth, int slot) {
+        if (depth == -1) {
+            return new ExprNode.GetGlobal(cell(name), name);
+        }
+        return new ExprNode.GetLocal(depth, slot);
+    }
+
+    @Override
+    public ExprNode visitAllocateExpr(Expr.Allocate expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        ExprNode[] fields = new ExprNode[expr.fields.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = compile(expr.fields.get(i));
+        }
+        ExprNode.Call call = (ExprNode.Call) visitCallExpr(expr.call);
+        return new ExprNode.Allocate(compile(expr.call.callee), template(expr.initializer, true, true),
+                arguments, fields, expr.base, call);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        if (expr.depth == -1) {
+            return new ExprNode.SetGlobal(cell(expr.name), expr.name, value);
+        }
+        return new ExprNode.SetLocal(expr.depth, expr.slot, value);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                return new ExprNode.Subtract(left, expr.operator, right);
+            case SLASH:
+                return new ExprNode.Divide(left, expr.operator, right);
+            case STAR:
+                return new ExprNode.Multiply(left, expr.operator, right);
+            case PLUS:
+                return new ExprNode.Add(left, expr.operator, right);
+            case GREATER:
+                return new ExprNode.Greater(left, expr.operator, right);
+            case GREATER_EQUAL:
+                return new ExprNode.GreaterEqual(left, expr.operator, right);
+            case LESS:
+                return new ExprNode.Less(left, expr.operator, right);
+            case LESS_EQUAL:
+                return new ExprNode.LessEqual(left, expr.operator, right);
+            case BANG_EQUAL:
+                return new ExprNode.NotEqual(left, expr.operator, right);
+            case EQUAL_EQUAL:
+                return new ExprNode.Equal(left, expr.operator, right);
+        }
+
+        // unreachable
+        return new ExprNode.Literal(null);
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        return new ExprNode.Call(compile(expr.callee), expr.paren, arguments);
+    }
+
+    @Override
+    public ExprNode visitInlineExpr(Expr.Inline expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        ExprNode.Call call = (ExprNode.Call) visitCallExpr(expr.call);
+        return new ExprNode.Inline(compile(expr.call.callee), template(expr.function, false, false),
+                arguments, compile(expr.body), call);
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        return new ExprNode.Get(compile(expr.object), expr.name);
+    }
+
+    @Override
+    public ExprNode visitGetFieldExpr(Expr.GetField expr) {
+        ExprNode.Get get = (ExprNode.Get) visitGetExpr(expr.get);
+        return new ExprNode.GetField(expr.object.depth, expr.object.slot, expr.slot, get);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        // the parentheses only matter to the parser
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        return new ExprNode.Literal(expr.value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        switch (expr.operator.type) {
+            case OR:
+                return new ExprNode.Or(left, right);
+            default:
+                return new ExprNode.And(left, right);
+        }
+    }
+
+    @Override
+    public ExprNode visitMaterializeExpr(Expr.Materialize expr) {
+        Token[] fields = expr.fields.toArray(new Token[0]);
+        return new ExprNode.Materialize(expr.object.depth, expr.object.slot, fields, expr.base);
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        return new ExprNode.Set(compile(expr.object), expr.name, compile(expr.value));
+    }
+
+    @Override
+    public ExprNode visitSetFieldExpr(Expr.SetField expr) {
+        ExprNode.Set set = (ExprNode.Set) visitSetExpr(expr.set);
+        return new ExprNode.SetField(expr.object.depth, expr.object.slot, expr.slot, set);
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return variable(expr.keyword, expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                return new ExprNode.Negate(expr.operator, right);
+            default:
+                return new ExprNode.Not(right);
+        }
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        return variable(expr.name, expr.depth, expr.slot);
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode[] statements = compile(stmt.statements);
+        // the Resolver didn't give a scope to a block that declares nothing
+        if (stmt.slotCount == 0) {
+            return new StmtNode.Sequence(statements);
+        }
+        return new StmtNode.Block(statements, stmt.slotCount);
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        Map<String, NodeFunction.Template> methods = new HashMap<>();
+        for (Stmt.Function method : stmt.methods) {
+            methods.put(method.name.lexeme, function(method, method.name.lexeme.equals("init"), true));
+        }
+        GlobalCell cell = stmt.slot == -1 ? cell(stmt.name) : null;
+        return new StmtNode.Class(stmt.name.lexeme, methods, stmt.slot, cell);
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new StmtNode.Expression(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        GlobalCell cell = stmt.slot == -1 ? cell(stmt.name) : null;
+        return new StmtNode.Function(function(stmt, false, false), stmt.slot, cell);
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        StmtNode elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        return new StmtNode.If(compile(stmt.condition), stmt.thenBranch.accept(this), elseBranch);
+    }
+
+    @Override
+    public StmtNode visitImportStmt(Stmt.Import stmt) {
+        // the module ran before the program
+        return new StmtNode.Sequence(new StmtNode[0]);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        return new StmtNode.Print(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        return new StmtNode.Return(compile(stmt.value));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode value = compile(stmt.initializer);
+        if (stmt.slot == -1) {
+            return new StmtNode.DefineGlobal(cell(stmt.name), value);
+        }
+        return new StmtNode.DefineLocal(stmt.slot, value);
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        return new StmtNode.While(compile(stmt.condition), stmt.body.accept(this));
+    }
+}
@@ -0,0 +1,57 @@
+package com.chabao18.interpreter.jlox.node;
+
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Environment;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import java.util.List;
+
+/**
+ * Runs a program by first compiling the resolved AST into a tree of nodes (see NodeCompiler),
+ * each node being a small object that evaluates itself.
+ * <p>
+ * Locals live in the same slot-indexed Environment as in the Interpreter, globals live in
+ * cells that the nodes are linked to at compile time.
+ */
+public class NodeEngine {
+    // kept between runs, so that the REPL sees the previous definitions
+    private final GlobalCells globals = new GlobalCells();
+
+    public NodeEngine() {
+        GlobalCell clock = globals.cell("clock");
+        clock.value = new NodeCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Object[] arguments) {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        };
+    }
+
+    /**
+     * compile the resolved statements, then run them
+     *
+     * @throws RuntimeError on a runtime error
+     */
+    public void interpret(List<Stmt> statements) {
+        try {
+            StmtNode[] program = new NodeCompiler(globals).compile(statements);
+            // the top level only touches globals, it doesn't need an environment
+            Environment environment = null;
+            for (StmtNode statement : program) {
+                statement.execute(environment);
+            }
+        } finally {
+            globals.release();
+        }
+    }
+}
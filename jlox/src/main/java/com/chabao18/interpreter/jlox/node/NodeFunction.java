@@ -0,0 +1,94 @@
+package com.chabao18.interpreter.jlox.node;
+
+import com.chabao18.interpreter.jlox.core.Environment;
+
+final class NodeFunction implements NodeCallable {
+    /**
+     * The compiled declaration, shared by every closure created from it.
+     */
+    static final class Template {
+        final String name;
+        final int arity;
+        final int slotCount;
+        final boolean isInitializer;
+        // "this" takes slot 0 of a method, before the parameters
+        final boolean isMethod;
+        StmtNode[] body;
+
+        Template(String name, int arity, int slotCount, boolean isInitializer, boolean isMethod) {
+            this.name = name;
+            this.arity = arity;
+            this.slotCount = slotCount;
+            this.isInitializer = isInitializer;
+            this.isMethod = isMethod;
+        }
+    }
+
+    final Template template;
+    final Environment closure;
+    // the instance a method is bound to
+    final NodeInstance receiver;
+
+    NodeFunction(Template template, Environment closure) {
+        this(template, closure, null);
+    }
+
+    private NodeFunction(Template template, Environment closure, NodeInstance receiver) {
+        this.template = template;
+        this.closure = closure;
+        this.receiver = receiver;
+    }
+
+    NodeFunction bind(NodeInstance instance) {
+        return new NodeFunction(template, closure, instance);
+    }
+
+    /**
+     * a new environment for a call, holding the receiver of a method, the arguments go to the
+     * slots from parameterSlot() on
+     */
+    Environment newEnvironment() {
+        Environment environment = new Environment(closure, template.slotCount);
+        if (template.isMethod) {
+            environment.define(0, receiver);
+        }
+        return environment;
+    }
+
+    int parameterSlot() {
+        return template.isMethod ? 1 : 0;
+    }
+
+    @Override
+    public int arity() {
+        return template.arity;
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        Environment environment = newEnvironment();
+        int slot = parameterSlot();
+        for (Object argument : arguments) {
+            environment.define(slot++, argument);
+        }
+        return invoke(environment);
+    }
+
+    /**
+     * run the body in an environment whose first slots already hold the arguments
+     */
+    Object invoke(Environment environment) {
+        for (StmtNode statement : template.body) {
+            Object result = statement.execute(environment);
+            if (result != StmtNode.NORMAL) {
+                return template.isInitializer ? environment.getAt(0, 0) : result;
+            }
+        }
+        return template.isInitializer ? environment.getAt(0, 0) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + template.name + ">";
+    }
+}
@@ -0,0 +1,272 @@
+package com.chabao18.interpreter.jlox.node;
+
+import com.chabao18.interpreter.jlox.core.Environment;
+
+import java.util.Map;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * An executable statement.
+ * <p>
+ * execute() returns NORMAL when the statement completes normally, anything else is the value
+ * of a "return", which every enclosing statement hands up to the function.
+ */
+abstract class StmtNode extends Node {
+    static final Object NORMAL = new Object();
+
+    abstract Object execute(Environment environment);
+
+    static Object executeAll(StmtNode[] statements, Environment environment) {
+        for (StmtNode statement : statements) {
+            Object result = statement.execute(environment);
+            if (result != NORMAL) {
+                return result;
+            }
+        }
+        return NORMAL;
+    }
+
+    static final class Expression extends StmtNode {
+        private ExprNode expression;
+
+        Expression(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            expression.evaluate(environment);
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = replacement;
+        }
+    }
+
+    static final class Print extends StmtNode {
+        private ExprNode expression;
+
+        Print(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            System.out.println(stringify(expression.evaluate(environment)));
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = replacement;
+        }
+    }
+
+    /**
+     * a block with its own scope
+     */
+    static final class Block extends StmtNode {
+        private final StmtNode[] statements;
+        private final int slotCount;
+
+        Block(StmtNode[] statements, int slotCount) {
+            this.statements = statements;
+            this.slotCount = slotCount;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeAll(statements, new Environment(environment, slotCount));
+        }
+    }
+
+    /**
+     * a block that declares nothing, it runs in the enclosing scope
+     */
+    static final class Sequence extends StmtNode {
+        private final StmtNode[] statements;
+
+        Sequence(StmtNode[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeAll(statements, environment);
+        }
+    }
+
+    static final class If extends StmtNode {
+        private ExprNode condition;
+        private final StmtNode thenBranch;
+        private final StmtNode elseBranch;
+
+        If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if (condition.evaluateCondition(environment)) {
+                return thenBranch.execute(environment);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(environment);
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            condition = replacement;
+        }
+    }
+
+    static final class While extends StmtNode {
+        private ExprNode condition;
+        private final StmtNode body;
+
+        While(ExprNode condition, StmtNode body) {
+            this.condition = adopt(condition);
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            while (condition.evaluateCondition(environment)) {
+                Object result = body.execute(environment);
+                if (result != NORMAL) {
+                    return result;
+                }
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            condition = replacement;
+        }
+    }
+
+    static final class Return extends StmtNode {
+        private ExprNode value;
+
+        Return(ExprNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value == null ? null : value.evaluate(environment);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static final class DefineLocal extends StmtNode {
+        private final int slot;
+        private ExprNode value;
+
+        DefineLocal(int slot, ExprNode value) {
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            environment.define(slot, value == null ? null : value.evaluate(environment));
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static final class DefineGlobal extends StmtNode {
+        private final GlobalCell cell;
+        private ExprNode value;
+
+        DefineGlobal(GlobalCell cell, ExprNode value) {
+            this.cell = cell;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            cell.value = value == null ? null : value.evaluate(environment);
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    /**
+     * create a closure, then define it like a variable
+     */
+    static final class Function extends StmtNode {
+        private final NodeFunction.Template template;
+        private final StmtNode define;
+        private final Closure closure;
+
+        Function(NodeFunction.Template template, int slot, GlobalCell cell) {
+            this.template = template;
+            this.closure = new Closure();
+            this.define = slot == -1 ? new DefineGlobal(cell, closure) : new DefineLocal(slot, closure);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return define.execute(environment);
+        }
+
+        private final class Closure extends ExprNode {
+            @Override
+            Object evaluate(Environment environment) {
+                return new NodeFunction(template, environment);
+            }
+        }
+    }
+
+    static final class Class extends StmtNode {
+        private final String name;
+        private final Map<String, NodeFunction.Template> methods;
+        private final StmtNode define;
+
+        Class(String name, Map<String, NodeFunction.Template> methods, int slot, GlobalCell cell) {
+            this.name = name;
+            this.methods = methods;
+            ExprNode klass = new ExprNode() {
+                @Override
+                Object evaluate(Environment environment) {
+                    return create(environment);
+                }
+            };
+            this.define = slot == -1 ? new DefineGlobal(cell, klass) : new DefineLocal(slot, klass);
+        }
+
+        private NodeClass create(Environment environment) {
+            Map<String, NodeFunction> functions = new java.util.HashMap<>();
+            for (Map.Entry<String, NodeFunction.Template> method : methods.entrySet()) {
+                functions.put(method.getKey(), new NodeFunction(method.getValue(), environment));
+            }
+            return new NodeClass(name, functions);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return define.execute(environment);
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.chabao18.interpreter.jlox.opt;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces the calls of small top-level functions, e.g. "square(x)" of
+ * "fun square(n) { return n * n; }", with an Expr.Inline: a copy of the body that runs where
+ * the call is, without an Environment, arguments or a Return of its own.
+ * <p>
+ * A function is inlined when its body is a single "return" of at most jlox.inline.size nodes
+ * (16 by default, 0 turns the inlining off) that doesn't refer to the function itself, and its
+ * name is declared once. The global may still be assigned something else at run time, so the
+ * Inline checks that the callee is the function it copied, and makes the call otherwise.
+ * <p>
+ * The copy only sees the globals and the parameters. A parameter becomes the argument itself
+ * when every argument is a literal, a local or "this", and the body neither calls nor assigns
+ * anything, so evaluating it there is evaluating it before the body. Otherwise every argument
+ * goes to a temporary, a new slot of the innermost scope around the call, in order, before
+ * the body runs. The calls of the copy aren't inlined again, which keeps the copies small and
+ * stops at recursion through other functions.
+ */
+final class Inliner {
+    private static final int SIZE = Integer.getInteger("jlox.inline.size", 16);
+
+    /**
+     * a function that can be inlined, and what its body does
+     */
+    private static final class Candidate {
+        final Stmt.Function function;
+        final Expr body;
+        boolean hasEffects;
+
+        Candidate(Stmt.Function function, Expr body) {
+            this.function = function;
+            this.body = body;
+        }
+    }
+
+    private final Map<String, Candidate> candidates = new HashMap<>();
+
+    /**
+     * @param statements the whole input: a name declared twice, or as a variable or a class
+     *                   too, isn't inlined
+     */
+    Inliner(List<Stmt> statements) {
+        if (SIZE <= 0) {
+            return;
+        }
+        Set<String> redeclared = redeclared(statements);
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function)) {
+                continue;
+            }
+            Stmt.Function function = (Stmt.Function) statement;
+            if (redeclared.contains(function.name.lexeme) || function.body.size() != 1
+                    || !(function.body.get(0) instanceof Stmt.Return)) {
+                continue;
+            }
+            Expr body = ((Stmt.Return) function.body.get(0)).value;
+            if (body == null) {
+                continue;
+            }
+            Scan scan = new Scan(function.name.lexeme);
+            scan.scan(body);
+            if (scan.size <= SIZE && !scan.isRecursive && !scan.hasTemporaries) {
+                Candidate candidate = new Candidate(function, body);
+                candidate.hasEffects = scan.hasEffects;
+                candidates.put(function.name.lexeme, candidate);
+            }
+        }
+    }
+
+    /**
+     * the names declared more than once at the top level, by "fun", "var" or "class"
+     */
+    static Set<String> redeclared(List<Stmt> statements) {
+        Set<String> declared = new HashSet<>();
+        Set<String> redeclared = new HashSet<>();
+        for (Stmt statement : statements) {
+            Token name = null;
+            if (statement instanceof Stmt.Function) {
+                name = ((Stmt.Function) statement).name;
+            } else if (statement instanceof Stmt.Var) {
+                name = ((Stmt.Var) statement).name;
+            } else if (statement instanceof Stmt.Class) {
+                name = ((Stmt.Class) statement).name;
+            }
+            if (name != null && !declared.add(name.lexeme)) {
+                redeclared.add(name.lexeme);
+            }
+        }
+        return redeclared;
+    }
+
+    /**
+     * whether the Inlines refer to the function: it must stay the same object, it is what they
+     * check the callee against
+     */
+    boolean isInlined(Stmt.Function function) {
+        Candidate candidate = candidates.get(function.name.lexeme);
+        return candidate != null && candidate.function == function;
+    }
+
+    /**
+     * @param scope the innermost scope around the call, null at the top level, where there is
+     *              none to hold the temporaries
+     * @return the Inline, or the call if it can't be inlined
+     */
+    Expr inline(Expr.Call call, Optimizer.Scope scope) {
+        if (!(call.callee instanceof Expr.Variable) || ((Expr.Variable) call.callee).depth != -1) {
+            return call;
+        }
+        Candidate candidate = candidates.get(((Expr.Variable) call.callee).name.lexeme);
+        if (candidate == null || candidate.function.params.size() != call.arguments.size()) {
+            return call;
+        }
+
+        List<Token> params = candidate.function.params;
+        Expr[] values = new Expr[params.size()];
+        int[] temporaries = null;
+        List<Expr> arguments = new ArrayList<>();
+        if (!candidate.hasEffects && isTrivial(call.arguments)) {
+            call.arguments.toArray(values);
+        } else if (scope != null) {
+            temporaries = new int[params.size()];
+            for (int i = 0; i < params.size(); i++) {
+                temporaries[i] = scope.slotCount++;
+                Expr.Assign assign = new Expr.Assign(params.get(i), call.arguments.get(i));
+                assign.depth = 0;
+                assign.slot = temporaries[i];
+                arguments.add(assign);
+                values[i] = local(params.get(i), temporaries[i]);
+            }
+        } else {
+            return call;
+        }
+        Expr body = candidate.body.accept(new Copy(values, temporaries));
+        return new Expr.Inline(call, candidate.function, arguments, body);
+    }
+
+    private static boolean isTrivial(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            boolean isLocal = argument instanceof Expr.Variable && ((Expr.Variable) argument).depth != -1;
+            if (!isLocal && !(argument instanceof Expr.Literal) && !(argument instanceof Expr.This)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Expr.Variable local(Token name, int slot) {
+        Expr.Variable variable = new Expr.Variable(name);
+        variable.depth = 0;
+        variable.slot = slot;
+        return variable;
+    }
+
+    /**
+     * measures a body: its size, whether it calls or assigns, whether it refers to the
+     * function, and whether it can be copied at all
+     */
+    static final class Scan implements Expr.Visitor<Void> {
+        private final String name;
+        int size;
+        boolean hasEffects;
+        boolean isRecursive;
+        boolean hasThis;
+        // an Inline or an object replaced by its fields: their temporaries are slots of the
+        // body's own scope
+        boolean hasTemporaries;
+
+        Scan(String name) {
+            this.name = name;
+        }
+
+        void scan(Expr expr) {
+            size++;
+            expr.accept(this);
+        }
+
+        @Override
+        public Void visitAllocateExpr(Expr.Allocate expr) {
+            hasTemporaries = true;
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            hasEffects = true;
+            isRecursive |= expr.depth == -1 && expr.name.lexeme.equals(name);
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            hasEffects = true;
+            scan(expr.callee);
+            for (Expr argument : expr.arguments) {
+                scan(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            scan(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGetFieldExpr(Expr.GetField expr) {
+            hasTemporaries = true;
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            hasTemporaries = true;
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitMaterializeExpr(Expr.Materialize expr) {
+            hasTemporaries = true;
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            scan(expr.object);
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSetFieldExpr(Expr.SetField expr) {
+            hasTemporaries = true;
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            hasThis = true;
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            isRecursive |= expr.depth == -1 && expr.name.lexeme.equals(name);
+            return null;
+        }
+    }
+
+    /**
+     * copies a body to a call: the parameters become the values, the assignments to them go
+     * to the temporaries, the globals stay. Both are indexed by the slots of the parameters.
+     */
+    static final class Copy implements Expr.Visitor<Expr> {
+        private final Expr[] values;
+        private final int[] temporaries;
+
+        Copy(Expr[] values, int[] temporaries) {
+            this.values = values;
+            this.temporaries = temporaries;
+        }
+
+        private Expr copy(Expr expr) {
+            return expr.accept(this);
+        }
+
+        @Override
+        public Expr visitAllocateExpr(Expr.Allocate expr) {
+            throw new IllegalStateException("allocate in a body");
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            Expr.Assign assign = new Expr.Assign(expr.name, copy(expr.value));
+            if (expr.depth != -1) {
+                // only with temporaries, see Scan.hasEffects
+                assign.depth = 0;
+                assign.slot = temporaries[expr.slot];
+            }
+            assign.numeric = expr.numeric;
+            return assign;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            Expr.Binary binary = new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+            binary.numeric = expr.numeric;
+            return binary;
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                arguments.add(copy(argument));
+            }
+            // not in tail position anymore, and a site of its own
+            Expr.Call call = new Expr.Call(copy(expr.callee), expr.paren, arguments);
+            call.numeric = expr.numeric;
+            return call;
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            Expr.Get get = new Expr.Get(copy(expr.object), expr.name);
+            get.numeric = expr.numeric;
+            return get;
+        }
+
+        @Override
+        public Expr visitGetFieldExpr(Expr.GetField expr) {
+            throw new IllegalStateException("field in a body");
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return copy(expr.expression);
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr) {
+            throw new IllegalStateException("inline in a body");
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            Expr.Logical logical = new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+            logical.numeric = expr.numeric;
+            return logical;
+        }
+
+        @Override
+        public Expr visitMaterializeExpr(Expr.Materialize expr) {
+            throw new IllegalStateException("materialize in a body");
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            Expr.Set set = new Expr.Set(copy(expr.object), expr.name, copy(expr.value));
+            set.numeric = expr.numeric;
+            return set;
+        }
+
+        @Override
+        public Expr visitSetFieldExpr(Expr.SetField expr) {
+            throw new IllegalStateException("field in a body");
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            Expr.Unary unary = new Expr.Unary(expr.operator, copy(expr.right));
+            unary.numeric = expr.numeric;
+            return unary;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            return expr.depth == -1 ? expr : values[expr.slot];
+        }
+    }
+}
@@ -0,0 +1,697 @@
+package com.chabao18.interpreter.jlox.opt;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.core.TokenType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * Rewrites the resolved AST before it runs. The tree goes through six passes:
+ * <ol>
+ * <li>FOLD: fold the operators with literal operands, drop the branches and loops whose
+ * condition is a constant, and the groupings</li>
+ * <li>COLLECT: find the locals that are read, and the globals that every top-level function
+ * refers to</li>
+ * <li>ELIMINATE: drop the stores to locals that are never read, and, for a whole program, the
+ * top-level functions nothing refers to</li>
+ * <li>INLINE: replace the calls of the small top-level functions with their bodies, see
+ * Inliner</li>
+ * <li>ESCAPE: find the locals that hold a new instance, and how they are used</li>
+ * <li>SCALARIZE: keep the fields of those instances in slots until they escape, see
+ * ScalarReplacement</li>
+ * </ol>
+ * Nothing that can fail at run time is folded, e.g. "1 / 0" or "-nil", so the errors are still
+ * reported when (and if) the code runs. The slots the Resolver assigned don't change: a
+ * declaration that is dropped leaves its slot unused, and the temporaries of the inlined calls
+ * and of the replaced instances take new slots after the last one of their scope.
+ */
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private enum Pass {
+        FOLD,
+        COLLECT,
+        ELIMINATE,
+        INLINE,
+        ESCAPE,
+        SCALARIZE
+    }
+
+    /**
+     * a scope being visited
+     */
+    static final class Scope {
+        // INLINE and SCALARIZE add slots
+        int slotCount;
+        // the number of functions around the scope, its own included
+        private final int function;
+        // the locals that hold a new instance, by slot, see ScalarReplacement
+        private final Map<Integer, ScalarReplacement.Candidate> objects = new HashMap<>();
+
+        private Scope(int slotCount, int function) {
+            this.slotCount = slotCount;
+            this.function = function;
+        }
+    }
+
+    // the whole program is known, no later input can refer to a top-level function
+    private final boolean wholeProgram;
+    private Pass pass;
+
+    // the scopes the Resolver created, in the order they are visited: which of their slots are read
+    private final List<boolean[]> scopes = new ArrayList<>();
+    private final Deque<boolean[]> currentScopes = new ArrayDeque<>();
+    private int nextScope;
+    // the same scopes, see Scope
+    private final Deque<Scope> frames = new ArrayDeque<>();
+    private int functionDepth;
+
+    // the globals referred to by every top-level function, the rest of the program under null
+    private final Map<String, Set<String>> references = new HashMap<>();
+    private String currentFunction = null;
+
+    private Inliner inliner;
+    private ScalarReplacement scalars;
+
+    public Optimizer(boolean wholeProgram) {
+        this.wholeProgram = wholeProgram;
+    }
+
+    public List<Stmt> optimize(List<Stmt> statements) {
+        pass = Pass.FOLD;
+        statements = run(statements);
+
+        // the two passes must visit the same scopes in the same order: only FOLD drops code
+        // that contains scopes, the functions are shaken off once the stores are eliminated
+        pass = Pass.COLLECT;
+        run(statements);
+
+        pass = Pass.ELIMINATE;
+        statements = run(statements);
+        if (wholeProgram) {
+            statements = shake(statements);
+        }
+
+        pass = Pass.INLINE;
+        inliner = new Inliner(statements);
+        statements = run(statements);
+
+        // the same scopes again, ESCAPE changes nothing
+        pass = Pass.ESCAPE;
+        scalars = new ScalarReplacement(statements);
+        statements = run(statements);
+
+        pass = Pass.SCALARIZE;
+        return run(statements);
+    }
+
+    private List<Stmt> run(List<Stmt> statements) {
+        nextScope = 0;
+        return optimizeAll(statements);
+    }
+
+    // ------------------------------------------------------------------ helpers
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt optimized = optimize(statement);
+            if (!isEmpty(optimized)) {
+                result.add(optimized);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * the statement that does nothing, in place of a statement that is dropped
+     */
+    private static Stmt empty() {
+        return new Stmt.Block(new ArrayList<>());
+    }
+
+    private static boolean isEmpty(Stmt stmt) {
+        return stmt == null || (stmt instanceof Stmt.Block && ((Stmt.Block) stmt).statements.isEmpty());
+    }
+
+    private static boolean isConstant(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object valueOf(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    private static Expr.Literal literal(Object value) {
+        Expr.Literal literal = new Expr.Literal(value);
+        literal.numeric = value instanceof Double;
+        return literal;
+    }
+
+    /**
+     * an expression that can be dropped when its value isn't used
+     */
+    private static boolean isPure(Expr expr) {
+        if (expr instanceof Expr.Variable) {
+            // reading a global fails if it isn't defined
+            return ((Expr.Variable) expr).depth != -1;
+        }
+        return expr instanceof Expr.Literal || expr instanceof Expr.This;
+    }
+
+    private void beginScope(int slotCount) {
+        frames.push(new Scope(slotCount, functionDepth));
+        if (pass == Pass.ELIMINATE) {
+            currentScopes.push(scopes.get(nextScope++));
+            return;
+        }
+        boolean[] scope = new boolean[slotCount];
+        if (pass == Pass.COLLECT) {
+            scopes.add(scope);
+        }
+        currentScopes.push(scope);
+    }
+
+    /**
+     * @return the slot count of the scope, with the slots INLINE added
+     */
+    private int endScope() {
+        currentScopes.pop();
+        return frames.pop().slotCount;
+    }
+
+    /**
+     * the instance a local holds, null if it isn't one ScalarReplacement tracks
+     */
+    private ScalarReplacement.Candidate object(int depth, int slot) {
+        if (depth == -1 || (pass != Pass.ESCAPE && pass != Pass.SCALARIZE)) {
+            return null;
+        }
+        int i = 0;
+        for (Scope scope : frames) {
+            if (i++ == depth) {
+                ScalarReplacement.Candidate candidate = scope.objects.get(slot);
+                if (candidate != null && scope.function != functionDepth) {
+                    // a nested function that refers to it would see VIRTUAL
+                    candidate.isCaptured = true;
+                }
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * whether the local a store goes to is ever read, always true until the reads are collected
+     */
+    private boolean isRead(int depth, int slot) {
+        if (pass != Pass.ELIMINATE) {
+            return true;
+        }
+        int i = 0;
+        for (boolean[] scope : currentScopes) {
+            if (i++ == depth) {
+                return scope[slot];
+            }
+        }
+        return true;
+    }
+
+    private void reference(String name) {
+        if (pass == Pass.COLLECT) {
+            references.computeIfAbsent(currentFunction, key -> new HashSet<>()).add(name);
+        }
+    }
+
+    /**
+     * drop the top-level functions that can't be reached from the rest of the program
+     */
+    private List<Stmt> shake(List<Stmt> statements) {
+        Set<String> reachable = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(references.getOrDefault(null, new HashSet<>()));
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (reachable.add(name)) {
+                pending.addAll(references.getOrDefault(name, new HashSet<>()));
+            }
+        }
+
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function && !reachable.contains(((Stmt.Function) statement).name.lexeme)) {
+                continue;
+            }
+            result.add(statement);
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------ expressions
+
+    @Override
+    public Expr visitAllocateExpr(Expr.Allocate expr) {
+        // only SCALARIZE creates them, and it doesn't visit them again
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        // an assignment doesn't let the instance escape, but it replaces it
+        ScalarReplacement.Candidate candidate = object(expr.depth, expr.slot);
+        if (candidate != null) {
+            candidate.references++;
+        }
+        if (expr.depth == -1) {
+            reference(expr.name.lexeme);
+        } else if (!isRead(expr.depth, expr.slot)) {
+            // a dead store, only its value is left
+            return value;
+        }
+        if (value == expr.value) {
+            return expr;
+        }
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.numeric = expr.numeric;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (isConstant(left) && isConstant(right)) {
+            Object folded = fold(expr.operator.type, valueOf(left), valueOf(right));
+            if (folded != null) {
+                return literal(folded);
+            }
+        }
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        Expr.Binary binary = new Expr.Binary(left, expr.operator, right);
+        binary.numeric = expr.numeric;
+        return binary;
+    }
+
+    /**
+     * @return null if the operation fails at run time, it is left to report the error then
+     */
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case BANG_EQUAL:
+                return !isEqual(left, right);
+            case EQUAL_EQUAL:
+                return isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return (String) left + (String) right;
+                }
+                break;
+        }
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            return null;
+        }
+
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator) {
+            case PLUS:
+                return a + b;
+            case MINUS:
+                return a - b;
+            case STAR:
+                return a * b;
+            case SLASH:
+                return Double.compare(b, 0.0) == 0 ? null : a / b;
+            case GREATER:
+                return a > b;
+            case GREATER_EQUAL:
+                return a >= b;
+            case LESS:
+                return a < b;
+            case LESS_EQUAL:
+                return a <= b;
+        }
+        return null;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        boolean changed = callee != expr.callee;
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+        Expr.Call call = expr;
+        if (changed) {
+            call = new Expr.Call(callee, expr.paren, arguments);
+            call.tail = expr.tail;
+            call.numeric = expr.numeric;
+        }
+        return pass == Pass.INLINE ? inliner.inline(call, frames.peek()) : call;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        ScalarReplacement.Candidate candidate = field(expr.object, expr.name);
+        if (candidate != null) {
+            if (pass == Pass.ESCAPE) {
+                candidate.uses++;
+                return expr;
+            }
+            Expr.Variable variable = (Expr.Variable) expr.object;
+            return new Expr.GetField(variable, expr, candidate.fieldSlot(expr.name.lexeme));
+        }
+        Expr object = optimize(expr.object);
+        if (object == expr.object) {
+            return expr;
+        }
+        Expr.Get get = new Expr.Get(object, expr.name);
+        get.numeric = expr.numeric;
+        return get;
+    }
+
+    /**
+     * the instance of "object.name" when object is a local that holds one and init sets the
+     * field, null otherwise
+     */
+    private ScalarReplacement.Candidate field(Expr object, Token name) {
+        if (!(object instanceof Expr.Variable)) {
+            return null;
+        }
+        Expr.Variable variable = (Expr.Variable) object;
+        ScalarReplacement.Candidate candidate = object(variable.depth, variable.slot);
+        return candidate != null && candidate.isField(name.lexeme) ? candidate : null;
+    }
+
+    @Override
+    public Expr visitGetFieldExpr(Expr.GetField expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // the parentheses only matter to the parser
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        // INLINE creates them, and doesn't visit them again
+        if (pass == Pass.INLINE) {
+            return expr;
+        }
+        Expr.Call call = (Expr.Call) optimize(expr.call);
+        boolean changed = call != expr.call;
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+        Expr body = optimize(expr.body);
+        if (!changed && body == expr.body) {
+            return expr;
+        }
+        return new Expr.Inline(call, expr.function, arguments, body);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        if (pass == Pass.FOLD && isConstant(left)) {
+            // the left operand decides, or the value is the right operand
+            boolean decides = isTruthy(valueOf(left)) == (expr.operator.type == TokenType.OR);
+            return decides ? left : optimize(expr.right);
+        }
+        Expr right = optimize(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        Expr.Logical logical = new Expr.Logical(left, expr.operator, right);
+        logical.numeric = expr.numeric;
+        return logical;
+    }
+
+    @Override
+    public Expr visitMaterializeExpr(Expr.Materialize expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        // the same order as the Resolver
+        ScalarReplacement.Candidate candidate = field(expr.object, expr.name);
+        int before = candidate == null ? 0 : candidate.references;
+        Expr value = optimize(expr.value);
+        // a value that refers to the local may let the instance escape, or replace it, before
+        // the field is set
+        if (candidate != null && candidate.references == before) {
+            if (pass == Pass.ESCAPE) {
+                candidate.uses++;
+                return expr;
+            }
+            Expr.Set set = expr;
+            if (value != expr.value) {
+                set = new Expr.Set(expr.object, expr.name, value);
+                set.numeric = expr.numeric;
+            }
+            Expr.Variable variable = (Expr.Variable) expr.object;
+            return new Expr.SetField(variable, set, candidate.fieldSlot(expr.name.lexeme));
+        }
+        Expr object = optimize(expr.object);
+        if (value == expr.value && object == expr.object) {
+            return expr;
+        }
+        Expr.Set set = new Expr.Set(object, expr.name, value);
+        set.numeric = expr.numeric;
+        return set;
+    }
+
+    @Override
+    public Expr visitSetFieldExpr(Expr.SetField expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (isConstant(right)) {
+            Object value = valueOf(right);
+            if (expr.operator.type == TokenType.BANG) {
+                return literal(!isTruthy(value));
+            }
+            if (value instanceof Double) {
+                return literal(-(double) value);
+            }
+        }
+        if (right == expr.right) {
+            return expr;
+        }
+        Expr.Unary unary = new Expr.Unary(expr.operator, right);
+        unary.numeric = expr.numeric;
+        return unary;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        ScalarReplacement.Candidate candidate = object(expr.depth, expr.slot);
+        if (candidate != null) {
+            candidate.references++;
+        }
+        if (candidate != null && pass == Pass.SCALARIZE) {
+            // the instance escapes
+            return candidate.materialize(expr);
+        }
+        if (expr.depth == -1) {
+            reference(expr.name.lexeme);
+        } else if (pass == Pass.COLLECT) {
+            int i = 0;
+            for (boolean[] scope : currentScopes) {
+                if (i++ == expr.depth) {
+                    scope[expr.slot] = true;
+                    break;
+                }
+            }
+        }
+        return expr;
+    }
+
+    // ------------------------------------------------------------------ statements
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        // the Resolver didn't give a scope to a block that declares nothing
+        if (stmt.slotCount == 0) {
+            return new Stmt.Block(optimizeAll(stmt.statements));
+        }
+
+        beginScope(stmt.slotCount);
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        int slotCount = endScope();
+        Stmt.Block block = new Stmt.Block(statements);
+        block.slotCount = slotCount;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            methods.add(function(method, false));
+        }
+        if (methods.equals(stmt.methods)) {
+            return stmt;
+        }
+        Stmt.Class klass = new Stmt.Class(stmt.name, methods);
+        klass.slot = stmt.slot;
+        return klass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (isPure(expression)) {
+            return empty();
+        }
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return function(stmt, currentScopes.isEmpty());
+    }
+
+    private Stmt.Function function(Stmt.Function stmt, boolean topLevel) {
+        if (pass == Pass.INLINE && topLevel && inliner.isInlined(stmt)) {
+            return stmt;
+        }
+        // the references of a top-level function are its own, see shake()
+        String enclosingFunction = currentFunction;
+        if (topLevel) {
+            currentFunction = stmt.name.lexeme;
+        }
+        functionDepth++;
+        beginScope(stmt.slotCount);
+        List<Stmt> body = optimizeAll(stmt.body);
+        int slotCount = endScope();
+        functionDepth--;
+        currentFunction = enclosingFunction;
+
+        // the same function, e.g. the init an Allocate checks the class against
+        if (body.equals(stmt.body) && slotCount == stmt.slotCount) {
+            return stmt;
+        }
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+        function.slot = stmt.slot;
+        function.slotCount = slotCount;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (pass == Pass.FOLD && isConstant(condition)) {
+            // only the branch that runs is left
+            Stmt branch = isTruthy(valueOf(condition)) ? stmt.thenBranch : stmt.elseBranch;
+            Stmt optimized = optimize(branch);
+            return optimized == null ? empty() : optimized;
+        }
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch);
+        if (isEmpty(elseBranch)) {
+            elseBranch = null;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = optimize(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = optimize(stmt.initializer);
+        ScalarReplacement.Candidate candidate = null;
+        if (pass == Pass.ESCAPE) {
+            candidate = scalars.declare(stmt);
+        } else if (pass == Pass.SCALARIZE) {
+            candidate = scalars.replaced(stmt);
+            if (candidate != null) {
+                initializer = scalars.allocate(candidate, (Expr.Call) initializer, frames.peek());
+            }
+        }
+        if (candidate != null) {
+            // the local is declared after its initializer
+            frames.peek().objects.put(stmt.slot, candidate);
+        }
+        if (stmt.slot != -1 && !isRead(0, stmt.slot)) {
+            // a local nothing reads, only the side effects of the initializer are left
+            if (initializer == null || isPure(initializer)) {
+                return empty();
+            }
+            return new Stmt.Expression(initializer);
+        }
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (pass == Pass.FOLD && isConstant(condition) && !isTruthy(valueOf(condition))) {
+            return empty();
+        }
+        return new Stmt.While(condition, optimize(stmt.body));
+    }
+}
@@ -0,0 +1,217 @@
+package com.chabao18.interpreter.jlox.opt;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the fields of a new instance in slots for as long as the instance doesn't leave the
+ * local it was stored in, e.g. the Point of "var p = Point(x, y); sum = sum + p.x;": neither
+ * the instance nor its values are allocated, and "p.x" reads a slot.
+ * <p>
+ * The instances are the ones of a top-level class declared once whose init only sets fields,
+ * "this.name = value;" with values that don't refer to "this", stored by a "var" in a local
+ * that no nested function refers to. ESCAPE finds them and counts the uses of their fields,
+ * SCALARIZE replaces:
+ * <ul>
+ * <li>the initializer of the "var" with an Allocate: the fields init would set go to new slots
+ * of the scope of the local, and the local holds Values.VIRTUAL</li>
+ * <li>"p.name" and "p.name = value" of the fields init sets with a GetField and a SetField,
+ * which use the slots while the local holds VIRTUAL</li>
+ * <li>every other read of the local, where the instance escapes, e.g. "print p", "f(p)" or
+ * "p.method()", with a Materialize: it creates the instance from the slots, as init would
+ * have, and stores it in the local</li>
+ * </ul>
+ * Once the instance has escaped, or the local was assigned, the local holds a value again and
+ * every node does what the one it replaced did. So does an Allocate when the global of the
+ * class holds something else at run time.
+ */
+final class ScalarReplacement {
+    /**
+     * a class whose instances can be replaced
+     */
+    private static final class Layout {
+        final Stmt.Function initializer;
+        // in the order init first sets them, the order of the indices of the instance
+        final List<Token> fields = new ArrayList<>();
+
+        Layout(Stmt.Function initializer) {
+            this.initializer = initializer;
+        }
+
+        int indexOf(String name) {
+            for (int i = 0; i < fields.size(); i++) {
+                if (fields.get(i).lexeme.equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * a local that a "var" stores a new instance in
+     */
+    static final class Candidate {
+        private final Layout layout;
+        // a nested function refers to the local
+        boolean isCaptured;
+        // the reads of the local other than of its fields, and the assignments to it
+        int references;
+        // the reads and writes of its fields
+        int uses;
+        // the slot of the class, the fields follow it
+        private int base = -1;
+
+        private Candidate(Layout layout) {
+            this.layout = layout;
+        }
+
+        /**
+         * @return -1 if init doesn't set the field
+         */
+        int fieldSlot(String name) {
+            int index = layout.indexOf(name);
+            return index == -1 ? -1 : base + 1 + index;
+        }
+
+        boolean isField(String name) {
+            return layout.indexOf(name) != -1;
+        }
+
+        private boolean isReplaced() {
+            return !isCaptured && uses > 0;
+        }
+
+        Expr.Materialize materialize(Expr.Variable object) {
+            return new Expr.Materialize(object, layout.fields, base);
+        }
+    }
+
+    private final Map<String, Layout> layouts = new HashMap<>();
+    private final Map<Stmt.Var, Candidate> candidates = new IdentityHashMap<>();
+
+    ScalarReplacement(List<Stmt> statements) {
+        Set<String> redeclared = Inliner.redeclared(statements);
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Class) || redeclared.contains(((Stmt.Class) statement).name.lexeme)) {
+                continue;
+            }
+            Stmt.Function initializer = null;
+            for (Stmt.Function method : ((Stmt.Class) statement).methods) {
+                if (method.name.lexeme.equals("init")) {
+                    initializer = method;
+                }
+            }
+            Layout layout = initializer == null ? null : layout(initializer);
+            if (layout != null && !layout.fields.isEmpty()) {
+                layouts.put(((Stmt.Class) statement).name.lexeme, layout);
+            }
+        }
+    }
+
+    /**
+     * @return null if init does more than set fields
+     */
+    private static Layout layout(Stmt.Function initializer) {
+        Layout layout = new Layout(initializer);
+        for (Stmt statement : initializer.body) {
+            if (!(statement instanceof Stmt.Expression)) {
+                return null;
+            }
+            Expr expr = ((Stmt.Expression) statement).expression;
+            if (!(expr instanceof Expr.Set) || !(((Expr.Set) expr).object instanceof Expr.This)) {
+                return null;
+            }
+            Expr.Set set = (Expr.Set) expr;
+            Inliner.Scan scan = new Inliner.Scan(null);
+            scan.scan(set.value);
+            if (scan.hasThis || scan.hasTemporaries) {
+                return null;
+            }
+            if (layout.indexOf(set.name.lexeme) == -1) {
+                layout.fields.add(set.name);
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * ESCAPE: the local a "var" stores a new instance in
+     *
+     * @return null if the initializer doesn't create an instance that can be replaced
+     */
+    Candidate declare(Stmt.Var stmt) {
+        if (stmt.slot == -1 || !(stmt.initializer instanceof Expr.Call)) {
+            return null;
+        }
+        Expr.Call call = (Expr.Call) stmt.initializer;
+        if (!(call.callee instanceof Expr.Variable) || ((Expr.Variable) call.callee).depth != -1) {
+            return null;
+        }
+        Layout layout = layouts.get(((Expr.Variable) call.callee).name.lexeme);
+        if (layout == null || layout.initializer.params.size() != call.arguments.size()) {
+            return null;
+        }
+        Candidate candidate = new Candidate(layout);
+        candidates.put(stmt, candidate);
+        return candidate;
+    }
+
+    /**
+     * SCALARIZE: the local of a "var" whose instance is replaced
+     *
+     * @return null if it isn't
+     */
+    Candidate replaced(Stmt.Var stmt) {
+        Candidate candidate = candidates.get(stmt);
+        return candidate != null && candidate.isReplaced() ? candidate : null;
+    }
+
+    /**
+     * SCALARIZE: the initializer of the "var" of a replaced instance: the class, the fields
+     * and the arguments take new slots of the scope, in that order
+     */
+    Expr.Allocate allocate(Candidate candidate, Expr.Call call, Optimizer.Scope scope) {
+        Layout layout = candidate.layout;
+        candidate.base = scope.slotCount;
+        scope.slotCount += 1 + layout.fields.size();
+
+        // init has "this" in slot 0, the parameters after it
+        List<Token> params = layout.initializer.params;
+        Expr[] values = new Expr[1 + params.size()];
+        int[] temporaries = new int[1 + params.size()];
+        List<Expr> arguments = new ArrayList<>();
+        for (int i = 0; i < params.size(); i++) {
+            int slot = scope.slotCount++;
+            Expr.Assign assign = new Expr.Assign(params.get(i), call.arguments.get(i));
+            assign.depth = 0;
+            assign.slot = slot;
+            arguments.add(assign);
+
+            Expr.Variable variable = new Expr.Variable(params.get(i));
+            variable.depth = 0;
+            variable.slot = slot;
+            values[1 + i] = variable;
+            temporaries[1 + i] = slot;
+        }
+
+        Inliner.Copy copy = new Inliner.Copy(values, temporaries);
+        List<Expr> fields = new ArrayList<>();
+        for (Stmt statement : layout.initializer.body) {
+            Expr.Set set = (Expr.Set) ((Stmt.Expression) statement).expression;
+            Expr.Assign assign = new Expr.Assign(set.name, set.value.accept(copy));
+            assign.depth = 0;
+            assign.slot = candidate.fieldSlot(set.name.lexeme);
+            fields.add(assign);
+        }
+        return new Expr.Allocate(call, layout.initializer, arguments, fields, candidate.base);
+    }
+}
@@ -1,17 +1,55 @@
 package com.chabao18.interpreter.jlox.runtime;
 
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
 import com.chabao18.interpreter.jlox.core.Interpreter;
+import com.chabao18.interpreter.jlox.core.Token;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class LoxClass implements LoxCallable {
     final String name;
     private final Map<String, LoxFunction> methods;
+    // the shape of a new instance, see Shape
+    final Shape rootShape = new Shape();
+    // the room for fields allocated with every instance
+    final int fieldCapacity;
+    // looked up once, a class can't change its methods
+    private final LoxFunction initializer;
+    private final int arity;
 
     public LoxClass(String name, Map<String, LoxFunction> methods) {
         this.name = name;
         this.methods = methods;
+
+        this.initializer = methods.get("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
+
+        // presize the instances for the fields that init assigns
+        Set<String> fields = new HashSet<>();
+        if (initializer != null) {
+            collectFields(initializer.declaration.body, fields);
+        }
+        this.fieldCapacity = fields.size();
+    }
+
+    /**
+     * collect the names of the "this.x = ..." statements
+     */
+    private static void collectFields(List<Stmt> statements, Set<String> fields) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Expression) {
+                Expr expr = ((Stmt.Expression) statement).expression;
+                if (expr instanceof Expr.Set && ((Expr.Set) expr).object instanceof Expr.This) {
+                    fields.add(((Expr.Set) expr).name.lexeme);
+                }
+            } else if (statement instanceof Stmt.Block) {
+                collectFields(((Stmt.Block) statement).statements, fields);
+            }
+        }
     }
 
     LoxFunction findMethod(String name) {
@@ -29,19 +67,48 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) {
-            return 0;
+        return arity;
+    }
+
+    /**
+     * @return null if the class has no "init"
+     */
+    public LoxFunction initializer() {
+        return initializer;
+    }
+
+    /**
+     * a new instance, not initialized yet
+     */
+    public LoxInstance instantiate() {
+        return new LoxInstance(this);
+    }
+
+    /**
+     * the instance init would have created, from the values of its fields, see Expr.Materialize
+     *
+     * @param fields in the order init sets them
+     */
+    public LoxInstance instantiate(List<Token> fields, Object[] values) {
+        LoxInstance instance = new LoxInstance(this);
+        for (int i = 0; i < values.length; i++) {
+            instance.set(fields.get(i), values[i]);
         }
-        return initializer.arity();
+        return instance;
+    }
+
+    /**
+     * whether init was created from the declaration, see Expr.Allocate
+     */
+    public boolean isInitializedBy(Stmt.Function declaration) {
+        return initializer != null && initializer.isDeclaredBy(declaration);
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
+        LoxInstance instance = instantiate();
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.call(interpreter, instance, arguments);
         }
         return instance;
     }
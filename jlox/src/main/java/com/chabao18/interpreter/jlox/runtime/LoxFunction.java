@@ -3,24 +3,43 @@ package com.chabao18.interpreter.jlox.runtime;
 import com.chabao18.interpreter.jlox.ast.Stmt;
 import com.chabao18.interpreter.jlox.core.Environment;
 import com.chabao18.interpreter.jlox.core.Interpreter;
+import com.chabao18.interpreter.jlox.jit.CompiledFunction;
+import com.chabao18.interpreter.jlox.jit.Jit;
 
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
     private final Environment closure;
     private final boolean isInitializer;
+    // "this" takes slot 0 of a method, before the parameters
+    private final boolean isMethod;
+    // the instance a method is bound to, see bind()
+    private final LoxInstance receiver;
 
     public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+        this(declaration, closure, isInitializer, false, null);
+    }
+
+    public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, boolean isMethod) {
+        this(declaration, closure, isInitializer, isMethod, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, boolean isMethod,
+                        LoxInstance receiver) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.isMethod = isMethod;
+        this.receiver = receiver;
     }
 
+    /**
+     * the method as a value, e.g. "var m = object.method;". A call "object.method()" doesn't
+     * need it, the Interpreter passes the receiver straight to newEnvironment()
+     */
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, closure, isInitializer, isMethod, instance);
     }
 
 
@@ -31,27 +50,93 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        // when calling a function, create a new environment,
-        // whose enclosing(parent) environment is the closure of the function
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        return call(interpreter, receiver, arguments);
+    }
+
+    Object call(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        Environment environment = newEnvironment(receiver);
+        int slot = parameterSlot();
+        for (Object argument : arguments) {
+            environment.define(slot++, argument);
         }
+        return execute(interpreter, environment);
+    }
 
-        try {
-            // update the environment of the interpreter to the new environment
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) {
-                return closure.getAt(0, "this");
-            }
-            return returnValue.value;
+    /**
+     * when calling a function, create a new environment,
+     * whose enclosing(parent) environment is the closure of the function
+     *
+     * @param receiver "this" of a method, it takes slot 0
+     */
+    public Environment newEnvironment(LoxInstance receiver) {
+        Environment environment = new Environment(closure, declaration.slotCount);
+        if (isMethod) {
+            environment.define(0, receiver);
         }
+        return environment;
+    }
+
+    /**
+     * the slot of the first parameter, the parameters take the next slots in order
+     */
+    public int parameterSlot() {
+        return isMethod ? 1 : 0;
+    }
 
-        if (isInitializer) {
-            return closure.getAt(0, "this");
+    public LoxInstance receiver() {
+        return receiver;
+    }
+
+    /**
+     * whether the function was created from the declaration, see Expr.Inline
+     */
+    public boolean isDeclaredBy(Stmt.Function declaration) {
+        return this.declaration == declaration;
+    }
+
+    /**
+     * run the body in an environment made by newEnvironment(), with the arguments defined
+     * <p>
+     * A call in tail position doesn't run on top of its caller: it comes back here as a
+     * TailCall, and the loop runs it in place of the function that returned it. So a chain of
+     * tail calls, e.g. a recursive loop, runs in constant Java stack.
+     */
+    public Object execute(Interpreter interpreter, Environment environment) {
+        LoxFunction function = this;
+        for (; ; ) {
+            Object value;
+            try {
+                // a function called often enough runs as JVM code, see Jit
+                CompiledFunction compiled = Jit.compiled(function.declaration, function.isMethod);
+                if (compiled != null) {
+                    value = compiled.invoke(interpreter, environment);
+                } else {
+                    // update the environment of the interpreter to the new environment
+                    value = interpreter.executeBody(function.declaration.body, environment);
+                }
+            } catch (Return returnValue) {
+                // a "return" normally ends the body as a Completion, the exception is only a fallback
+                value = returnValue.value;
+            }
+
+            if (value instanceof TailCall) {
+                TailCall call = (TailCall) value;
+                function = call.function;
+                environment = call.environment;
+                continue;
+            }
+            if (function.isInitializer) {
+                return environment.getAt(0, 0);
+            }
+            return value;
         }
-        return null;
+    }
+
+    /**
+     * the call of this function as the value of a "return", for execute() to run
+     */
+    public Object tailCall(Environment environment) {
+        return new TailCall(this, environment);
     }
 
     @Override
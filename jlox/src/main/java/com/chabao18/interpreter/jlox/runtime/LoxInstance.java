@@ -1,16 +1,20 @@
 package com.chabao18.interpreter.jlox.runtime;
 
+import com.chabao18.interpreter.jlox.ast.Expr;
 import com.chabao18.interpreter.jlox.core.Token;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // the fields, laid out by the shape
+    private Shape shape;
+    private Object[] values;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.values = new Object[klass.fieldCapacity];
     }
 
     @Override
@@ -18,9 +22,55 @@ public class LoxInstance {
         return klass.name + " instance";
     }
 
+    /**
+     * get a property through the inline cache of the site
+     */
+    public Object get(Expr.Get site) {
+        PropertyCache entry = lookup(site);
+        return entry.index != -1 ? values[entry.index] : entry.method.bind(this);
+    }
+
+    /**
+     * the method that "object.name(...)" calls, without binding it
+     *
+     * @return null if the property is a field
+     */
+    public LoxFunction getMethod(Expr.Get site) {
+        PropertyCache entry = lookup(site);
+        return entry.index != -1 ? null : entry.method;
+    }
+
+    /**
+     * find what the site gets for the shape of this instance, update the cache of the site on a miss
+     */
+    private PropertyCache lookup(Expr.Get site) {
+        Object cache = site.cache;
+        if (cache instanceof PropertyCache) {
+            for (PropertyCache entry = (PropertyCache) cache; entry != null; entry = entry.next) {
+                if (entry.shape == shape) {
+                    return entry;
+                }
+            }
+        }
+
+        Token name = site.name;
+        int index = shape.indexOf(name.lexeme);
+        LoxFunction method = null;
+        if (index == -1) {
+            method = klass.findMethod(name.lexeme);
+            if (method == null) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+        }
+        PropertyCache entry = new PropertyCache(shape, index, method, null, cache);
+        site.cache = PropertyCache.add(cache, entry);
+        return entry;
+    }
+
     public Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int index = shape.indexOf(name.lexeme);
+        if (index != -1) {
+            return values[index];
         }
 
         LoxFunction method = klass.findMethod(name.lexeme);
@@ -31,7 +81,49 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    /**
+     * set a field through the inline cache of the site
+     */
+    public void set(Expr.Set site, Object value) {
+        Object cache = site.cache;
+        if (cache instanceof PropertyCache) {
+            for (PropertyCache entry = (PropertyCache) cache; entry != null; entry = entry.next) {
+                if (entry.shape == shape) {
+                    if (entry.transition != null) {
+                        add(entry.transition, value);
+                    } else {
+                        values[entry.index] = value;
+                    }
+                    return;
+                }
+            }
+        }
+
+        Shape before = shape;
+        int index = before.indexOf(site.name.lexeme);
+        set(site.name, value);
+        PropertyCache entry = new PropertyCache(before, index, null, index == -1 ? shape : null, cache);
+        site.cache = PropertyCache.add(cache, entry);
+    }
+
     public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int index = shape.indexOf(name.lexeme);
+        if (index != -1) {
+            values[index] = value;
+        } else {
+            add(shape.withField(name.lexeme), value);
+        }
+    }
+
+    /**
+     * add a field, it takes the last index of the next shape
+     */
+    private void add(Shape next, Object value) {
+        int index = shape.size();
+        if (index == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, values.length * 2));
+        }
+        values[index] = value;
+        shape = next;
     }
 }
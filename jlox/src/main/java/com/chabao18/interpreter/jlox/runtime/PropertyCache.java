@@ -0,0 +1,46 @@
+package com.chabao18.interpreter.jlox.runtime;
+
+/**
+ * An inline cache entry, stored in the "cache" field of an Expr.Get or an Expr.Set.
+ * <p>
+ * Each entry remembers what the property access found for one shape, the entries of a site form
+ * a list. A site that has seen more than MAX_SHAPES shapes is megamorphic and stops caching.
+ * Entries are never modified, a new list replaces the old one.
+ */
+final class PropertyCache {
+    static final int MAX_SHAPES = 4;
+    // the cache of a site that has seen too many shapes
+    static final Object MEGAMORPHIC = new Object();
+
+    final Shape shape;
+    // the index of the field, -1 for a method
+    final int index;
+    // a get of a method
+    final LoxFunction method;
+    // a set that adds the field: the shape after adding it
+    final Shape transition;
+    final PropertyCache next;
+    private final int count;
+
+    /**
+     * @param cache the current cache of the site, the new entry goes in front of its entries
+     */
+    PropertyCache(Shape shape, int index, LoxFunction method, Shape transition, Object cache) {
+        this.shape = shape;
+        this.index = index;
+        this.method = method;
+        this.transition = transition;
+        this.next = cache instanceof PropertyCache ? (PropertyCache) cache : null;
+        this.count = next == null ? 1 : next.count + 1;
+    }
+
+    /**
+     * @return the cache of the site once the entry is added
+     */
+    static Object add(Object cache, PropertyCache entry) {
+        if (cache == MEGAMORPHIC || entry.count > MAX_SHAPES) {
+            return MEGAMORPHIC;
+        }
+        return entry;
+    }
+}
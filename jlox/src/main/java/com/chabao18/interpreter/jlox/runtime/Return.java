@@ -1,5 +1,9 @@
 package com.chabao18.interpreter.jlox.runtime;
 
+/**
+ * Unwinds to the enclosing LoxFunction call with a return value. The Interpreter returns
+ * Completion.RETURN instead, LoxFunction still catches it for code that ends a call this way.
+ */
 public class Return extends RuntimeException {
     final Object value;
 
@@ -0,0 +1,52 @@
+package com.chabao18.interpreter.jlox.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The layout of an instance: which field lives at which index of its values.
+ * <p>
+ * Instances that got the same fields in the same order share one Shape. Adding a field moves an
+ * instance to the next shape along a transition, which is created once and then reused:
+ * <pre>
+ *     {}  --x-->  {x: 0}  --y-->  {x: 0, y: 1}
+ * </pre>
+ * Every class has its own root shape, so a shape also tells the class of an instance.
+ */
+final class Shape {
+    private final Map<String, Integer> indices;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape() {
+        this.indices = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String name) {
+        this.indices = new HashMap<>(parent.indices);
+        this.indices.put(name, parent.size());
+    }
+
+    int size() {
+        return indices.size();
+    }
+
+    /**
+     * @return the index of the field, -1 if the shape doesn't have it
+     */
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * the shape after adding a field, the new field takes the index size()
+     */
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
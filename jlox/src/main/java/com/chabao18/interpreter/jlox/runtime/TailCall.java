@@ -0,0 +1,17 @@
+package com.chabao18.interpreter.jlox.runtime;
+
+import com.chabao18.interpreter.jlox.core.Environment;
+
+/**
+ * A call left to the caller by "return f(...);", the arguments are already in the environment.
+ * It never becomes a Lox value: LoxFunction.execute() runs it as soon as the body returns it.
+ */
+final class TailCall {
+    final LoxFunction function;
+    final Environment environment;
+
+    TailCall(LoxFunction function, Environment environment) {
+        this.function = function;
+        this.environment = environment;
+    }
+}
@@ -0,0 +1,60 @@
+package com.chabao18.interpreter.jlox.runtime;
+
+/**
+ * The semantics of Lox values that every engine has to agree on.
+ */
+public final class Values {
+    /**
+     * what a local holds while the fields of its instance live in slots, see Expr.Allocate.
+     * It never leaves the local: every read of the local checks for it.
+     */
+    public static final Object VIRTUAL = new Object() {
+        @Override
+        public String toString() {
+            return "<virtual>";
+        }
+    };
+
+    private Values() {
+    }
+
+    /**
+     * nil and false are falsey, so is 0, everything else is truthy
+     */
+    public static boolean isTruthy(Object object) {
+        if (object == null) {
+            return false;
+        }
+        if (object instanceof Boolean) {
+            return (boolean) object;
+        }
+        if (object instanceof Double) {
+            return (double) object != 0;
+        }
+        return true;
+    }
+
+    public static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) {
+            return true;
+        }
+        if (a == null) {
+            return false;
+        }
+        return a.equals(b);
+    }
+
+    public static String stringify(Object object) {
+        if (object == null) {
+            return "nil";
+        }
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return object.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.chabao18.interpreter.jlox.vm;
+
+import com.chabao18.interpreter.jlox.core.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bytecode of one function, together with its constant pool.
+ * <p>
+ * Every opcode remembers the token it was compiled from, so that the VM can report a
+ * runtime error at the same place as the tree-walking Interpreter.
+ */
+final class Chunk {
+    byte[] code = new byte[16];
+    Token[] tokens = new Token[16];
+    int count = 0;
+
+    Object[] constants;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(byte b, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = b;
+        tokens[count] = token;
+        count++;
+    }
+
+    /**
+     * @return the index of the value in the constant pool, equal constants share one entry
+     */
+    int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constantList.size();
+            constantList.add(value);
+            constantIndex.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * trim the buffers once the function is compiled
+     */
+    void freeze() {
+        code = Arrays.copyOf(code, count);
+        tokens = Arrays.copyOf(tokens, count);
+        constants = constantList.toArray();
+    }
+}
@@ -0,0 +1,15 @@
+package com.chabao18.interpreter.jlox.vm;
+
+import com.chabao18.interpreter.jlox.core.Token;
+
+/**
+ * A program that passed the Resolver can still exceed the limits of the bytecode format.
+ */
+public class CompileError extends RuntimeException {
+    public final Token token;
+
+    CompileError(Token token, String message) {
+        super(message);
+        this.token = token;
+    }
+}
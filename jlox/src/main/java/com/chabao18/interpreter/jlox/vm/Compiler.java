@@ -0,0 +1,669 @@
+package com.chabao18.interpreter.jlox.vm;
+
+import com.chabao18.interpreter.jlox.ast.Expr;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.core.TokenType;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compile the resolved AST into bytecode, one Chunk per function.
+ * <p>
+ * The Resolver has already decided which variables are globals (depth == -1), the Compiler
+ * only has to map the locals to stack slots of their function, and the variables of
+ * enclosing functions to upvalues.
+ */
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 65536;
+    private static final int MAX_GLOBALS = 65536;
+    private static final int MAX_JUMP = 65535;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final boolean isLocal;
+        final int index;
+
+        Upvalue(boolean isLocal, int index) {
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }
+
+    /**
+     * the state of the function being compiled, functions nest like the source code
+     */
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        // the indices of the globals the function refers to
+        final Set<Integer> globals = new HashSet<>();
+        int scopeDepth = 0;
+        // the current height of the operand stack, to size the frame
+        int stackDepth = 0;
+
+        FunctionState(FunctionState enclosing, ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // slot 0 holds the callee, or "this" in methods
+            String name = type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "";
+            locals.add(new Local(name, 0));
+            stackDepth = 1;
+        }
+    }
+
+    private final Globals globals;
+    private FunctionState current;
+    // where to report an error for an instruction without a token of its own, e.g. a jump
+    private Token lastToken;
+
+    Compiler(Globals globals) {
+        this.globals = globals;
+    }
+
+    ObjFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new ObjFunction(null, 0), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emitReturn(null);
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // ------------------------------------------------------------------ emitting
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    /**
+     * @param effect how the instruction changes the height of the operand stack
+     */
+    private void emit(byte op, int effect, Token token) {
+        if (token != null) {
+            lastToken = token;
+        }
+        chunk().write(op, token);
+        current.stackDepth += effect;
+        if (current.stackDepth > current.function.maxStack) {
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private void emitByte(int b) {
+        chunk().write((byte) b, null);
+    }
+
+    private void emitShort(int s) {
+        emitByte((s >> 8) & 0xff);
+        emitByte(s & 0xff);
+    }
+
+    private int makeConstant(Object value, Token token) {
+        int index = chunk().addConstant(value);
+        if (index >= MAX_CONSTANTS) {
+            throw error(token, "Too many constants in one function.");
+        }
+        return index;
+    }
+
+    private void emitConstant(Object value, Token token) {
+        emit(OpCode.CONSTANT, 1, token);
+        emitShort(makeConstant(value, token));
+    }
+
+    /**
+     * @return the position of the offset, to be patched once the target is known
+     */
+    private int emitJump(byte op, Token token) {
+        emit(op, 0, token);
+        emitShort(0xffff);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset, Token token) {
+        // -2 to adjust for the offset itself
+        int jump = chunk().count - offset - 2;
+        if (jump > MAX_JUMP) {
+            throw error(token, "Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart, Token token) {
+        emit(OpCode.LOOP, 0, token);
+        int offset = chunk().count - loopStart + 2;
+        if (offset > MAX_JUMP) {
+            throw error(token, "Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private CompileError error(Token token, String message) {
+        return new CompileError(token != null ? token : lastToken, message);
+    }
+
+    private void emitReturn(Token token) {
+        if (current.type == FunctionType.INITIALIZER) {
+            // an initializer always returns "this"
+            emit(OpCode.GET_LOCAL, 1, token);
+            emitByte(0);
+        } else {
+            emit(OpCode.NIL, 1, token);
+        }
+        emit(OpCode.RETURN, -1, token);
+    }
+
+    private ObjFunction endFunction() {
+        ObjFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.freeze();
+        globals.link(function.chunk, current.globals);
+        current = current.enclosing;
+        return function;
+    }
+
+    // ------------------------------------------------------------------ variables
+
+    private int global(Token name) {
+        int index = globals.indexOf(name.lexeme);
+        if (index >= MAX_GLOBALS) {
+            throw error(name, "Too many global variables.");
+        }
+        current.globals.add(index);
+        return index;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope(Token token) {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                emit(OpCode.CLOSE_UPVALUE, -1, token);
+            } else {
+                emit(OpCode.POP, -1, token);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    /**
+     * the value of the variable is already on top of the stack, it becomes a local
+     * by staying there, a global by moving into the Globals.
+     */
+    private void defineVariable(Token name, int slot) {
+        if (slot == -1) {
+            emit(OpCode.DEFINE_GLOBAL, -1, name);
+            emitShort(global(name));
+        }
+    }
+
+    /**
+     * @param slot the slot the Resolver assigned to the declaration, -1 for a global
+     */
+    private void declareVariable(Token name, int slot) {
+        if (slot == -1) {
+            return;
+        }
+        if (current.locals.size() == MAX_LOCALS) {
+            throw error(name, "Too many local variables in function.");
+        }
+        current.locals.add(new Local(name.lexeme, current.scopeDepth));
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name, Token token) {
+        if (state.enclosing == null) {
+            return -1;
+        }
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, true, local, token);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name, token);
+        if (upvalue != -1) {
+            return addUpvalue(state, false, upvalue, token);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, boolean isLocal, int index, Token token) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.isLocal == isLocal && upvalue.index == index) {
+                return i;
+            }
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            throw error(token, "Too many closure variables in function.");
+        }
+        state.upvalues.add(new Upvalue(isLocal, index));
+        return state.upvalues.size() - 1;
+    }
+
+    private void emitGet(Token name, int depth) {
+        if (depth == -1) {
+            emit(OpCode.GET_GLOBAL, 1, name);
+            emitShort(global(name));
+            return;
+        }
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot != -1) {
+            emit(OpCode.GET_LOCAL, 1, name);
+            emitByte(slot);
+        } else {
+            emit(OpCode.GET_UPVALUE, 1, name);
+            emitByte(resolveUpvalue(current, name.lexeme, name));
+        }
+    }
+
+    private void emitSet(Token name, int depth) {
+        if (depth == -1) {
+            emit(OpCode.SET_GLOBAL, 0, name);
+            emitShort(global(name));
+            return;
+        }
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot != -1) {
+            emit(OpCode.SET_LOCAL, 0, name);
+            emitByte(slot);
+        } else {
+            emit(OpCode.SET_UPVALUE, 0, name);
+            emitByte(resolveUpvalue(current, name.lexeme, name));
+        }
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        ObjFunction function = new ObjFunction(stmt.name.lexeme, stmt.params.size());
+        current = new FunctionState(current, function, type);
+        beginScope();
+        for (Token param : stmt.params) {
+            declareVariable(param, 0);
+            current.stackDepth++;
+        }
+        current.function.maxStack = current.stackDepth;
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        emitReturn(stmt.name);
+        // no endScope(), the RETURN discards the whole frame
+        List<Upvalue> upvalues = current.upvalues;
+        endFunction();
+
+        emit(OpCode.CLOSURE, 1, stmt.name);
+        emitShort(makeConstant(function, stmt.name));
+        for (Upvalue upvalue : upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitByte(upvalue.index);
+        }
+    }
+
+    // ------------------------------------------------------------------ statements
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope(null);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        int name = makeConstant(stmt.name.lexeme, stmt.name);
+        declareVariable(stmt.name, stmt.slot);
+
+        emit(OpCode.CLASS, 1, stmt.name);
+        emitShort(name);
+        defineVariable(stmt.name, stmt.slot);
+
+        // load the class back, the methods are bound to the class on top of the stack
+        emitGet(stmt.name, stmt.slot == -1 ? -1 : 0);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emit(OpCode.METHOD, -1, method.name);
+            emitShort(makeConstant(method.name.lexeme, method.name));
+        }
+        emit(OpCode.POP, -1, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1, null);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // declared before the body is compiled, so that the function can refer to itself
+        declareVariable(stmt.name, stmt.slot);
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name, stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE, null);
+        emit(OpCode.POP, -1, null);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP, null);
+        patchJump(thenJump, null);
+        // the condition is still on the stack when the else branch is entered
+        current.stackDepth++;
+        emit(OpCode.POP, -1, null);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        patchJump(elseJump, null);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // the module ran before the program
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1, null);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            emitReturn(stmt.keyword);
+        } else {
+            compile(stmt.value);
+            emit(OpCode.RETURN, -1, stmt.keyword);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, 1, stmt.name);
+        }
+        // declared after the initializer, the value of the initializer becomes the local
+        declareVariable(stmt.name, stmt.slot);
+        defineVariable(stmt.name, stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE, null);
+        emit(OpCode.POP, -1, null);
+        compile(stmt.body);
+        emitLoop(loopStart, null);
+
+        patchJump(exitJump, null);
+        current.stackDepth++;
+        emit(OpCode.POP, -1, null);
+        return null;
+    }
+
+    // ------------------------------------------------------------------ expressions
+
+    @Override
+    public Void visitAllocateExpr(Expr.Allocate expr) {
+        // the fields of a replaced instance are slots too: create it
+        compile(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        emitSet(expr.name, expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        byte op;
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                op = OpCode.NOT_EQUAL;
+                break;
+            case EQUAL_EQUAL:
+                op = OpCode.EQUAL;
+                break;
+            case GREATER:
+                op = OpCode.GREATER;
+                break;
+            case GREATER_EQUAL:
+                op = OpCode.GREATER_EQUAL;
+                break;
+            case LESS:
+                op = OpCode.LESS;
+                break;
+            case LESS_EQUAL:
+                op = OpCode.LESS_EQUAL;
+                break;
+            case PLUS:
+                op = OpCode.ADD;
+                break;
+            case MINUS:
+                op = OpCode.SUBTRACT;
+                break;
+            case STAR:
+                op = OpCode.MULTIPLY;
+                break;
+            case SLASH:
+                op = OpCode.DIVIDE;
+                break;
+            default:
+                throw error(expr.operator, "Unknown binary operator.");
+        }
+        emit(op, -1, expr.operator);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            // a method call, skip creating the bound method
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+            }
+            // the paren reports call errors, the name reports property errors
+            int name = makeConstant(get.name.lexeme, get.name);
+            emit(OpCode.INVOKE, -expr.arguments.size(), expr.paren);
+            chunk().write((byte) ((name >> 8) & 0xff), get.name);
+            emitByte(name & 0xff);
+            emitByte(expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(OpCode.CALL, -expr.arguments.size(), expr.paren);
+        emitByte(expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emit(OpCode.GET_PROPERTY, 0, expr.name);
+        emitShort(makeConstant(expr.name.lexeme, expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitGetFieldExpr(Expr.GetField expr) {
+        compile(expr.get);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // the temporaries of an inlined call are slots, which the VM doesn't have: make the call
+        compile(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, 1, null);
+        } else if (expr.value.equals(Boolean.TRUE)) {
+            emit(OpCode.TRUE, 1, null);
+        } else if (expr.value.equals(Boolean.FALSE)) {
+            emit(OpCode.FALSE, 1, null);
+        } else {
+            emitConstant(expr.value, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        if (expr.operator.type == TokenType.OR) {
+            // a truthy left operand is the result
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE, expr.operator);
+            int endJump = emitJump(OpCode.JUMP, expr.operator);
+            patchJump(elseJump, expr.operator);
+            emit(OpCode.POP, -1, expr.operator);
+            compile(expr.right);
+            patchJump(endJump, expr.operator);
+        } else {
+            // a falsey left operand is the result
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE, expr.operator);
+            emit(OpCode.POP, -1, expr.operator);
+            compile(expr.right);
+            patchJump(endJump, expr.operator);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMaterializeExpr(Expr.Materialize expr) {
+        compile(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        emit(OpCode.SET_PROPERTY, -1, expr.name);
+        emitShort(makeConstant(expr.name.lexeme, expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSetFieldExpr(Expr.SetField expr) {
+        compile(expr.set);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        emitGet(expr.keyword, expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                emit(OpCode.NEGATE, 0, expr.operator);
+                break;
+            case BANG:
+                emit(OpCode.NOT, 0, expr.operator);
+                break;
+            default:
+                throw error(expr.operator, "Unknown unary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        emitGet(expr.name, expr.depth);
+        return null;
+    }
+}
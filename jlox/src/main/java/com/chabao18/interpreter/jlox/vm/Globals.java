@@ -0,0 +1,119 @@
+package com.chabao18.interpreter.jlox.vm;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Global variables live in an array, the Compiler turns every global name into an index once,
+ * so the VM doesn't hash the name on each access.
+ * <p>
+ * A name only referenced, never defined, keeps its index as long as a chunk that uses it is
+ * alive: the REPL compiles a program per line, and the lines that refer to a name nothing
+ * defines would otherwise take an index each, for good.
+ */
+final class Globals {
+    // marks a global that has been referenced but not defined (yet)
+    static final Object UNDEFINED = new Object();
+
+    /**
+     * the indices a chunk uses, released once the chunk is unreachable
+     */
+    private static final class Use extends PhantomReference<Chunk> {
+        final int[] indices;
+
+        Use(Chunk chunk, int[] indices, ReferenceQueue<Chunk> queue) {
+            super(chunk, queue);
+            this.indices = indices;
+        }
+    }
+
+    Object[] values = new Object[64];
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    // the number of live chunks that use each index
+    private int[] users = new int[64];
+    private final Set<Use> uses = new HashSet<>();
+    private final ReferenceQueue<Chunk> released = new ReferenceQueue<>();
+    // the indices given out since the last sweep, a compile error may leave them unused
+    private final List<Integer> fresh = new ArrayList<>();
+    private final Deque<Integer> free = new ArrayDeque<>();
+
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index == null) {
+            if (!free.isEmpty()) {
+                index = free.pop();
+                names.set(index, name);
+            } else {
+                index = names.size();
+                names.add(name);
+            }
+            indices.put(name, index);
+            fresh.add(index);
+            if (index >= values.length) {
+                int oldLength = values.length;
+                values = Arrays.copyOf(values, oldLength * 2);
+                users = Arrays.copyOf(users, oldLength * 2);
+                Arrays.fill(values, oldLength, values.length, UNDEFINED);
+            } else {
+                values[index] = UNDEFINED;
+            }
+        }
+        return index;
+    }
+
+    String nameOf(int index) {
+        return names.get(index);
+    }
+
+    /**
+     * the chunk uses the indices until it is unreachable
+     */
+    void link(Chunk chunk, Collection<Integer> used) {
+        int[] indices = new int[used.size()];
+        int i = 0;
+        for (int index : used) {
+            users[index]++;
+            indices[i++] = index;
+        }
+        uses.add(new Use(chunk, indices, released));
+    }
+
+    /**
+     * free the indices of the undefined names no live chunk uses, not while compiling: the
+     * chunk being compiled isn't linked yet
+     */
+    void sweep() {
+        for (Reference<? extends Chunk> reference = released.poll(); reference != null; reference = released.poll()) {
+            Use use = (Use) reference;
+            uses.remove(use);
+            for (int index : use.indices) {
+                users[index]--;
+                release(index);
+            }
+        }
+        for (int index : fresh) {
+            release(index);
+        }
+        fresh.clear();
+    }
+
+    private void release(int index) {
+        if (users[index] == 0 && values[index] == UNDEFINED && names.get(index) != null) {
+            indices.remove(names.get(index));
+            names.set(index, null);
+            free.push(index);
+        }
+    }
+}
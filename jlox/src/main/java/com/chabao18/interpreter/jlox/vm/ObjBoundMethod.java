@@ -0,0 +1,19 @@
+package com.chabao18.interpreter.jlox.vm;
+
+/**
+ * A method that was accessed as a value, e.g. "var m = object.method;"
+ */
+final class ObjBoundMethod {
+    final Object receiver;
+    final ObjClosure method;
+
+    ObjBoundMethod(Object receiver, ObjClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package com.chabao18.interpreter.jlox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class ObjClass {
+    final String name;
+    final Map<String, ObjClosure> methods = new HashMap<>();
+    // looked up once the class is complete, since every call of the class needs it
+    ObjClosure initializer;
+
+    ObjClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,23 @@
+package com.chabao18.interpreter.jlox.vm;
+
+final class ObjFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+    // the deepest the operand stack of a frame can get, including the callee slot
+    int maxStack = 1;
+
+    ObjFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) {
+            return "<script>";
+        }
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,24 @@
+package com.chabao18.interpreter.jlox.vm;
+
+final class ObjNative {
+    interface NativeFn {
+        /**
+         * @param args  the VM stack
+         * @param first the slot of the first argument
+         */
+        Object call(Object[] args, int first);
+    }
+
+    final int arity;
+    final NativeFn function;
+
+    ObjNative(int arity, NativeFn function) {
+        this.arity = arity;
+        this.function = function;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,18 @@
+package com.chabao18.interpreter.jlox.vm;
+
+/**
+ * A captured variable. While the variable is still on the stack the upvalue is "open" and
+ * points at its stack slot, once the variable goes out of scope the value moves into the upvalue.
+ */
+final class ObjUpvalue {
+    // the stack slot of an open upvalue, -1 once it is closed
+    int location;
+    Object closed;
+    // open upvalues form a list sorted by stack slot, the top-most first
+    ObjUpvalue next;
+
+    ObjUpvalue(int location, ObjUpvalue next) {
+        this.location = location;
+        this.next = next;
+    }
+}
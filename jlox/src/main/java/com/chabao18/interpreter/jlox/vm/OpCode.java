@@ -0,0 +1,57 @@
+package com.chabao18.interpreter.jlox.vm;
+
+/**
+ * The instruction set of the VM, each opcode takes one byte in a Chunk, followed by its operands.
+ * <p>
+ * const: 2-byte index into the constant pool
+ * global: 2-byte index into the Globals
+ * slot: 1-byte index of a local (relative to the frame) or of an upvalue (in the closure)
+ * offset: 2-byte jump distance
+ */
+final class OpCode {
+    static final byte CONSTANT = 0;         // const         -> value
+    static final byte NIL = 1;              //               -> nil
+    static final byte TRUE = 2;             //               -> true
+    static final byte FALSE = 3;            //               -> false
+    static final byte POP = 4;              // value         ->
+
+    static final byte GET_LOCAL = 5;        // slot          -> value
+    static final byte SET_LOCAL = 6;        // slot, value   -> value
+    static final byte GET_GLOBAL = 7;       // global        -> value
+    static final byte DEFINE_GLOBAL = 8;    // global, value ->
+    static final byte SET_GLOBAL = 9;       // global, value -> value
+    static final byte GET_UPVALUE = 10;     // slot          -> value
+    static final byte SET_UPVALUE = 11;     // slot, value   -> value
+    static final byte GET_PROPERTY = 12;    // const(name), instance        -> value
+    static final byte SET_PROPERTY = 13;    // const(name), instance, value -> value
+
+    static final byte EQUAL = 14;           // a, b -> a == b
+    static final byte NOT_EQUAL = 15;       // a, b -> a != b
+    static final byte GREATER = 16;         // a, b -> a > b
+    static final byte GREATER_EQUAL = 17;   // a, b -> a >= b
+    static final byte LESS = 18;            // a, b -> a < b
+    static final byte LESS_EQUAL = 19;      // a, b -> a <= b
+    static final byte ADD = 20;             // a, b -> a + b
+    static final byte SUBTRACT = 21;        // a, b -> a - b
+    static final byte MULTIPLY = 22;        // a, b -> a * b
+    static final byte DIVIDE = 23;          // a, b -> a / b
+    static final byte NOT = 24;             // a    -> !a
+    static final byte NEGATE = 25;          // a    -> -a
+
+    static final byte PRINT = 26;           // value ->
+    static final byte JUMP = 27;            // offset
+    static final byte JUMP_IF_FALSE = 28;   // offset, condition -> condition
+    static final byte LOOP = 29;            // offset (backwards)
+
+    static final byte CALL = 30;            // argc, callee, args... -> result
+    static final byte INVOKE = 31;          // const(name), argc, instance, args... -> result
+    static final byte CLOSURE = 32;         // const(function), (isLocal, slot) * upvalueCount -> closure
+    static final byte CLOSE_UPVALUE = 33;   // value ->
+    static final byte RETURN = 34;          // result ->
+
+    static final byte CLASS = 35;           // const(name)          -> class
+    static final byte METHOD = 36;          // const(name), class, closure -> class
+
+    private OpCode() {
+    }
+}
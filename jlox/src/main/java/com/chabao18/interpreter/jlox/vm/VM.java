@@ -0,0 +1,509 @@
+package com.chabao18.interpreter.jlox.vm;
+
+import com.chabao18.interpreter.jlox.ast.Stmt;
+import com.chabao18.interpreter.jlox.core.Token;
+import com.chabao18.interpreter.jlox.runtime.RuntimeError;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.chabao18.interpreter.jlox.runtime.Values.*;
+
+/**
+ * A stack-based virtual machine, running the bytecode produced by the Compiler.
+ * <p>
+ * All the frames share one contiguous value stack: the callee (or "this") sits in the first
+ * slot of a frame, followed by the arguments and the locals, then the temporaries.
+ */
+public class VM {
+    private static final int FRAMES_MAX = 65536;
+
+    private static class CallFrame {
+        ObjClosure closure;
+        int ip;
+        // the stack slot of the callee
+        int base;
+    }
+
+    private final Globals globals = new Globals();
+    private Object[] stack = new Object[1024];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private ObjUpvalue openUpvalues = null;
+
+    public VM() {
+        globals.values[globals.indexOf("clock")] = new ObjNative(0,
+                (args, first) -> (double) System.currentTimeMillis() / 1000.0);
+    }
+
+    /**
+     * compile the resolved statements, then run them
+     *
+     * @throws CompileError  if the program doesn't fit the bytecode format
+     * @throws RuntimeError  on a runtime error, the VM is reset and can run the next program
+     */
+    public void interpret(List<Stmt> statements) {
+        // the globals of the programs that are gone, not while compiling
+        globals.sweep();
+        ObjFunction function = new Compiler(globals).compile(statements);
+        ObjClosure closure = new ObjClosure(function);
+        try {
+            ensureStack(function.maxStack);
+            stack[sp++] = closure;
+            call(closure, 0, null);
+            run();
+        } finally {
+            reset();
+        }
+    }
+
+    private void reset() {
+        // popped slots aren't cleared while running, drop their references now
+        Arrays.fill(stack, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void ensureStack(int size) {
+        if (sp + size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + size));
+        }
+    }
+
+    /**
+     * push a frame for the closure, its callee and arguments are on top of the stack
+     */
+    private void call(ObjClosure closure, int argCount, Token paren) {
+        ObjFunction function = closure.function;
+        if (argCount != function.arity) {
+            throw new RuntimeError(paren, "Expected " + function.arity + " arguments but got " + argCount + ".");
+        }
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+        ensureStack(function.maxStack);
+    }
+
+    /**
+     * @return false if the callee was a native function, whose result is already on the stack
+     */
+    private boolean callValue(Object callee, int argCount, Token paren) {
+        if (callee instanceof ObjClosure) {
+            call((ObjClosure) callee, argCount, paren);
+            return true;
+        }
+        if (callee instanceof ObjBoundMethod) {
+            ObjBoundMethod bound = (ObjBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount, paren);
+            return true;
+        }
+        if (callee instanceof ObjClass) {
+            ObjClass klass = (ObjClass) callee;
+            stack[sp - argCount - 1] = new ObjInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount, paren);
+                return true;
+            }
+            if (argCount != 0) {
+                throw new RuntimeError(paren, "Expected 0 arguments but got " + argCount + ".");
+            }
+            return false;
+        }
+        if (callee instanceof ObjNative) {
+            ObjNative function = (ObjNative) callee;
+            if (argCount != function.arity) {
+                throw new RuntimeError(paren, "Expected " + function.arity + " arguments but got " + argCount + ".");
+            }
+            Object result = function.function.call(stack, sp - argCount);
+            sp -= argCount + 1;
+            stack[sp++] = result;
+            return false;
+        }
+        throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    private boolean invoke(String name, int argCount, Token nameToken, Token paren) {
+        Object receiver = stack[sp - argCount - 1];
+        if (!(receiver instanceof ObjInstance)) {
+            throw new RuntimeError(nameToken, "Only instances have properties.");
+        }
+        ObjInstance instance = (ObjInstance) receiver;
+
+        // a field holding a function shadows the method
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name)) {
+            stack[sp - argCount - 1] = field;
+            return callValue(field, argCount, paren);
+        }
+
+        ObjClosure method = instance.klass.methods.get(name);
+        if (method == null) {
+            throw new RuntimeError(nameToken, "Undefined property '" + name + "'.");
+        }
+        call(method, argCount, paren);
+        return true;
+    }
+
+    private ObjUpvalue captureUpvalue(int location) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.location > location) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.location == location) {
+            return upvalue;
+        }
+
+        ObjUpvalue created = new ObjUpvalue(location, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    /**
+     * close every open upvalue at or above the slot
+     */
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.location];
+            upvalue.location = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        int start = ip;
+        // the hot state lives in locals, and is written back before calling out of the loop
+        Object[] stack = this.stack;
+        int sp = this.sp;
+
+        try {
+            for (; ; ) {
+                start = ip;
+                switch (code[ip++]) {
+                    case OpCode.CONSTANT:
+                        stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        break;
+                    case OpCode.NIL:
+                        stack[sp++] = null;
+                        break;
+                    case OpCode.TRUE:
+                        stack[sp++] = Boolean.TRUE;
+                        break;
+                    case OpCode.FALSE:
+                        stack[sp++] = Boolean.FALSE;
+                        break;
+                    case OpCode.POP:
+                        sp--;
+                        break;
+
+                    case OpCode.GET_LOCAL:
+                        stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                        break;
+                    case OpCode.SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                        break;
+                    case OpCode.GET_GLOBAL: {
+                        Object value = globals.values[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        if (value == Globals.UNDEFINED) {
+                            throw undefinedVariable(frame, start);
+                        }
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case OpCode.DEFINE_GLOBAL:
+                        globals.values[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)] = stack[--sp];
+                        ip += 2;
+                        break;
+                    case OpCode.SET_GLOBAL: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if (globals.values[index] == Globals.UNDEFINED) {
+                            throw undefinedVariable(frame, start);
+                        }
+                        globals.values[index] = stack[sp - 1];
+                        break;
+                    }
+                    case OpCode.GET_UPVALUE: {
+                        ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        stack[sp++] = upvalue.location == -1 ? upvalue.closed : stack[upvalue.location];
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE: {
+                        ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        if (upvalue.location == -1) {
+                            upvalue.closed = stack[sp - 1];
+                        } else {
+                            stack[upvalue.location] = stack[sp - 1];
+                        }
+                        break;
+                    }
+                    case OpCode.GET_PROPERTY: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        Object object = stack[sp - 1];
+                        if (!(object instanceof ObjInstance)) {
+                            throw error(frame, start, "Only instances have properties.");
+                        }
+                        ObjInstance instance = (ObjInstance) object;
+                        Object value = instance.fields.get(name);
+                        if (value == null && !instance.fields.containsKey(name)) {
+                            ObjClosure method = instance.klass.methods.get(name);
+                            if (method == null) {
+                                throw error(frame, start, "Undefined property '" + name + "'.");
+                            }
+                            value = new ObjBoundMethod(instance, method);
+                        }
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case OpCode.SET_PROPERTY: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        Object object = stack[sp - 2];
+                        if (!(object instanceof ObjInstance)) {
+                            throw error(frame, start, "Only instances have fields.");
+                        }
+                        Object value = stack[--sp];
+                        ((ObjInstance) object).fields.put(name, value);
+                        stack[sp - 1] = value;
+                        break;
+                    }
+
+                    case OpCode.EQUAL:
+                        sp--;
+                        stack[sp - 1] = isEqual(stack[sp - 1], stack[sp]);
+                        break;
+                    case OpCode.NOT_EQUAL:
+                        sp--;
+                        stack[sp - 1] = !isEqual(stack[sp - 1], stack[sp]);
+                        break;
+                    case OpCode.GREATER: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        checkNumberOperands(a, b, frame, start);
+                        stack[sp - 1] = (double) a > (double) b;
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        checkNumberOperands(a, b, frame, start);
+                        stack[sp - 1] = (double) a >= (double) b;
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        checkNumberOperands(a, b, frame, start);
+                        stack[sp - 1] = (double) a < (double) b;
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        checkNumberOperands(a, b, frame, start);
+                        stack[sp - 1] = (double) a <= (double) b;
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        if (a instanceof Double && b instanceof Double) {
+                            stack[sp - 1] = (double) a + (double) b;
+                        } else if (a instanceof String && b instanceof String) {
+                            stack[sp - 1] = (String) a + (String) b;
+                        } else {
+                            throw error(frame, start, "Operands must be two numbers or two strings.");
+                        }
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        checkNumberOperands(a, b, frame, start);
+                        stack[sp - 1] = (double) a - (double) b;
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        checkNumberOperands(a, b, frame, start);
+                        stack[sp - 1] = (double) a * (double) b;
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        Object a = stack[sp - 2];
+                        Object b = stack[--sp];
+                        checkNumberOperands(a, b, frame, start);
+                        if (Double.compare((double) b, 0.0) == 0) {
+                            throw error(frame, start, "Division by zero.");
+                        }
+                        stack[sp - 1] = (double) a / (double) b;
+                        break;
+                    }
+                    case OpCode.NOT:
+                        stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                        break;
+                    case OpCode.NEGATE: {
+                        Object a = stack[sp - 1];
+                        if (!(a instanceof Double)) {
+                            throw error(frame, start, "Operand must be a number.");
+                        }
+                        stack[sp - 1] = -(double) a;
+                        break;
+                    }
+
+                    case OpCode.PRINT:
+                        System.out.println(stringify(stack[--sp]));
+                        break;
+                    case OpCode.JUMP:
+                        ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        break;
+                    case OpCode.JUMP_IF_FALSE:
+                        if (isTruthy(stack[sp - 1])) {
+                            ip += 2;
+                        } else {
+                            ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        }
+                        break;
+                    case OpCode.LOOP:
+                        ip += 2 - (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        break;
+
+                    case OpCode.CALL:
+                    case OpCode.INVOKE: {
+                        Token paren = frame.closure.function.chunk.tokens[start];
+                        boolean pushed;
+                        if (code[start] == OpCode.CALL) {
+                            int argCount = code[ip++] & 0xff;
+                            frame.ip = ip;
+                            this.sp = sp;
+                            pushed = callValue(stack[sp - argCount - 1], argCount, paren);
+                        } else {
+                            Token name = frame.closure.function.chunk.tokens[ip];
+                            String method = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                            int argCount = code[ip + 2] & 0xff;
+                            ip += 3;
+                            frame.ip = ip;
+                            this.sp = sp;
+                            pushed = invoke(method, argCount, name, paren);
+                        }
+                        // the call may have grown the stack
+                        stack = this.stack;
+                        sp = this.sp;
+                        if (pushed) {
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                        break;
+                    }
+                    case OpCode.CLOSURE: {
+                        ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClosure closure = new ObjClosure(function);
+                        for (int i = 0; i < closure.upvalues.length; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int index = code[ip++] & 0xff;
+                            if (isLocal) {
+                                closure.upvalues[i] = captureUpvalue(base + index);
+                            } else {
+                                closure.upvalues[i] = frame.closure.upvalues[index];
+                            }
+                        }
+                        stack[sp++] = closure;
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(sp - 1);
+                        sp--;
+                        break;
+                    case OpCode.RETURN: {
+                        Object result = stack[--sp];
+                        closeUpvalues(base);
+                        frameCount--;
+                        sp = base;
+                        if (frameCount == 0) {
+                            return;
+                        }
+                        stack[sp++] = result;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+
+                    case OpCode.CLASS:
+                        stack[sp++] = new ObjClass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case OpCode.METHOD: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        ObjClosure method = (ObjClosure) stack[--sp];
+                        ObjClass klass = (ObjClass) stack[sp - 1];
+                        klass.methods.put(name, method);
+                        if (name.equals("init")) {
+                            klass.initializer = method;
+                        }
+                        break;
+                    }
+                    default:
+                        throw error(frame, start, "Unknown opcode " + code[start] + ".");
+                }
+            }
+        } finally {
+            frame.ip = ip;
+            this.sp = sp;
+        }
+    }
+
+    private RuntimeError error(CallFrame frame, int start, String message) {
+        return new RuntimeError(frame.closure.function.chunk.tokens[start], message);
+    }
+
+    private RuntimeError undefinedVariable(CallFrame frame, int start) {
+        Token name = frame.closure.function.chunk.tokens[start];
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    private void checkNumberOperands(Object a, Object b, CallFrame frame, int start) {
+        if (a instanceof Double && b instanceof Double) {
+            return;
+        }
+        throw error(frame, start, "Operands must be numbers.");
+    }
+
+}
@@ -2,10 +2,21 @@ package com.chabao18.interpreter.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-// Generate Abstract Syntax Tree
+/**
+ * Generate Abstract Syntax Tree
+ * <p>
+ * Each type is described as "Name : final fields | mutable fields". The final fields are filled by the
+ * parser through the constructor, the mutable fields are left for later passes (e.g. the resolver) to fill in.
+ * A mutable field may have a default value: "int slot = -1".
+ * <p>
+ * Mutable fields shared by every type of a tree are declared on the base class.
+ * <p>
+ * Both trees are also generated as Flat, the same nodes as indices into parallel arrays.
+ */
 public class GenerateAST {
     public static void main(String[] args) throws IOException {
         if (args.length != 1) {
@@ -13,42 +24,54 @@ public class GenerateAST {
             System.exit(64);
         }
         String outputDir = args[0];
-        defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
-                "Grouping : Expr expression",
-                "Literal  : Object value",
-                "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "This     : Token keyword",
-                "Unary    : Token operator, Expr right",
-                "Variable : Token name"
-        ));
-
-        defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, List<Stmt.Function> methods",
+        List<String> exprTypes = Arrays.asList(
+                "Allocate    : Expr.Call call, Stmt.Function initializer, List<Expr> arguments, List<Expr> fields, int base",
+                "Assign      : Token name, Expr value | int depth = -1, int slot = -1",
+                "Binary      : Expr left, Token operator, Expr right",
+                "Call        : Expr callee, Token paren, List<Expr> arguments | boolean tail, Object site",
+                "Get         : Expr object, Token name | Object cache",
+                "GetField    : Expr.Variable object, Expr.Get get, int slot",
+                "Grouping    : Expr expression",
+                "Inline      : Expr.Call call, Stmt.Function function, List<Expr> arguments, Expr body",
+                "Literal     : Object value",
+                "Logical     : Expr left, Token operator, Expr right",
+                "Materialize : Expr.Variable object, List<Token> fields, int base",
+                "Set         : Expr object, Token name, Expr value | Object cache",
+                "SetField    : Expr.Variable object, Expr.Set set, int slot",
+                "This        : Token keyword | int depth = -1, int slot = -1",
+                "Unary       : Token operator, Expr right",
+                "Variable    : Token name | int depth = -1, int slot = -1"
+        );
+        List<String> stmtTypes = Arrays.asList(
+                "Block      : List<Stmt> statements | int slotCount",
+                "Class      : Token name, List<Stmt.Function> methods | int slot = -1",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, int slotCount, int calls, Object compiled",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+                "Import     : Token path",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
+                "Var        : Token name, Expr initializer | int slot = -1",
                 "While      : Expr condition, Stmt body"
-        ));
+        );
+
+        defineAst(outputDir, "Expr", "boolean numeric", exprTypes);
+        defineAst(outputDir, "Stmt", "", stmtTypes);
+        defineFlat(outputDir, exprTypes, stmtTypes);
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    private static void defineAst(String outputDir, String baseName, String baseFields, List<String> types)
+            throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
 
-        writer.println("package com.chabao18.interpreter.jlox;");
+        writer.println("package com.chabao18.interpreter.jlox.ast;");
+        writer.println();
+        writer.println("import com.chabao18.interpreter.jlox.core.Token;");
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("public abstract class " + baseName + " {");
 
         // visitor
         defineVisitor(writer, baseName, types);
@@ -57,22 +80,37 @@ public class GenerateAST {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String mutableFields = "";
+            if (fields.contains("|")) {
+                mutableFields = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            writer.println();
+            defineType(writer, baseName, className, fields, mutableFields);
+        }
+
+        // fields of every type, filled in after parsing
+        if (!baseFields.isEmpty()) {
+            writer.println();
+            for (String field : baseFields.split(", ")) {
+                writer.println("    public " + field + ";");
+            }
         }
 
         // base accept()
         writer.println();
-        writer.println("    abstract <T> T accept(Visitor<T> visitor);");
+        writer.println("    public abstract <T> T accept(Visitor<T> visitor);");
 
         writer.println("}");
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
-        writer.println("    static class " + className + " extends " + baseName + " {");
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String mutableFieldList) {
+        writer.println("    public static class " + className + " extends " + baseName + " {");
 
         // Constructor
-        writer.println("        " + className + "(" + fieldList + ") {");
+        writer.println("        public " + className + "(" + fieldList + ") {");
         String[] fields = fieldList.split(", ");
         for (String field : fields) {
             String name = field.split(" ")[1];
@@ -83,21 +121,28 @@ public class GenerateAST {
         // visitor pattern
         writer.println();
         writer.println("        @Override");
-        writer.println("        <T> T accept(Visitor<T> visitor) {");
+        writer.println("        public <T> T accept(Visitor<T> visitor) {");
         writer.println("            return visitor.visit" + className + baseName + "(this);");
         writer.println("        }");
 
         // Fields
         writer.println();
         for (String field : fields) {
-            writer.println("        final " + field + ";");
+            writer.println("        public final " + field + ";");
+        }
+
+        // filled in after parsing
+        if (!mutableFieldList.isEmpty()) {
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("        public " + field + ";");
+            }
         }
 
         writer.println("    }");
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("    interface Visitor<T> {");
+        writer.println("    public interface Visitor<T> {");
 
         for (String type : types) {
             String typeName = type.split(":")[0].trim();
@@ -106,4 +151,520 @@ public class GenerateAST {
 
         writer.println("    }");
     }
-}
\ No newline at end of file
+
+    /**
+     * Flat: a node is an index into arrays of its kind, the type and the position of its
+     * token and where its operands start. The operands of a type are its fields: the
+     * lexeme of its token first, if it has one, then the others in order. A child is the
+     * index of its node (-1 for null), a list the index of the operand that holds its length,
+     * followed by its elements, an Object the index of a constant, a boolean 0 or 1. The
+     * mutable int and boolean fields are kept, the Resolver writes them; the Object ones are
+     * caches of the engines.
+     */
+    private static void defineFlat(String outputDir, List<String> exprTypes, List<String> stmtTypes)
+            throws IOException {
+        String path = outputDir + "/Flat.java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+        List<String[]> types = new ArrayList<>();
+        for (String type : exprTypes) {
+            types.add(new String[]{"Expr", type});
+        }
+        for (String type : stmtTypes) {
+            types.add(new String[]{"Stmt", type});
+        }
+
+        writer.println("package com.chabao18.interpreter.jlox.ast;");
+        writer.println();
+        writer.println("import com.chabao18.interpreter.jlox.core.Token;");
+        writer.println("import com.chabao18.interpreter.jlox.core.TokenType;");
+        writer.println();
+        writer.println("import java.io.DataOutputStream;");
+        writer.println("import java.io.IOException;");
+        writer.println("import java.nio.ByteBuffer;");
+        writer.println("import java.nio.charset.StandardCharsets;");
+        writer.println("import java.util.ArrayList;");
+        writer.println("import java.util.Arrays;");
+        writer.println("import java.util.HashMap;");
+        writer.println("import java.util.List;");
+        writer.println("import java.util.Map;");
+        writer.println();
+        writer.println("/**");
+        writer.println(" * The resolved statements packed in arrays, see GenerateAST.defineFlat(). A node refers to");
+        writer.println(" * its children by index, and the lexemes and the values of the literals are constants,");
+        writer.println(" * each kept once, so a program takes a few arrays instead of an object per node and token.");
+        writer.println(" * The children of a node come right before it.");
+        writer.println(" */");
+        writer.println("public final class Flat {");
+
+        // the kinds
+        for (int kind = 0; kind < types.size(); kind++) {
+            String className = types.get(kind)[1].split(":")[0].trim();
+            writer.println("    public static final int " + constantName(className) + " = " + kind + ";");
+        }
+        writer.println("    // changes with the types, a Flat written with another layout can't be read");
+        StringBuilder layout = new StringBuilder();
+        for (String[] type : types) {
+            layout.append(type[1].split(":")[0].trim()).append(flatFields(type[0], type[1]));
+        }
+        writer.println("    public static final int LAYOUT = " + layout.toString().hashCode() + ";");
+        writer.println();
+        writer.println("    private static final TokenType[] TYPES = TokenType.values();");
+        writer.println();
+        writer.println("    private byte[] kinds;");
+        writer.println("    // the token of the node, if it has one");
+        writer.println("    private byte[] types;");
+        writer.println("    private int[] rows;");
+        writer.println("    private int[] offsets;");
+        writer.println("    // where the operands of the node start");
+        writer.println("    private int[] firsts;");
+        writer.println("    private int[] operands;");
+        writer.println("    private Object[] constants;");
+        writer.println("    // the list of the top-level statements");
+        writer.println("    private int program;");
+        writer.println();
+        writer.println("    private Flat() {");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public static Flat flatten(List<Stmt> statements) {");
+        writer.println("        Builder builder = new Builder();");
+        writer.println("        return builder.finish(builder.list(statements));");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public int program() {");
+        writer.println("        return program;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public int kind(int node) {");
+        writer.println("        return kinds[node];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public TokenType operator(int node) {");
+        writer.println("        return TYPES[types[node]];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    /**");
+        writer.println("     * the token of the node, created again, e.g. for an error");
+        writer.println("     */");
+        writer.println("    public Token token(int node) {");
+        writer.println("        String lexeme = (String) constants[operands[firsts[node]]];");
+        writer.println("        return new Token(operator(node), lexeme, null, rows[node], offsets[node], lexeme.length());");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public int count(int list) {");
+        writer.println("        return operands[list];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    public int element(int list, int index) {");
+        writer.println("        return operands[list + 1 + index];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    /**");
+        writer.println("     * an element of a list of tokens");
+        writer.println("     */");
+        writer.println("    public String name(int list, int index) {");
+        writer.println("        return (String) constants[element(list, index)];");
+        writer.println("    }");
+
+        // the fields
+        for (String[] type : types) {
+            String className = type[1].split(":")[0].trim();
+            List<String> fields = flatFields(type[0], type[1]);
+            for (int i = 0; i < fields.size(); i++) {
+                String fieldType = fields.get(i).split(" ")[0];
+                String name = fields.get(i).split(" ")[1];
+                String operand = "operands[firsts[node]" + (i == 0 ? "" : " + " + i) + "]";
+                writer.println();
+                switch (fieldType) {
+                    case "Token":
+                        writer.println("    public String " + accessorName(className, name) + "(int node) {");
+                        writer.println("        return (String) constants[" + operand + "];");
+                        break;
+                    case "Object":
+                        writer.println("    public Object " + accessorName(className, name) + "(int node) {");
+                        writer.println("        return constants[" + operand + "];");
+                        break;
+                    case "boolean":
+                        writer.println("    public boolean " + accessorName(className, name) + "(int node) {");
+                        writer.println("        return " + operand + " != 0;");
+                        break;
+                    default:
+                        writer.println("    public int " + accessorName(className, name) + "(int node) {");
+                        writer.println("        return " + operand + ";");
+                        break;
+                }
+                writer.println("    }");
+            }
+        }
+
+        defineSerialization(writer);
+        defineTree(writer, types);
+        defineBuilder(writer, types);
+
+        writer.println("}");
+        writer.close();
+    }
+
+    /**
+     * the fields of a type that Flat keeps, the token first
+     */
+    private static List<String> flatFields(String baseName, String type) {
+        String fieldList = type.split(":")[1].trim();
+        List<String> fields = new ArrayList<>();
+        if (fieldList.contains("|")) {
+            String mutableFields = fieldList.split("\\|")[1].trim();
+            fieldList = fieldList.split("\\|")[0].trim();
+            fields.addAll(Arrays.asList(fieldList.split(", ")));
+            for (String field : mutableFields.split(", ")) {
+                if (field.startsWith("int ") || field.startsWith("boolean ")) {
+                    fields.add(field.split(" = ")[0]);
+                }
+            }
+        } else {
+            fields.addAll(Arrays.asList(fieldList.split(", ")));
+        }
+        if (baseName.equals("Expr")) {
+            // the field of every Expr, see main()
+            fields.add("boolean numeric");
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).startsWith("Token ")) {
+                fields.add(0, fields.remove(i));
+            }
+        }
+        return fields;
+    }
+
+    private static void defineSerialization(PrintWriter writer) {
+        writer.println();
+        writer.println("    /**");
+        writer.println("     * the arrays as they are, for read()");
+        writer.println("     */");
+        writer.println("    public void write(DataOutputStream out) throws IOException {");
+        writer.println("        out.writeInt(kinds.length);");
+        writer.println("        out.writeInt(operands.length);");
+        writer.println("        out.writeInt(constants.length);");
+        writer.println("        out.writeInt(program);");
+        writer.println("        out.write(kinds);");
+        writer.println("        out.write(types);");
+        for (String array : new String[]{"rows", "offsets", "firsts", "operands"}) {
+            writer.println("        for (int value : " + array + ") {");
+            writer.println("            out.writeInt(value);");
+            writer.println("        }");
+        }
+        writer.println("        for (Object constant : constants) {");
+        writer.println("            if (constant == null) {");
+        writer.println("                out.writeByte(0);");
+        writer.println("            } else if (constant instanceof Boolean) {");
+        writer.println("                out.writeByte(1);");
+        writer.println("                out.writeBoolean((Boolean) constant);");
+        writer.println("            } else if (constant instanceof Double) {");
+        writer.println("                out.writeByte(2);");
+        writer.println("                out.writeDouble((Double) constant);");
+        writer.println("            } else {");
+        writer.println("                byte[] bytes = ((String) constant).getBytes(StandardCharsets.UTF_8);");
+        writer.println("                out.writeByte(3);");
+        writer.println("                out.writeInt(bytes.length);");
+        writer.println("                out.write(bytes);");
+        writer.println("            }");
+        writer.println("        }");
+        writer.println("    }");
+        writer.println();
+        writer.println("    /**");
+        writer.println("     * a Flat from what write() wrote, the buffer is left after it");
+        writer.println("     */");
+        writer.println("    public static Flat read(ByteBuffer buffer) {");
+        writer.println("        Flat flat = new Flat();");
+        writer.println("        int size = buffer.getInt();");
+        writer.println("        int operandCount = buffer.getInt();");
+        writer.println("        int constantCount = buffer.getInt();");
+        writer.println("        flat.program = buffer.getInt();");
+        writer.println("        flat.kinds = new byte[size];");
+        writer.println("        buffer.get(flat.kinds);");
+        writer.println("        flat.types = new byte[size];");
+        writer.println("        buffer.get(flat.types);");
+        writer.println("        flat.rows = ints(buffer, size);");
+        writer.println("        flat.offsets = ints(buffer, size);");
+        writer.println("        flat.firsts = ints(buffer, size);");
+        writer.println("        flat.operands = ints(buffer, operandCount);");
+        writer.println("        flat.constants = new Object[constantCount];");
+        writer.println("        for (int i = 0; i < constantCount; i++) {");
+        writer.println("            switch (buffer.get()) {");
+        writer.println("                case 0:");
+        writer.println("                    break;");
+        writer.println("                case 1:");
+        writer.println("                    flat.constants[i] = buffer.get() != 0;");
+        writer.println("                    break;");
+        writer.println("                case 2:");
+        writer.println("                    flat.constants[i] = buffer.getDouble();");
+        writer.println("                    break;");
+        writer.println("                default:");
+        writer.println("                    byte[] bytes = new byte[buffer.getInt()];");
+        writer.println("                    buffer.get(bytes);");
+        writer.println("                    flat.constants[i] = new String(bytes, StandardCharsets.UTF_8);");
+        writer.println("                    break;");
+        writer.println("            }");
+        writer.println("        }");
+        writer.println("        return flat;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private static int[] ints(ByteBuffer buffer, int length) {");
+        writer.println("        int[] values = new int[length];");
+        writer.println("        buffer.asIntBuffer().get(values);");
+        writer.println("        buffer.position(buffer.position() + 4 * length);");
+        writer.println("        return values;");
+        writer.println("    }");
+    }
+
+    /**
+     * statements(): the tree again, as the Resolver left it. The tokens of a list keep only
+     * their lexeme, the position is the one of their node.
+     */
+    private static void defineTree(PrintWriter writer, List<String[]> types) {
+        writer.println();
+        writer.println("    /**");
+        writer.println("     * the statements that were flattened, resolved");
+        writer.println("     */");
+        writer.println("    public List<Stmt> statements() {");
+        writer.println("        return stmts(program);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    @SuppressWarnings(\"unchecked\")");
+        writer.println("    private <T extends Expr> List<T> exprs(int list) {");
+        writer.println("        List<T> exprs = new ArrayList<>(count(list));");
+        writer.println("        for (int i = 0; i < count(list); i++) {");
+        writer.println("            exprs.add((T) expr(element(list, i)));");
+        writer.println("        }");
+        writer.println("        return exprs;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    @SuppressWarnings(\"unchecked\")");
+        writer.println("    private <T extends Stmt> List<T> stmts(int list) {");
+        writer.println("        List<T> stmts = new ArrayList<>(count(list));");
+        writer.println("        for (int i = 0; i < count(list); i++) {");
+        writer.println("            stmts.add((T) stmt(element(list, i)));");
+        writer.println("        }");
+        writer.println("        return stmts;");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private List<Token> tokens(int list, int node) {");
+        writer.println("        List<Token> tokens = new ArrayList<>(count(list));");
+        writer.println("        for (int i = 0; i < count(list); i++) {");
+        writer.println("            String lexeme = name(list, i);");
+        writer.println("            tokens.add(new Token(TokenType.IDENTIFIER, lexeme, null, rows[node], offsets[node], lexeme.length()));");
+        writer.println("        }");
+        writer.println("        return tokens;");
+        writer.println("    }");
+
+        for (String baseName : new String[]{"Expr", "Stmt"}) {
+            String method = baseName.toLowerCase();
+            writer.println();
+            writer.println("    private " + baseName + " " + method + "(int node) {");
+            writer.println("        if (node == -1) {");
+            writer.println("            return null;");
+            writer.println("        }");
+            writer.println("        switch (kinds[node]) {");
+            for (String[] type : types) {
+                if (!type[0].equals(baseName)) {
+                    continue;
+                }
+                String className = type[1].split(":")[0].trim();
+                String fieldList = type[1].split(":")[1].trim();
+                String finalFields = fieldList.split("\\|")[0].trim();
+                List<String> fields = flatFields(type[0], type[1]);
+                List<String> arguments = new ArrayList<>();
+                for (String field : finalFields.split(", ")) {
+                    String fieldType = field.split(" ")[0];
+                    String value = accessorName(className, field.split(" ")[1]) + "(node)";
+                    if (fieldType.equals("Token")) {
+                        value = "token(node)";
+                    } else if (fieldType.equals("List<Token>")) {
+                        value = "tokens(" + value + ", node)";
+                    } else if (fieldType.startsWith("List<Expr")) {
+                        value = "exprs(" + value + ")";
+                    } else if (fieldType.startsWith("List<Stmt")) {
+                        value = "stmts(" + value + ")";
+                    } else if (fieldType.startsWith("Expr") || fieldType.startsWith("Stmt")) {
+                        String cast = fieldType.contains(".") ? "(" + fieldType + ") " : "";
+                        value = cast + fieldType.split("\\.")[0].toLowerCase() + "(" + value + ")";
+                    }
+                    arguments.add(value);
+                }
+                writer.println("            case " + constantName(className) + ": {");
+                writer.println("                " + baseName + "." + className + " " + method + " = new " + baseName + "."
+                        + className + "(" + String.join(", ", arguments) + ");");
+                // the mutable ones
+                for (String field : fields) {
+                    String name = field.split(" ")[1];
+                    if (!finalFields.contains(field)) {
+                        writer.println("                " + method + "." + name + " = " + accessorName(className, name) + "(node);");
+                    }
+                }
+                writer.println("                return " + method + ";");
+                writer.println("            }");
+            }
+            writer.println("            default:");
+            writer.println("                throw new IllegalStateException(\"not a" + (baseName.equals("Expr") ? "n " : " ")
+                    + method + ": \" + kinds[node]);");
+            writer.println("        }");
+            writer.println("    }");
+        }
+    }
+
+    private static void defineBuilder(PrintWriter writer, List<String[]> types) {
+        writer.println();
+        writer.println("    private static final class Builder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {");
+        writer.println("        private final Flat flat = new Flat();");
+        writer.println("        private int size;");
+        writer.println("        private int operandCount;");
+        writer.println("        private final Map<Object, Integer> indices = new HashMap<>();");
+        writer.println("        private final List<Object> constants = new ArrayList<>();");
+        writer.println();
+        writer.println("        Builder() {");
+        writer.println("            flat.kinds = new byte[64];");
+        writer.println("            flat.types = new byte[64];");
+        writer.println("            flat.rows = new int[64];");
+        writer.println("            flat.offsets = new int[64];");
+        writer.println("            flat.firsts = new int[64];");
+        writer.println("            flat.operands = new int[128];");
+        writer.println("        }");
+        writer.println();
+        writer.println("        Flat finish(int program) {");
+        writer.println("            flat.program = program;");
+        writer.println("            flat.kinds = Arrays.copyOf(flat.kinds, size);");
+        writer.println("            flat.types = Arrays.copyOf(flat.types, size);");
+        writer.println("            flat.rows = Arrays.copyOf(flat.rows, size);");
+        writer.println("            flat.offsets = Arrays.copyOf(flat.offsets, size);");
+        writer.println("            flat.firsts = Arrays.copyOf(flat.firsts, size);");
+        writer.println("            flat.operands = Arrays.copyOf(flat.operands, operandCount);");
+        writer.println("            flat.constants = constants.toArray();");
+        writer.println("            return flat;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int flatten(Expr expr) {");
+        writer.println("            return expr == null ? -1 : expr.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int flatten(Stmt stmt) {");
+        writer.println("            return stmt == null ? -1 : stmt.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        /**");
+        writer.println("         * the elements first, then the list");
+        writer.println("         */");
+        writer.println("        int list(List<?> elements) {");
+        writer.println("            int[] values = new int[elements.size()];");
+        writer.println("            for (int i = 0; i < values.length; i++) {");
+        writer.println("                Object element = elements.get(i);");
+        writer.println("                if (element instanceof Expr) {");
+        writer.println("                    values[i] = flatten((Expr) element);");
+        writer.println("                } else if (element instanceof Stmt) {");
+        writer.println("                    values[i] = flatten((Stmt) element);");
+        writer.println("                } else {");
+        writer.println("                    values[i] = constant(((Token) element).lexeme);");
+        writer.println("                }");
+        writer.println("            }");
+        writer.println("            int list = operandCount;");
+        writer.println("            operand(values.length);");
+        writer.println("            for (int value : values) {");
+        writer.println("                operand(value);");
+        writer.println("            }");
+        writer.println("            return list;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int constant(Object value) {");
+        writer.println("            Integer index = indices.get(value);");
+        writer.println("            if (index == null) {");
+        writer.println("                index = constants.size();");
+        writer.println("                indices.put(value, index);");
+        writer.println("                constants.add(value);");
+        writer.println("            }");
+        writer.println("            return index;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int node(int kind, Token token) {");
+        writer.println("            if (size == flat.kinds.length) {");
+        writer.println("                int capacity = size + (size >> 1);");
+        writer.println("                flat.kinds = Arrays.copyOf(flat.kinds, capacity);");
+        writer.println("                flat.types = Arrays.copyOf(flat.types, capacity);");
+        writer.println("                flat.rows = Arrays.copyOf(flat.rows, capacity);");
+        writer.println("                flat.offsets = Arrays.copyOf(flat.offsets, capacity);");
+        writer.println("                flat.firsts = Arrays.copyOf(flat.firsts, capacity);");
+        writer.println("            }");
+        writer.println("            flat.kinds[size] = (byte) kind;");
+        writer.println("            if (token != null) {");
+        writer.println("                flat.types[size] = (byte) token.type.ordinal();");
+        writer.println("                flat.rows[size] = token.row;");
+        writer.println("                flat.offsets[size] = token.offset;");
+        writer.println("            }");
+        writer.println("            flat.firsts[size] = operandCount;");
+        writer.println("            return size++;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private void operand(int value) {");
+        writer.println("            if (operandCount == flat.operands.length) {");
+        writer.println("                flat.operands = Arrays.copyOf(flat.operands, operandCount + (operandCount >> 1));");
+        writer.println("            }");
+        writer.println("            flat.operands[operandCount++] = value;");
+        writer.println("        }");
+
+        for (String[] type : types) {
+            String baseName = type[0];
+            String className = type[1].split(":")[0].trim();
+            String parameter = baseName.toLowerCase();
+            List<String> fields = flatFields(type[0], type[1]);
+            writer.println();
+            writer.println("        @Override");
+            writer.println("        public Integer visit" + className + baseName + "(" + baseName + "." + className + " "
+                    + parameter + ") {");
+            // the children first
+            String token = "null";
+            for (String field : fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                if (fieldType.startsWith("List<")) {
+                    writer.println("            int " + name + " = list(" + parameter + "." + name + ");");
+                } else if (fieldType.startsWith("Expr") || fieldType.startsWith("Stmt")) {
+                    writer.println("            int " + name + " = flatten(" + parameter + "." + name + ");");
+                } else if (fieldType.equals("Token")) {
+                    token = parameter + "." + name;
+                }
+            }
+            writer.println("            int node = node(" + constantName(className) + ", " + token + ");");
+            for (String field : fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                if (fieldType.equals("Token")) {
+                    writer.println("            operand(constant(" + parameter + "." + name + ".lexeme));");
+                } else if (fieldType.equals("Object")) {
+                    writer.println("            operand(constant(" + parameter + "." + name + "));");
+                } else if (fieldType.equals("int")) {
+                    writer.println("            operand(" + parameter + "." + name + ");");
+                } else if (fieldType.equals("boolean")) {
+                    writer.println("            operand(" + parameter + "." + name + " ? 1 : 0);");
+                } else {
+                    writer.println("            operand(" + name + ");");
+                }
+            }
+            writer.println("            return node;");
+            writer.println("        }");
+        }
+
+        writer.println("    }");
+    }
+
+    /**
+     * GetField → GET_FIELD
+     */
+    private static String constantName(String className) {
+        return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    /**
+     * Binary, left → binaryLeft
+     */
+    private static String accessorName(String className, String field) {
+        return Character.toLowerCase(className.charAt(0)) + className.substring(1)
+                + Character.toUpperCase(field.charAt(0)) + field.substring(1);
+    }
+}
@@ -0,0 +1,204 @@
+package com.chabao18.interpreter.jlox.core;
+
+import com.chabao18.interpreter.jlox.ast.Flat;
+import com.chabao18.interpreter.jlox.ast.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Edit a script at random and check each reload against a full parse of the same version:
+ * <ul>
+ *     <li>the version is accepted if and only if the full parse has no error</li>
+ *     <li>the pieces are those a Reloader that starts from nothing makes</li>
+ *     <li>the declarations to run are declarations of the full parse, rows and columns
+ *     included, and every declaration whose text is new is one of them</li>
+ * </ul>
+ * A version with an error is edited further, and given up after a few errors in a row, as
+ * an editor would undo it.
+ */
+public class ReloaderCheck {
+    private static final String SOURCE = String.join("\n",
+            "var total = 1;",
+            "-2;",
+            "print total;",
+            "// a comment",
+            "var y = \"s",
+            "tr\";",
+            "/* a block",
+            "   comment */ fun add(a, b) {",
+            "  return a + b;",
+            "}",
+            "if (total > 0) { print \"yes\"; }",
+            "else { print \"no\"; }",
+            "class Point {",
+            "  init(x, y) { this.x = x; this.y = y; }",
+            "  sum() { return add(this.x, this.y); }",
+            "}",
+            "for (var i = 0; i < 3; i = i + 1) print i;",
+            "{ var local = \"block\"; print local; }",
+            "while (total < 10) total = total * 2;",
+            "print Point(1, 2).sum();",
+            "");
+
+    // a version and the edit of it, before the random ones
+    private static final String[][] EDITS = {
+            // the declaration goes on in the next piece
+            {"var total = 1;\n-2;\nprint total;", "var total = 1\n-2;\nprint total;"},
+            // the string goes on in the next piece, a comment hides where it starts
+            {"var x = 1;\nvar y = \"s\ntr\";\nprint y;", "var x = 1;\n// var y = \"s\ntr\";\nprint y;"},
+            // the "if" of the piece before goes on
+            {"if (true) { print 1; }\nprint 2;", "if (true) { print 1; } else { print 3; }\nprint 2;"},
+            // the declaration is gone, its text goes to the next piece
+            {"var a = 1;\nvar b = 2;\nprint a;", "var a = 1;\n\nprint a;"},
+    };
+
+    private static final List<String> SNIPPETS = Arrays.asList(
+            ";", "; ", "//", "// ", "/*", "*/", "\"", "\n", " ", "{", "}", "(", ")", "-1", "else ",
+            "else { print 0; }", "var q = 2;", "print q;", "fun f() {}", "\"a\nb\"", "/* c */", "+ 3");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 2) {
+            System.err.println("Usage: reloader_check [edits] [seed]");
+            System.exit(64);
+        }
+        int edits = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        PrintStream err = System.err;
+        // the errors of the versions, both reloaders report them
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        int accepted = 0;
+        int rejected = 0;
+        try {
+            for (String[] edit : EDITS) {
+                Reloader reloader = new Reloader();
+                reloader.reload(edit[0]);
+                reload(reloader, edit[1], reloader.declarations(), err);
+            }
+
+            Reloader reloader = new Reloader();
+            String text = SOURCE;
+            // the last version accepted, and the errors since
+            String version = SOURCE;
+            int errors = 0;
+            List<String> declarations = new ArrayList<>();
+            for (int edit = 0; edit <= edits; edit++) {
+                if (edit > 0) {
+                    text = edit(random, text);
+                }
+                List<String> reloaded = reload(reloader, text, declarations, err);
+                if (reloaded == null) {
+                    rejected++;
+                    if (++errors == 4) {
+                        text = version;
+                        errors = 0;
+                    }
+                } else {
+                    accepted++;
+                    errors = 0;
+                    version = text;
+                    declarations = reloaded;
+                }
+            }
+        } finally {
+            System.setErr(err);
+        }
+        System.out.printf("%d edits, %d versions accepted, %d rejected%n", edits, accepted, rejected);
+    }
+
+    /**
+     * reload a version and parse it in full, exit if they differ
+     *
+     * @param before the declarations of the version the reloader has
+     * @return the declarations of the version, null if it has an error
+     */
+    private static List<String> reload(Reloader reloader, String text, List<String> before, PrintStream err)
+            throws IOException {
+        List<Stmt> changed = reloader.reload(text);
+        Lox.hadError = false;
+        Reloader fresh = new Reloader();
+        List<Stmt> all = fresh.reload(text);
+        Lox.hadError = false;
+
+        String failure = compare(reloader, changed, fresh, all, before);
+        if (failure != null) {
+            err.printf("%s%n--- version:%n%s%n", failure, text);
+            System.exit(1);
+        }
+        return all == null ? null : fresh.declarations();
+    }
+
+    /**
+     * @return what differs, null if nothing does
+     */
+    private static String compare(Reloader reloader, List<Stmt> changed, Reloader fresh, List<Stmt> all,
+                                  List<String> before) throws IOException {
+        if ((changed == null) != (all == null)) {
+            return changed == null ? "rejected, a full parse accepts it" : "accepted, a full parse rejects it";
+        }
+        if (changed == null) {
+            return null;
+        }
+        if (!reloader.toString().equals(fresh.toString())) {
+            return "pieces " + reloader + "\nnot " + fresh;
+        }
+        List<String> flat = new ArrayList<>();
+        for (Stmt statement : all) {
+            flat.add(flatten(statement));
+        }
+        Set<String> runs = new HashSet<>();
+        for (Stmt statement : changed) {
+            runs.add(flatten(statement));
+        }
+        if (!flat.containsAll(runs)) {
+            return "runs a declaration the full parse doesn't have";
+        }
+        List<String> texts = fresh.declarations();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!before.contains(texts.get(i)) && !runs.contains(flat.get(i))) {
+                return "doesn't run the new declaration " + texts.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static String edit(Random random, String text) {
+        int at = random.nextInt(text.length() + 1);
+        switch (random.nextInt(4)) {
+            case 0: {
+                int end = Math.min(text.length(), at + 1 + random.nextInt(4));
+                return text.substring(0, at) + text.substring(end);
+            }
+            case 1: {
+                // comment out a line
+                int line = text.lastIndexOf('\n', at - 1) + 1;
+                return text.substring(0, line) + "// " + text.substring(line);
+            }
+            default: {
+                String snippet = SNIPPETS.get(random.nextInt(SNIPPETS.size()));
+                return text.substring(0, at) + snippet + text.substring(at);
+            }
+        }
+    }
+
+    /**
+     * the declaration as a Flat writes it, rows and columns included
+     */
+    private static String flatten(Stmt statement) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Flat.flatten(Collections.singletonList(statement)).write(new DataOutputStream(bytes));
+        return Arrays.toString(bytes.toByteArray());
+    }
+}
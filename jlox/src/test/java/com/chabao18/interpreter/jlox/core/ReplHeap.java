@@ -0,0 +1,111 @@
+package com.chabao18.interpreter.jlox.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Feed lines to the REPL of each engine and check that the heap doesn't grow with them.
+ * <p>
+ * Every line refers to a global nothing defines, under a name no other line uses. The REPL
+ * compiles a program per line, and the engines keep their globals between lines: the VM must
+ * give back the index of such a name once no chunk uses it (see vm.Globals), the nodes their
+ * cell once no node refers to it (see node.GlobalCells). The heap after the first quarter of
+ * the lines is compared with the heap after the last one.
+ */
+public class ReplHeap {
+    // the tree interpreter first, Lox keeps the engine of the last flag
+    private static final String[] ENGINES = {"", "--vm", "--nodes", "--flat"};
+
+    /**
+     * the lines of the REPL, made as they are read
+     */
+    private static final class Lines extends InputStream {
+        private final int count;
+        private int line = 0;
+        private byte[] text = new byte[0];
+        private int position = 0;
+        // the heap in use once the first quarter of the lines was read
+        long warm = -1;
+
+        Lines(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int read() {
+            if (position == text.length) {
+                if (line == count) {
+                    return -1;
+                }
+                if (line == count / 4) {
+                    warm = used();
+                }
+                text = line(line++).getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            return text[position++] & 0xff;
+        }
+
+        private static String line(int i) {
+            switch (i % 3) {
+                case 0:
+                    return "fun k() { return w" + i + "; }\n";
+                case 1:
+                    return "print u" + i + ";\n";
+                default:
+                    return "var v = u" + i + " == nil;\n";
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 2) {
+            System.err.println("Usage: repl_heap [lines] [bound in KB]");
+            System.exit(64);
+        }
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long bound = (args.length > 1 ? Long.parseLong(args[1]) : 4096) * 1024;
+
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        // the prompts and the errors of the undefined names
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        boolean failed = false;
+        for (String engine : ENGINES) {
+            Lines input = new Lines(lines);
+            System.setIn(input);
+            System.setOut(nowhere);
+            System.setErr(nowhere);
+            try {
+                Lox.main(engine.isEmpty() ? new String[0] : new String[]{engine});
+            } finally {
+                System.setIn(in);
+                System.setOut(out);
+                System.setErr(err);
+            }
+            long growth = used() - input.warm;
+            boolean over = growth > bound;
+            failed |= over;
+            out.printf("%-8s %d KB more after %d lines%s%n", engine.isEmpty() ? "tree" : engine.substring(2),
+                    growth / 1024, lines - lines / 4, over ? ", over " + bound / 1024 + " KB" : "");
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * the heap in use, after what can be collected is
+     */
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}